@@ -0,0 +1,133 @@
+import javax.swing.*;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.Function;
+
+//The operations measured by the JMH benchmarks, set up over synthetic catalogs.
+//The application classes are in the default package, which JMH benchmarks can't be in and named packages
+//can't import; so this class sits next to them, and the benchmarks look up its factory methods by
+//reflection once and then call the returned JDK functional interfaces.
+public class CatalogWorkloads {
+    private static final long SEED = 42;
+
+    private CatalogWorkloads() {
+    }
+
+    //Search bar queries answered from the search indexes.
+    public static Function<String, Object> indexedSearch(int photoCount) {
+        SearchIndex index = new SearchIndex();
+        for (Photo photo : SyntheticCatalog.photos(SyntheticCatalog.collections(photoCount, SEED))) {
+            index.add(photo);
+        }
+        return query -> index.search(query, "Titles");
+    }
+
+    //Search bar queries with the facet counts of their results, over indexes that know the collections.
+    public static Function<String, Object> facetedSearch(int photoCount) {
+        SearchIndex index = new SearchIndex();
+        for (PhotoCollection collection : SyntheticCatalog.collections(photoCount, SEED).values()) {
+            for (Photo photo : collection.getPhotos()) {
+                index.add(photo);
+                index.addToCollection(collection.getName(), photo);
+            }
+        }
+        return query -> index.searchWithFacets(query, "Titles");
+    }
+
+    //The same queries checked against every photo, as the search did before it had indexes. Collections
+    //aren't known here, so "in:" clauses match nothing.
+    public static Function<String, Object> scanSearch(int photoCount) {
+        List<Photo> photos = SyntheticCatalog.photos(SyntheticCatalog.collections(photoCount, SEED));
+        return query -> {
+            SearchQuery compiled = SearchQuery.compile(query, "Titles");
+            List<Photo> results = new ArrayList<>();
+            for (Photo photo : photos) {
+                if (compiled.matches(photo, (p, collection) -> false)) {
+                    results.add(photo);
+                }
+            }
+            return results;
+        };
+    }
+
+    //Writing the whole catalog to a snapshot in directory.
+    public static Callable<Object> saveSnapshot(int photoCount, File directory) {
+        Map<String, PhotoCollection> collections = SyntheticCatalog.collections(photoCount, SEED);
+        File file = new File(directory, "collections.dat");
+        return () -> {
+            CatalogFormat.writeSnapshot(collections, file);
+            return file.length();
+        };
+    }
+
+    //Reading every photo of a snapshot back.
+    public static Callable<Object> loadSnapshot(int photoCount, File directory) throws IOException {
+        File file = new File(directory, "collections.dat");
+        CatalogFormat.writeSnapshot(SyntheticCatalog.collections(photoCount, SEED), file);
+        return () -> CatalogFormat.readSnapshot(file);
+    }
+
+    //Opening a catalog as the application does at startup: snapshot, journal and indexes.
+    public static Callable<Object> loadCatalog(int photoCount, File directory) throws IOException {
+        CatalogFormat.writeSnapshot(SyntheticCatalog.collections(photoCount, SEED), new File(directory, "collections.dat"));
+        return () -> {
+            PhotoCatalog catalog = new PhotoCatalog(directory);
+            try {
+                catalog.load();
+                return catalog.getPhotoCount();
+            } finally {
+                catalog.close();
+            }
+        };
+    }
+
+    //Reading every per-photo file of photos/, as loadPhotos does at startup for files the catalog lacks.
+    public static Callable<Object> loadPhotoFiles(int photoCount, File directory) {
+        File folder = new File(directory, "photos");
+        folder.mkdirs();
+        for (Photo photo : SyntheticCatalog.photos(SyntheticCatalog.collections(photoCount, SEED))) {
+            try {
+                CatalogFormat.writePhotoFile(photo, new File(folder, CatalogFormat.photoFileName(photo)));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return () -> {
+            CountDownLatch done = new CountDownLatch(1);
+            int[] loaded = new int[1];
+            PhotoLoader.load(folder, id -> false, new PhotoLoader.Listener() {
+                @Override
+                public void batchLoaded(List<Photo> photos) {
+                    loaded[0] += photos.size();
+                }
+
+                @Override
+                public void progress(int count, int total) {
+                }
+
+                @Override
+                public void finished() {
+                    done.countDown();
+                }
+            });
+            done.await();
+            return loaded[0];
+        };
+    }
+
+    //Showing a whole catalog in a JTree, as after loading or clearing a search.
+    public static Callable<Object> treeRebuild(int photoCount) {
+        Map<String, PhotoCollection> collections = SyntheticCatalog.collections(photoCount, SEED);
+        CatalogTreeModel model = new CatalogTreeModel();
+        JTree tree = new JTree(model);
+        return () -> {
+            model.setCollections(collections);
+            tree.expandRow(0);
+            return tree.getRowCount();
+        };
+    }
+}
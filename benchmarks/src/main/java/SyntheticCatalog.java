@@ -0,0 +1,80 @@
+import java.time.LocalDate;
+import java.util.*;
+
+//Generates catalogs shaped like real libraries, for benchmarking. Photos come in shoots of 50-400 files
+//sharing a directory, a day and a few tags; tags are drawn from a Zipf distribution over a vocabulary of
+//TAG_COUNT, so "tag0" is on a large share of photos and most tags are rare, as in real keyword sets.
+//About 5% of the photos are filed into one of 50 named collections. The same seed gives the same catalog.
+public class SyntheticCatalog {
+    public static final int TAG_COUNT = 2000;
+    private static final String[] WORDS = {"sunset", "beach", "mountain", "city", "portrait", "family", "dinner",
+            "forest", "river", "snow", "street", "market", "wedding", "concert", "garden", "harbour", "bridge",
+            "museum", "desert", "lake"};
+    private static final LocalDate FIRST_DAY = LocalDate.of(2010, 1, 1);
+    private static final int DAYS = 15 * 365;
+
+    private SyntheticCatalog() {
+    }
+
+    //Returns count photos split over Default and the named collections.
+    public static Map<String, PhotoCollection> collections(int count, long seed) {
+        Random random = new Random(seed);
+        double[] tagWeights = zipfCumulative(TAG_COUNT, 1.0);
+        Map<String, PhotoCollection> collections = new HashMap<>();
+        PhotoCollection defaultCollection = new PhotoCollection(PhotoCatalog.DEFAULT_COLLECTION);
+        collections.put(defaultCollection.getName(), defaultCollection);
+        int made = 0;
+        for (int shoot = 0; made < count; shoot++) {
+            int size = Math.min(count - made, 50 + random.nextInt(351));
+            LocalDate day = FIRST_DAY.plusDays(random.nextInt(DAYS));
+            String directory = "/photos/" + day.getYear() + "/shoot-" + shoot + "/";
+            String subject = WORDS[random.nextInt(WORDS.length)];
+            String[] shootTags = {tag(random, tagWeights), tag(random, tagWeights), tag(random, tagWeights)};
+            for (int i = 0; i < size; i++, made++) {
+                Photo photo = new Photo(subject + " " + WORDS[random.nextInt(WORDS.length)] + " " + i,
+                        "Shot " + i + " of " + size + " at the " + subject, day, directory + "IMG_" + i + ".jpg");
+                for (int t = random.nextInt(3); t < shootTags.length; t++) {
+                    photo.addTag(shootTags[t]);
+                }
+                for (int t = random.nextInt(4); t > 0; t--) {
+                    photo.addTag(tag(random, tagWeights));
+                }
+                if (random.nextInt(20) == 0) {
+                    String name = "Album " + random.nextInt(50);
+                    collections.computeIfAbsent(name, PhotoCollection::new).addPhoto(photo);
+                } else {
+                    defaultCollection.addPhoto(photo);
+                }
+            }
+        }
+        return collections;
+    }
+
+    //Every photo of the collections, each once.
+    public static List<Photo> photos(Map<String, PhotoCollection> collections) {
+        List<Photo> photos = new ArrayList<>();
+        for (PhotoCollection collection : collections.values()) {
+            photos.addAll(collection.getPhotos());
+        }
+        return photos;
+    }
+
+    private static String tag(Random random, double[] cumulative) {
+        int index = Arrays.binarySearch(cumulative, random.nextDouble());
+        return "tag" + (index < 0 ? -index - 1 : index);
+    }
+
+    //Cumulative probabilities of ranks 0..n-1 under a Zipf distribution with the given exponent.
+    private static double[] zipfCumulative(int n, double exponent) {
+        double[] cumulative = new double[n];
+        double total = 0;
+        for (int rank = 0; rank < n; rank++) {
+            total += 1 / Math.pow(rank + 1, exponent);
+            cumulative[rank] = total;
+        }
+        for (int rank = 0; rank < n; rank++) {
+            cumulative[rank] /= total;
+        }
+        return cumulative;
+    }
+}
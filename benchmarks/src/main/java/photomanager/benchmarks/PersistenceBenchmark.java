@@ -0,0 +1,58 @@
+package photomanager.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+//Saving and loading collections.dat, and opening a whole catalog (snapshot, journal and search indexes).
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g", "-Djava.awt.headless=true"})
+public class PersistenceBenchmark {
+    @Param({"10000", "100000", "1000000"})
+    public int photoCount;
+
+    private File saveDirectory;
+    private File loadDirectory;
+    private File catalogDirectory;
+    private Callable<Object> save;
+    private Callable<Object> load;
+    private Callable<Object> loadCatalog;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        saveDirectory = TempDirectory.create();
+        loadDirectory = TempDirectory.create();
+        catalogDirectory = TempDirectory.create();
+        save = Workloads.create("saveSnapshot", photoCount, saveDirectory);
+        load = Workloads.create("loadSnapshot", photoCount, loadDirectory);
+        loadCatalog = Workloads.create("loadCatalog", photoCount, catalogDirectory);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        TempDirectory.delete(saveDirectory);
+        TempDirectory.delete(loadDirectory);
+        TempDirectory.delete(catalogDirectory);
+    }
+
+    @Benchmark
+    public Object saveCollections() throws Exception {
+        return save.call();
+    }
+
+    @Benchmark
+    public Object loadCollections() throws Exception {
+        return load.call();
+    }
+
+    @Benchmark
+    public Object loadCatalog() throws Exception {
+        return loadCatalog.call();
+    }
+}
@@ -0,0 +1,49 @@
+package photomanager.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+//Search bar queries over the indexes against the same queries checked photo by photo, and over the
+//indexes with the facet counts of the results.
+//The queries cover a common tag, a rare tag, a title prefix, a date range and a combination.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g", "-Djava.awt.headless=true"})
+public class SearchBenchmark {
+    @Param({"10000", "100000", "1000000"})
+    public int photoCount;
+
+    @Param({"tag:tag0", "tag:tag1500", "sunset", "date:01/06/2015..31/08/2015", "tag:tag3 beach"})
+    public String query;
+
+    private Function<String, Object> indexed;
+    private Function<String, Object> scan;
+    private Function<String, Object> faceted;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        indexed = Workloads.create("indexedSearch", photoCount);
+        scan = Workloads.create("scanSearch", photoCount);
+        faceted = Workloads.create("facetedSearch", photoCount);
+    }
+
+    @Benchmark
+    public Object indexed() {
+        return indexed.apply(query);
+    }
+
+    @Benchmark
+    public Object scan() {
+        return scan.apply(query);
+    }
+
+    @Benchmark
+    public Object faceted() {
+        return faceted.apply(query);
+    }
+}
@@ -0,0 +1,39 @@
+package photomanager.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+//Reading one file per photo from photos/, as loadPhotos does at startup.
+//Fewer photos than the other benchmarks, since every one of them is a file on disk.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true"})
+public class StartupBenchmark {
+    @Param({"1000", "10000"})
+    public int photoCount;
+
+    private File directory;
+    private Callable<Object> loadPhotos;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        directory = TempDirectory.create();
+        loadPhotos = Workloads.create("loadPhotoFiles", photoCount, directory);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        TempDirectory.delete(directory);
+    }
+
+    @Benchmark
+    public Object loadPhotos() throws Exception {
+        return loadPhotos.call();
+    }
+}
@@ -0,0 +1,23 @@
+package photomanager.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+//Scratch directory for the benchmarks that read and write catalog files.
+final class TempDirectory {
+    private TempDirectory() {
+    }
+
+    static File create() throws IOException {
+        return Files.createTempDirectory("photo-manager-bench").toFile();
+    }
+
+    static void delete(File directory) throws IOException {
+        try (Stream<java.nio.file.Path> paths = Files.walk(directory.toPath())) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
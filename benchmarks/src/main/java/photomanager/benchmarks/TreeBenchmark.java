@@ -0,0 +1,30 @@
+package photomanager.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+//Replacing the collections shown in a JTree and laying out the expanded root, as after a load or a search.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g", "-Djava.awt.headless=true"})
+public class TreeBenchmark {
+    @Param({"10000", "100000", "1000000"})
+    public int photoCount;
+
+    private Callable<Object> rebuild;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        rebuild = Workloads.create("treeRebuild", photoCount);
+    }
+
+    @Benchmark
+    public Object rebuildTree() throws Exception {
+        return rebuild.call();
+    }
+}
@@ -0,0 +1,25 @@
+package photomanager.benchmarks;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+//Looks up the factory methods of CatalogWorkloads, which is in the default package with the application
+//classes and so can't be imported from here. Only used in @Setup methods, never inside a measurement.
+final class Workloads {
+    private Workloads() {
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> T create(String name, Object... arguments) throws Exception {
+        for (Method method : Class.forName("CatalogWorkloads").getMethods()) {
+            if (method.getName().equals(name) && method.getParameterCount() == arguments.length) {
+                try {
+                    return (T) method.invoke(null, arguments);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                }
+            }
+        }
+        throw new NoSuchMethodException("CatalogWorkloads." + name);
+    }
+}
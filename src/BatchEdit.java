@@ -0,0 +1,84 @@
+import javax.swing.*;
+import java.util.function.Consumer;
+
+//An edit of many photos at once, e.g. of the photos selected in the tree or the grid or of a whole collection,
+//run in the background. It is made with a single catalog call, so it is one change: one journal record and one
+//event per collection however many photos it touches. The catalog works through the photos in steps before
+//making the change, and progress is reported and cancellation checked after each step; cancelling leaves the
+//catalog as it was. Once the last step is done the change is being made and can't be cancelled any more.
+public class BatchEdit {
+    private static final Metrics.Timer TIMER = Metrics.timer("ui.batchEdit");
+
+    //Callbacks, all made on the EDT.
+    public interface Listener {
+        void progress(int done, int total);
+
+        //The change is being made to the catalog and can no longer be cancelled.
+        void applying();
+
+        void finished();
+
+        void cancelled();
+
+        void failed(String message);
+    }
+
+    private boolean cancelled;
+    private boolean applying;
+
+    private BatchEdit() {
+    }
+
+    //Starts an edit in the background and returns immediately. edit makes one catalog call, passing it the
+    //progress to report its steps to.
+    public static BatchEdit start(Consumer<PhotoCatalog.Progress> edit, Listener listener) {
+        BatchEdit batchEdit = new BatchEdit();
+        Thread thread = new Thread(() -> batchEdit.run(edit, listener), "batch-edit");
+        thread.setDaemon(true);
+        thread.start();
+        return batchEdit;
+    }
+
+    //Stops the edit unless it is already being made. Returns false if it was too late.
+    public synchronized boolean cancel() {
+        if (applying) {
+            return false;
+        }
+        cancelled = true;
+        return true;
+    }
+
+    private synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    private synchronized boolean startApplying() {
+        applying = !cancelled;
+        return applying;
+    }
+
+    private void run(Consumer<PhotoCatalog.Progress> edit, Listener listener) {
+        try {
+            TIMER.time(() -> edit.accept((done, total) -> step(done, total, listener)));
+        } catch (RuntimeException e) {
+            TIMER.failed(e);
+            SwingUtilities.invokeLater(() -> listener.failed(e.getMessage()));
+            return;
+        }
+        //The catalog call may also return without taking any step, e.g. when there was nothing to change
+        SwingUtilities.invokeLater(isCancelled() ? listener::cancelled : listener::finished);
+    }
+
+    //Called by the catalog after each step, with its read lock held, so it only hands the progress on.
+    private boolean step(int done, int total, Listener listener) {
+        SwingUtilities.invokeLater(() -> listener.progress(done, total));
+        if (done < total) {
+            return !isCancelled();
+        }
+        if (!startApplying()) {
+            return false;
+        }
+        SwingUtilities.invokeLater(listener::applying);
+        return true;
+    }
+}
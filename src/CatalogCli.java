@@ -0,0 +1,199 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+
+//Command line entry point for scripted imports and searches, working on the same catalog files as the UI.
+//Run it from the directory holding the catalog, or point --catalog at it; don't run it while the UI has the
+//same catalog open.
+public class CatalogCli {
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("dd/MM/yyyy");
+    private static final String USAGE = String.join("\n",
+            "Usage: java CatalogCli [--catalog DIR] COMMAND [ARGS]",
+            "Commands:",
+            "  import FOLDER [--near-duplicates]   add every photo under FOLDER",
+            "  add FILE [--title T] [--description D] [--date dd/MM/yyyy] [--tags a,b]",
+            "  search QUERY [--criteria Titles|Descriptions|Dates|Tags]",
+            "  remove FILE                         remove a photo from the catalog",
+            "  move FILE COLLECTION                add a photo to a collection, taking it out of Default",
+            "  move-matching QUERY COLLECTION [--from SOURCE] [--criteria C]",
+            "                                      add every photo QUERY finds to COLLECTION at once; with --from,",
+            "                                      move the ones in SOURCE out of it instead",
+            "  remove-from FILE COLLECTION         take a photo out of a collection; it goes back to Default if",
+            "                                      it is in no other",
+            "  merge SOURCE TARGET                 add the photos of SOURCE to TARGET and delete SOURCE",
+            "  tag QUERY TAGS [--criteria C]       add tags, e.g. a,b, to every photo QUERY finds at once",
+            "  retag QUERY OLD [NEW] [--criteria C]",
+            "                                      replace tag OLD with NEW on every photo QUERY finds that has it,",
+            "                                      or remove it without NEW",
+            "  delete-collection COLLECTION",
+            "  list [COLLECTION]                   list collections, or the photos in one",
+            "  save                                write the whole catalog to a new snapshot");
+
+    public static void main(String[] args) {
+        List<String> arguments = new ArrayList<>(Arrays.asList(args));
+        File directory = new File(".");
+        String catalogOption = option(arguments, "--catalog");
+        if (catalogOption != null) {
+            directory = new File(catalogOption);
+        }
+        if (arguments.isEmpty()) {
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+        PhotoCatalog catalog = new PhotoCatalog(directory);
+        catalog.load();
+        int status;
+        try {
+            status = run(catalog, arguments.remove(0), arguments);
+        } catch (IllegalArgumentException | IOException e) {
+            System.err.println("Error: " + e.getMessage());
+            status = 1;
+        } finally {
+            catalog.close();
+        }
+        System.exit(status);
+    }
+
+    private static int run(PhotoCatalog catalog, String command, List<String> arguments) throws IOException {
+        switch (command) {
+            case "import": {
+                boolean perceptual = arguments.remove("--near-duplicates");
+                PhotoImporter.Report report = PhotoImporter.scan(Paths.get(argument(arguments, 0, "FOLDER")),
+                        catalog.getPhotoPaths(), perceptual, (done, total) -> System.err.print("\r" + done + "/" + total));
+                System.err.println();
+                List<String> notes = new ArrayList<>();
+                int imported = catalog.importPhotos(report.getPhotos(), notes).size();
+                System.out.printf("Imported %d of %d photos in %.1f s (%.0f files/s), skipped %d already in the catalog%n",
+                        imported, report.getFileCount(), report.getSeconds(), report.getFilesPerSecond(), report.getSkippedCount());
+                notes.forEach(System.out::println);
+                report.getErrors().forEach(error -> System.err.println("Error: " + error));
+                return report.getErrors().isEmpty() ? 0 : 1;
+            }
+            case "add": {
+                String title = option(arguments, "--title");
+                String description = option(arguments, "--description");
+                String date = option(arguments, "--date");
+                String tags = option(arguments, "--tags");
+                File file = new File(argument(arguments, 0, "FILE")).getAbsoluteFile();
+                Photo photo = new Photo(title != null ? title : file.getName(), description != null ? description : "",
+                        date != null ? parseDate(date) : LocalDate.now(), file.getPath());
+                if (tags != null) {
+                    for (String tag : tags.split(",")) {
+                        photo.addTag(tag.trim());
+                    }
+                }
+                photo.setContentHash(ContentHasher.contentHash(file.toPath()));
+                if (!catalog.addPhoto(photo)) {
+                    throw new IllegalArgumentException(file + " is already in the catalog");
+                }
+                return 0;
+            }
+            case "search": {
+                String criteria = option(arguments, "--criteria");
+                List<Photo> results = catalog.search(argument(arguments, 0, "QUERY").toLowerCase(), criteria != null ? criteria : "Titles");
+                for (Photo photo : results) {
+                    System.out.println(photo.getFilePath());
+                }
+                System.err.println(results.size() + " photos found");
+                return 0;
+            }
+            case "remove":
+                return catalog.removePhoto(photo(catalog, argument(arguments, 0, "FILE"))) ? 0 : 1;
+            case "move":
+                return catalog.movePhoto(photo(catalog, argument(arguments, 0, "FILE")), argument(arguments, 1, "COLLECTION")) ? 0 : 1;
+            case "move-matching": {
+                String source = option(arguments, "--from");
+                String criteria = option(arguments, "--criteria");
+                List<Photo> matches = catalog.search(argument(arguments, 0, "QUERY").toLowerCase(), criteria != null ? criteria : "Titles");
+                String target = argument(arguments, 1, "COLLECTION");
+                List<Photo> changed = source != null ? catalog.moveToCollection(matches, source, target)
+                        : catalog.addToCollection(matches, target);
+                System.err.println(changed.size() + " of " + matches.size() + " photos " + (source != null ? "moved" : "added"));
+                return 0;
+            }
+            case "remove-from":
+                return catalog.removeFromCollection(Collections.singletonList(photo(catalog, argument(arguments, 0, "FILE"))),
+                        argument(arguments, 1, "COLLECTION")).isEmpty() ? 1 : 0;
+            case "merge":
+                return catalog.mergeCollections(argument(arguments, 0, "SOURCE"), argument(arguments, 1, "TARGET")) ? 0 : 1;
+            case "tag":
+            case "retag": {
+                String criteria = option(arguments, "--criteria");
+                List<Photo> matches = catalog.search(argument(arguments, 0, "QUERY").toLowerCase(), criteria != null ? criteria : "Titles");
+                List<Photo> changed = command.equals("tag")
+                        ? catalog.tagPhotos(matches, Arrays.asList(argument(arguments, 1, "TAGS").split(",")))
+                        : catalog.retagPhotos(matches, argument(arguments, 1, "OLD"), arguments.size() > 2 ? arguments.get(2) : "");
+                System.err.println(changed.size() + " of " + matches.size() + " photos retagged");
+                return 0;
+            }
+            case "delete-collection":
+                return catalog.deleteCollection(argument(arguments, 0, "COLLECTION")) ? 0 : 1;
+            case "list": {
+                Map<String, PhotoCollection> collections = catalog.copyCollections();
+                if (arguments.isEmpty()) {
+                    for (String name : new TreeSet<>(collections.keySet())) {
+                        System.out.println(name + "\t" + collections.get(name).getPhotos().size());
+                    }
+                } else {
+                    PhotoCollection collection = collections.get(arguments.get(0));
+                    if (collection == null) {
+                        throw new IllegalArgumentException("No collection named " + arguments.get(0));
+                    }
+                    for (Photo photo : collection.getPhotos()) {
+                        System.out.println(photo.getFilePath() + "\t" + photo.getTitle() + "\t" + DATE_FORMAT.format(photo.getDate()));
+                    }
+                }
+                return 0;
+            }
+            case "save":
+                catalog.save();
+                return 0;
+            default:
+                throw new IllegalArgumentException("Unknown command " + command + "\n" + USAGE);
+        }
+    }
+
+    //Removes "--name value" from the arguments and returns the value, or null if the option isn't there.
+    private static String option(List<String> arguments, String name) {
+        int index = arguments.indexOf(name);
+        if (index < 0) {
+            return null;
+        }
+        if (index + 1 >= arguments.size()) {
+            throw new IllegalArgumentException(name + " needs a value");
+        }
+        arguments.remove(index);
+        return arguments.remove(index);
+    }
+
+    private static String argument(List<String> arguments, int index, String name) {
+        if (index >= arguments.size()) {
+            throw new IllegalArgumentException("Missing " + name + "\n" + USAGE);
+        }
+        return arguments.get(index);
+    }
+
+    //Photos are named by their file, as given or relative to the current directory.
+    private static Photo photo(PhotoCatalog catalog, String path) {
+        Photo photo = catalog.getPhoto(path);
+        if (photo == null) {
+            photo = catalog.getPhoto(new File(path).getAbsolutePath());
+        }
+        if (photo == null) {
+            throw new IllegalArgumentException(path + " is not in the catalog");
+        }
+        return photo;
+    }
+
+    private static LocalDate parseDate(String date) {
+        try {
+            return LocalDate.parse(date, DATE_FORMAT);
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid date " + date + ", use dd/MM/yyyy");
+        }
+    }
+}
@@ -0,0 +1,392 @@
+import java.io.*;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.*;
+
+//Binary format of the catalog snapshots (collections.dat and its later generations) and of the per-photo files in photos/.
+//Snapshot layout, big-endian:
+//  header       magic "PMC1", version, photo/collection/string counts and the offsets of the sections below
+//  photos       one length-prefixed record per photo; tags and directories are references into the string table.
+//               Since version 2 a record ends with the content hash ("" if unknown) and the perceptual hash;
+//               since version 3 it starts with the photo's id
+//  offsets      start of every photo record, so one photo can be decoded without touching the others
+//  collections  name, photo count and the indices of its photos
+//  strings      interned tags and photo directories, each as [length][UTF-8 bytes]
+//Photo files are named after the photo's id and hold a single stand-alone record; since version 2 it includes the id.
+//Files written with Java serialization by older versions are still read, so they can be migrated.
+public class CatalogFormat {
+    private static final int SNAPSHOT_MAGIC = 0x504d4331; //"PMC1"
+    private static final int PHOTO_MAGIC = 0x504d5031; //"PMP1"
+    private static final short VERSION = 3;
+    private static final short PHOTO_VERSION = 2;
+    private static final int HEADER_SIZE = 4 + 2 + 4 * 3 + 8 * 4;
+    private static final int JAVA_SERIALIZATION_MAGIC = 0xaced;
+
+    private CatalogFormat() {
+    }
+
+    //Snapshot
+
+    //Writes the collections and fsyncs the file. Photos shared by several collections are stored once.
+    public static void writeSnapshot(Map<String, PhotoCollection> collections, File file) throws IOException {
+        Map<Photo, Integer> photoIndices = new IdentityHashMap<>();
+        List<Photo> photos = new ArrayList<>();
+        for (PhotoCollection collection : collections.values()) {
+            for (Photo photo : collection.getPhotos()) {
+                if (!photoIndices.containsKey(photo)) {
+                    photoIndices.put(photo, photos.size());
+                    photos.add(photo);
+                }
+            }
+        }
+        Map<String, Integer> strings = new LinkedHashMap<>();
+        long[] photoOffsets = new long[photos.size()];
+        long offsetsStart;
+        long collectionsStart;
+        long stringsStart;
+        try (FileOutputStream fos = new FileOutputStream(file);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 1 << 16))) {
+            out.write(new byte[HEADER_SIZE]);
+            ByteArrayOutputStream record = new ByteArrayOutputStream();
+            DataOutputStream recordOut = new DataOutputStream(record);
+            for (int i = 0; i < photos.size(); i++) {
+                photoOffsets[i] = out.size();
+                record.reset();
+                writeInternedPhoto(recordOut, photos.get(i), strings);
+                out.writeInt(record.size());
+                record.writeTo(out);
+            }
+            offsetsStart = out.size();
+            for (long offset : photoOffsets) {
+                out.writeLong(offset);
+            }
+            collectionsStart = out.size();
+            for (Map.Entry<String, PhotoCollection> entry : collections.entrySet()) {
+                writeString(out, entry.getKey());
+                List<Photo> members = entry.getValue().getPhotos();
+                out.writeInt(members.size());
+                for (Photo photo : members) {
+                    out.writeInt(photoIndices.get(photo));
+                }
+            }
+            stringsStart = out.size();
+            for (String string : strings.keySet()) {
+                writeString(out, string);
+            }
+            out.flush();
+            fos.getFD().sync();
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(SNAPSHOT_MAGIC).putShort(VERSION)
+                    .putInt(photos.size()).putInt(collections.size()).putInt(strings.size())
+                    .putLong(offsetsStart).putLong(collectionsStart).putLong(stringsStart).putLong(0);
+            header.flip();
+            channel.write(header, 0);
+            channel.force(false);
+        }
+    }
+
+    //Reads every collection of a snapshot, whichever format it was written in.
+    public static Map<String, PhotoCollection> readSnapshot(File file) throws IOException {
+        return readSnapshot(file, null);
+    }
+
+    //Reads every collection of a snapshot. Given a store opened on the same file, photos read from the
+    //binary format leave their descriptions in it; legacy snapshots are read in full.
+    @SuppressWarnings("unchecked")
+    public static Map<String, PhotoCollection> readSnapshot(File file, PhotoStore store) throws IOException {
+        if (isLegacy(file)) {
+            try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                Object obj = ois.readObject();
+                return obj instanceof Map ? (Map<String, PhotoCollection>) obj : new HashMap<>();
+            } catch (ClassNotFoundException e) {
+                throw new IOException(e);
+            }
+        }
+        try (Snapshot snapshot = Snapshot.open(file)) {
+            Photo[] photos = new Photo[snapshot.photoCount()];
+            for (int i = 0; i < photos.length; i++) {
+                photos[i] = snapshot.photo(i, store);
+            }
+            Map<String, PhotoCollection> collections = new HashMap<>();
+            for (int i = 0; i < snapshot.collectionCount(); i++) {
+                PhotoCollection collection = new PhotoCollection(snapshot.collectionName(i));
+                for (int index : snapshot.collectionPhotos(i)) {
+                    collection.addPhoto(photos[index]);
+                }
+                collections.put(collection.getName(), collection);
+            }
+            return collections;
+        }
+    }
+
+    //Tells whether a snapshot was written by an older version and should be rewritten.
+    public static boolean isOutdatedSnapshot(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            return in.readInt() != SNAPSHOT_MAGIC || in.readShort() < VERSION;
+        } catch (EOFException e) {
+            return false;
+        }
+    }
+
+    //Tells whether a file was written with Java serialization by an older version.
+    public static boolean isLegacy(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            return in.readUnsignedShort() == JAVA_SERIALIZATION_MAGIC;
+        } catch (EOFException e) {
+            return false;
+        }
+    }
+
+    //Memory-mapped snapshot whose photo records are decoded one at a time, on request. Closing it unmaps
+    //the file, so it can be deleted straight away even where a mapped file can't be, as on Windows.
+    public static class Snapshot implements Closeable {
+        private MappedByteBuffer buffer;
+        private final short version;
+        private final String[] strings;
+        private final int photoCount;
+        private final int offsetsStart;
+        private final int[] collectionOffsets;
+
+        private Snapshot(MappedByteBuffer buffer) throws IOException {
+            this.buffer = buffer;
+            version = snapshotVersion(buffer);
+            photoCount = buffer.getInt(6);
+            collectionOffsets = new int[buffer.getInt(10)];
+            strings = new String[buffer.getInt(14)];
+            offsetsStart = (int) buffer.getLong(18);
+            ByteBuffer in = buffer.duplicate();
+            in.position((int) buffer.getLong(34));
+            for (int i = 0; i < strings.length; i++) {
+                strings[i] = readString(in);
+            }
+            in.position((int) buffer.getLong(26));
+            for (int i = 0; i < collectionOffsets.length; i++) {
+                collectionOffsets[i] = in.position();
+                readString(in);
+                int size = in.getInt();
+                in.position(in.position() + 4 * size);
+            }
+        }
+
+        public static Snapshot open(File file) throws IOException {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                if (channel.size() > Integer.MAX_VALUE) {
+                    throw new IOException("Catalog snapshot too large to map: " + file);
+                }
+                return new Snapshot(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            }
+        }
+
+        public int photoCount() {
+            return photoCount;
+        }
+
+        //Decodes a single photo record.
+        public Photo photo(int index) {
+            return photo(index, null);
+        }
+
+        //Decodes a single photo record. Given a store opened on this snapshot, the description is left in it.
+        public Photo photo(int index, PhotoStore store) {
+            ByteBuffer in = buffer.duplicate();
+            int offset = (int) buffer.getLong(offsetsStart + 8 * index);
+            in.position(offset + 4);
+            long id = version >= 3 ? in.getLong() : Photo.newId();
+            String title = readString(in);
+            String description = null;
+            if (store == null) {
+                description = readString(in);
+            } else {
+                in.position(in.position() + 4 + in.getInt(in.position()));
+            }
+            LocalDate date = LocalDate.ofEpochDay(in.getLong());
+            String directory = strings[in.getInt()];
+            String path = directory + readString(in);
+            Photo photo = store == null ? new Photo(id, title, description, date, path) : new Photo(id, title, store, offset, date, path);
+            int tagCount = in.getInt();
+            for (int i = 0; i < tagCount; i++) {
+                photo.addTag(strings[in.getInt()]);
+            }
+            if (version >= 2) {
+                String contentHash = readString(in);
+                photo.setContentHash(contentHash.isEmpty() ? null : contentHash);
+                photo.setPerceptualHash(in.getLong());
+            }
+            return photo;
+        }
+
+        public int collectionCount() {
+            return collectionOffsets.length;
+        }
+
+        public String collectionName(int index) {
+            ByteBuffer in = buffer.duplicate();
+            in.position(collectionOffsets[index]);
+            return readString(in);
+        }
+
+        //Returns the indices of the photos in a collection.
+        public int[] collectionPhotos(int index) {
+            ByteBuffer in = buffer.duplicate();
+            in.position(collectionOffsets[index]);
+            readString(in);
+            int[] photos = new int[in.getInt()];
+            in.asIntBuffer().get(photos);
+            return photos;
+        }
+
+        //The snapshot can't be read any more afterwards.
+        @Override
+        public void close() {
+            if (buffer != null) {
+                unmap(buffer);
+                buffer = null;
+            }
+        }
+
+        //Java has no API to unmap a buffer before it is collected; Unsafe.invokeCleaner, from Java 9 on, does
+        //it. Where that isn't available the mapping is left to the garbage collector.
+        private static void unmap(MappedByteBuffer buffer) {
+            try {
+                Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+                theUnsafe.setAccessible(true);
+                unsafeClass.getMethod("invokeCleaner", ByteBuffer.class).invoke(theUnsafe.get(null), buffer);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                //Unmapped when collected
+            }
+        }
+    }
+
+    //Checks a snapshot's header, at the start of the buffer, and returns its format version.
+    static short snapshotVersion(ByteBuffer header) throws IOException {
+        if (header.getInt(0) != SNAPSHOT_MAGIC) {
+            throw new IOException("Not a catalog snapshot");
+        }
+        short version = header.getShort(4);
+        if (version > VERSION) {
+            throw new IOException("Catalog snapshot version " + version + " is newer than this application");
+        }
+        return version;
+    }
+
+    //Decodes the description from the bytes of a snapshot photo record, for PhotoStore.
+    static String readDescription(ByteBuffer record, short version) {
+        if (version >= 3) {
+            record.getLong();
+        }
+        record.position(record.position() + 4 + record.getInt(record.position()));
+        return readString(record);
+    }
+
+    //Per-photo files
+
+    public static void writePhotoFile(Photo photo, File file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(PHOTO_MAGIC);
+            out.writeShort(PHOTO_VERSION);
+            writePhoto(out, photo);
+        }
+    }
+
+    //Reads a photo file, whichever format it was written in.
+    public static Photo readPhotoFile(File file) throws IOException {
+        if (isLegacy(file)) {
+            try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                return (Photo) ois.readObject();
+            } catch (ClassNotFoundException e) {
+                throw new IOException(e);
+            }
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != PHOTO_MAGIC) {
+                throw new IOException("Not a photo file: " + file);
+            }
+            return readPhoto(in, in.readShort() >= 2);
+        }
+    }
+
+    //Tells whether a photo file was written by an older version and should be rewritten.
+    public static boolean isOutdatedPhotoFile(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            return in.readInt() != PHOTO_MAGIC || in.readShort() < PHOTO_VERSION;
+        } catch (EOFException e) {
+            return false;
+        }
+    }
+
+    //Name of the file in photos/ holding a photo.
+    public static String photoFileName(Photo photo) {
+        return Long.toHexString(photo.getId()) + ".dat";
+    }
+
+    //Stand-alone photo encoding, shared by the photo files and the journal.
+    static void writePhoto(DataOutput out, Photo photo) throws IOException {
+        out.writeLong(photo.getId());
+        out.writeUTF(photo.getTitle());
+        out.writeUTF(photo.getDescription());
+        out.writeLong(photo.getEpochDay());
+        out.writeUTF(photo.getFilePath());
+        out.writeInt(photo.getTags().size());
+        for (String tag : photo.getTags()) {
+            out.writeUTF(tag);
+        }
+    }
+
+    //Records written before ids existed have none; the photo then gets a new one.
+    static Photo readPhoto(DataInput in, boolean hasId) throws IOException {
+        long id = hasId ? in.readLong() : Photo.newId();
+        String title = in.readUTF();
+        String description = in.readUTF();
+        LocalDate date = LocalDate.ofEpochDay(in.readLong());
+        Photo photo = new Photo(id, title, description, date, in.readUTF());
+        int tagCount = in.readInt();
+        for (int i = 0; i < tagCount; i++) {
+            photo.addTag(in.readUTF());
+        }
+        return photo;
+    }
+
+    //Helpers
+
+    private static void writeInternedPhoto(DataOutputStream out, Photo photo, Map<String, Integer> strings) throws IOException {
+        String path = photo.getFilePath();
+        int split = Math.max(path.lastIndexOf('/'), path.lastIndexOf('\\')) + 1;
+        out.writeLong(photo.getId());
+        writeString(out, photo.getTitle());
+        writeString(out, photo.getDescription());
+        out.writeLong(photo.getEpochDay());
+        out.writeInt(intern(strings, path.substring(0, split)));
+        writeString(out, path.substring(split));
+        out.writeInt(photo.getTags().size());
+        for (String tag : photo.getTags()) {
+            out.writeInt(intern(strings, tag));
+        }
+        writeString(out, photo.getContentHash() == null ? "" : photo.getContentHash());
+        out.writeLong(photo.getPerceptualHash());
+    }
+
+    private static int intern(Map<String, Integer> strings, String string) {
+        return strings.computeIfAbsent(string, s -> strings.size());
+    }
+
+    //Strings are [length][UTF-8 bytes]; unlike writeUTF there is no 64 KB limit.
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
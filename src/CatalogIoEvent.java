@@ -0,0 +1,29 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import java.io.File;
+
+//Flight Recorder event for catalog I/O: loading, journal flushes, compactions and reading per-photo files.
+@Name("photomanager.CatalogIo")
+@Label("Catalog I/O")
+@Category("Photo Manager")
+public class CatalogIoEvent extends jdk.jfr.Event {
+    @Label("Operation")
+    String operation;
+
+    @Label("File")
+    String file;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+
+    @Label("Records")
+    int records;
+
+    CatalogIoEvent(String operation, File file) {
+        this.operation = operation;
+        this.file = file.getPath();
+    }
+}
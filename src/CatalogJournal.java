@@ -0,0 +1,758 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.CRC32;
+
+//Persists the collections as a snapshot plus an append-only journal of small mutation records,
+//so an edit costs one short append instead of rewriting the whole catalog.
+//Records are written and fsynced in groups on a background thread; once the journal grows past
+//COMPACT_AFTER records it is folded into a new snapshot, also in the background.
+//Replaying a record twice has no effect, so a crash in the middle of a compaction is harmless.
+//Records name photos by id; version 1 journals, written before photos had ids, name them by path.
+public class CatalogJournal {
+    private static final int MAGIC = 0x504d4a32; //"PMJ2"
+    private static final int LEGACY_MAGIC = 0x504d4a31; //"PMJ1"
+    private static final int COMPACT_AFTER = 1000;
+    private static final long GROUP_COMMIT_DELAY_MS = 20;
+
+    private static final byte ADD_PHOTO = 1;
+    private static final byte REMOVE_PHOTO = 2; //Written by earlier versions, still replayed
+    private static final byte MOVE_PHOTO = 3; //Written by earlier versions, still replayed
+    private static final byte DELETE_COLLECTION = 4;
+    private static final byte ADD_PHOTOS = 5;
+    private static final byte PHOTOS_HASHED = 6;
+    private static final byte PHOTO_RELOCATED = 7;
+    private static final byte ADD_TO_COLLECTION = 8;
+    private static final byte REMOVE_FROM_COLLECTION = 9;
+    private static final byte MOVE_TO_COLLECTION = 10;
+    private static final byte MERGE_COLLECTIONS = 11;
+    private static final byte REMOVE_PHOTOS = 12;
+    private static final byte PHOTOS_TAGGED = 13;
+
+    private static final Metrics.Timer LOAD_TIMER = Metrics.timer("journal.load");
+    private static final Metrics.Timer FLUSH_TIMER = Metrics.timer("journal.flush");
+    private static final Metrics.Timer COMPACT_TIMER = Metrics.timer("journal.compact");
+    private static final Metrics.Counter RECORDS = Metrics.counter("journal.records");
+
+    private final File firstSnapshot;
+    private final File journalFile;
+    private final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "catalog-journal");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private int pendingCount;
+    private boolean flushScheduled;
+    private FileChannel channel;
+    private PhotoStore store; //Descriptions of the photos loaded from the snapshot
+    private int generation; //Of the latest snapshot
+    private int storeGeneration = -1; //Of the snapshot the store has open
+    private int recordCount;
+    private IOException flushFailure; //Of the last flush, if it failed; written on the writer thread
+    private boolean legacyJournal;
+    private volatile Runnable compacted = () -> { };
+    private final Thread shutdownHook = new Thread(this::close);
+
+    //Snapshots are never written over, because the store keeps the one it was loaded from open and Windows
+    //won't replace or delete an open file. Each one is written as the next generation of the first:
+    //collections.dat is followed by collections.1.dat, collections.2.dat and so on. Generations that are
+    //neither the latest nor open in the store are deleted.
+    public CatalogJournal(File snapshotFile, File journalFile) {
+        this.firstSnapshot = snapshotFile;
+        this.journalFile = journalFile;
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+    //Runs task on the writer thread after each compaction made as the journal grows, e.g. to catch up on work
+    //that can wait for a quiet moment. The task must not wait for anything that waits for the journal.
+    public void onCompacted(Runnable task) {
+        compacted = task;
+    }
+
+    //Loads the snapshot, replays the journal over it and opens the journal for appending.
+    //A record torn by a crash ends the replay and is cut off the journal.
+    //If the snapshot or the journal was written by an older version, both are rewritten in the current format.
+    //Photos read from the snapshot leave their descriptions in it, to be read back through a PhotoStore.
+    public Map<String, PhotoCollection> load() {
+        Map<String, PhotoCollection> collections = new HashMap<>();
+        boolean snapshotRead = false;
+        boolean snapshotOutdated = false;
+        generation = latestGeneration();
+        File snapshotFile = snapshotFile(generation);
+        CatalogIoEvent event = new CatalogIoEvent("load", snapshotFile);
+        event.begin();
+        Metrics.Sample sample = LOAD_TIMER.start();
+        try {
+            openStore();
+            collections = readSnapshot(store);
+            snapshotRead = true;
+            snapshotOutdated = snapshotFile.exists() && CatalogFormat.isOutdatedSnapshot(snapshotFile);
+        } catch (IOException e) {
+            LOAD_TIMER.failed(e);
+        }
+        try {
+            long validLength = replay(collections);
+            event.bytes = snapshotFile.length() + validLength;
+            event.records = recordCount;
+            channel = FileChannel.open(journalFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            if (snapshotRead && (snapshotOutdated || legacyJournal)) {
+                writeSnapshot(collections);
+                channel.truncate(0);
+                writeHeader();
+                recordCount = 0;
+            } else if (validLength == 0) {
+                writeHeader();
+            } else {
+                channel.truncate(validLength);
+                channel.position(validLength);
+            }
+        } catch (IOException e) {
+            LOAD_TIMER.failed(e);
+        }
+        deleteOldSnapshots();
+        sample.close();
+        event.commit();
+        return collections;
+    }
+
+    //Records a photo added to a collection.
+    public void photoAdded(String collectionName, Photo photo) {
+        append(ADD_PHOTO, out -> {
+            out.writeUTF(collectionName);
+            CatalogFormat.writePhoto(out, photo);
+        });
+    }
+
+    //Records a batch of photos added to a collection as a single record.
+    public void photosAdded(String collectionName, List<Photo> photos) {
+        append(ADD_PHOTOS, photos.size(), out -> {
+            out.writeUTF(collectionName);
+            out.writeInt(photos.size());
+            for (Photo photo : photos) {
+                CatalogFormat.writePhoto(out, photo);
+            }
+        });
+    }
+
+    //Records photos removed from every collection.
+    public void photosRemoved(List<Photo> photos) {
+        append(REMOVE_PHOTOS, photos.size(), out -> writeIds(out, photos));
+    }
+
+    //Records the tags of photos whose tags were edited, in full, so replaying the record twice is harmless.
+    public void photosTagged(List<Photo> photos) {
+        append(PHOTOS_TAGGED, photos.size(), out -> {
+            out.writeInt(photos.size());
+            for (Photo photo : photos) {
+                out.writeLong(photo.getId());
+                List<String> tags = photo.getTags();
+                out.writeInt(tags.size());
+                for (String tag : tags) {
+                    out.writeUTF(tag);
+                }
+            }
+        });
+    }
+
+    //Records photos added to a collection and taken out of Default.
+    public void addedToCollection(String collectionName, List<Photo> photos) {
+        append(ADD_TO_COLLECTION, photos.size(), out -> {
+            out.writeUTF(collectionName);
+            writeIds(out, photos);
+        });
+    }
+
+    //Records photos taken out of a collection, those left in no collection going back to Default.
+    public void removedFromCollection(String collectionName, List<Photo> photos) {
+        append(REMOVE_FROM_COLLECTION, photos.size(), out -> {
+            out.writeUTF(collectionName);
+            writeIds(out, photos);
+        });
+    }
+
+    //Records photos moved from one collection to another.
+    public void movedToCollection(String sourceName, String targetName, List<Photo> photos) {
+        append(MOVE_TO_COLLECTION, photos.size(), out -> {
+            out.writeUTF(sourceName);
+            out.writeUTF(targetName);
+            writeIds(out, photos);
+        });
+    }
+
+    //Records a collection merged into another and deleted.
+    public void collectionsMerged(String sourceName, String targetName) {
+        append(MERGE_COLLECTIONS, out -> {
+            out.writeUTF(sourceName);
+            out.writeUTF(targetName);
+        });
+    }
+
+    //Records the content and perceptual hashes of a batch of photos.
+    public void photosHashed(List<Photo> photos) {
+        append(PHOTOS_HASHED, photos.size(), out -> {
+            out.writeInt(photos.size());
+            for (Photo photo : photos) {
+                out.writeLong(photo.getId());
+                out.writeUTF(photo.getContentHash() == null ? "" : photo.getContentHash());
+                out.writeLong(photo.getPerceptualHash());
+            }
+        });
+    }
+
+    //Records a photo whose file was moved to a new path.
+    public void photoRelocated(Photo photo) {
+        append(PHOTO_RELOCATED, out -> {
+            out.writeLong(photo.getId());
+            out.writeUTF(photo.getFilePath());
+        });
+    }
+
+    //Records a collection deleted, its photos that are in no other collection going back to Default.
+    public void collectionDeleted(String collectionName) {
+        append(DELETE_COLLECTION, out -> out.writeUTF(collectionName));
+    }
+
+    //Writes out anything pending and folds the journal into the snapshot now, returning once it is on disk.
+    public void checkpoint() throws IOException {
+        try {
+            writer.submit(() -> {
+                flush();
+                if (channel == null) {
+                    throw new IOException("Journal not loaded");
+                }
+                compact();
+                return null;
+            }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        }
+    }
+
+    //Writes out anything still pending, closes the journal file and stops the writer thread. A failure is
+    //reported rather than thrown, as there is nothing left to retry it with; the writer is stopped either way.
+    public void close() {
+        try {
+            writer.submit(() -> {
+                flushFailure = null;
+                try {
+                    flush();
+                } finally {
+                    if (channel != null) {
+                        channel.close();
+                        channel = null;
+                    }
+                    closeStore();
+                    deleteOldSnapshots();
+                }
+                if (flushFailure != null) {
+                    throw flushFailure;
+                }
+                return null;
+            }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.err.println("Interrupted while closing the journal " + journalFile + "; pending edits may be lost");
+        } catch (ExecutionException e) {
+            System.err.println("Could not write the last edits to the journal " + journalFile);
+            e.getCause().printStackTrace();
+        } catch (RejectedExecutionException e) {
+            //Already closed
+        } finally {
+            writer.shutdown();
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            } catch (IllegalStateException e) {
+                //Already shutting down, this is the hook running
+            }
+        }
+    }
+
+    //Writing
+
+    private interface RecordWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private static void writeIds(DataOutputStream out, List<Photo> photos) throws IOException {
+        out.writeInt(photos.size());
+        for (Photo photo : photos) {
+            out.writeLong(photo.getId());
+        }
+    }
+
+    private void append(byte type, RecordWriter payload) {
+        append(type, 1, payload);
+    }
+
+    //Encodes a record as [length][type + payload][crc32] and queues it for the next group commit.
+    //Weight is the number of edits the record stands for, so batch records bring compaction forward.
+    private void append(byte type, int weight, RecordWriter payload) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(type);
+            payload.write(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        byte[] body = bytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        synchronized (pending) {
+            DataOutputStream out = new DataOutputStream(pending);
+            try {
+                out.writeInt(body.length);
+                out.write(body);
+                out.writeInt((int) crc.getValue());
+                pendingCount += weight;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            if (!flushScheduled) {
+                flushScheduled = true;
+                writer.schedule(this::flush, GROUP_COMMIT_DELAY_MS, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    //Runs on the writer thread: appends every queued record with a single write and fsync.
+    private void flush() {
+        byte[] group;
+        int groupCount;
+        synchronized (pending) {
+            flushScheduled = false;
+            group = pending.toByteArray();
+            groupCount = pendingCount;
+            pending.reset();
+            pendingCount = 0;
+        }
+        if (group.length == 0 || channel == null) {
+            return;
+        }
+        CatalogIoEvent event = new CatalogIoEvent("flush", journalFile);
+        event.bytes = group.length;
+        event.records = groupCount;
+        event.begin();
+        try {
+            FLUSH_TIMER.time(() -> {
+                ByteBuffer buffer = ByteBuffer.wrap(group);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(false);
+            });
+            event.commit();
+            RECORDS.add(groupCount);
+            recordCount += groupCount;
+        } catch (IOException e) {
+            FLUSH_TIMER.failed(e);
+            flushFailure = e;
+            return;
+        }
+        if (recordCount >= COMPACT_AFTER) {
+            try {
+                compact();
+            } catch (IOException e) {
+                COMPACT_TIMER.failed(e);
+                return;
+            }
+            compacted.run();
+        }
+    }
+
+    //Folds the journal into a new snapshot. The state is rebuilt from disk rather than taken from the
+    //live collections, so the UI never has to stop for it.
+    private void compact() throws IOException {
+        CatalogIoEvent event = new CatalogIoEvent("compact", snapshotFile(generation));
+        event.records = recordCount;
+        event.begin();
+        COMPACT_TIMER.time(() -> {
+            Map<String, PhotoCollection> collections = readSnapshot(null);
+            replay(collections);
+            writeSnapshot(collections);
+            channel.truncate(0);
+            writeHeader();
+            recordCount = 0;
+        });
+        deleteOldSnapshots();
+        event.bytes = snapshotFile(generation).length();
+        event.commit();
+    }
+
+    //Writes the next generation of the snapshot, or the first if there is none yet, to a temporary file and
+    //renames it into place, so a generation that exists is complete. Older ones are left for deleteOldSnapshots.
+    private void writeSnapshot(Map<String, PhotoCollection> collections) throws IOException {
+        File tempFile = new File(firstSnapshot.getPath() + ".tmp");
+        CatalogFormat.writeSnapshot(collections, tempFile);
+        int next = snapshotFile(generation).exists() ? generation + 1 : generation;
+        File nextFile = snapshotFile(next);
+        try {
+            Files.move(tempFile.toPath(), nextFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tempFile.toPath(), nextFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        generation = next;
+    }
+
+    //Snapshot generations
+
+    private File snapshotFile(int generation) {
+        if (generation == 0) {
+            return firstSnapshot;
+        }
+        String name = firstSnapshot.getName();
+        int dot = name.lastIndexOf('.');
+        String generationName = dot < 0 ? name + "." + generation : name.substring(0, dot) + "." + generation + name.substring(dot);
+        return new File(firstSnapshot.getParentFile(), generationName);
+    }
+
+    //Generation a file name stands for, or -1 if it isn't one of the snapshots.
+    private int generationOf(String fileName) {
+        String name = firstSnapshot.getName();
+        if (fileName.equals(name)) {
+            return 0;
+        }
+        int dot = name.lastIndexOf('.');
+        String prefix = (dot < 0 ? name : name.substring(0, dot)) + ".";
+        String suffix = dot < 0 ? "" : name.substring(dot);
+        if (!fileName.startsWith(prefix) || !fileName.endsWith(suffix) || fileName.length() <= prefix.length() + suffix.length()) {
+            return -1;
+        }
+        String number = fileName.substring(prefix.length(), fileName.length() - suffix.length());
+        try {
+            return number.chars().allMatch(Character::isDigit) ? Integer.parseInt(number) : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private File[] snapshotDirectoryFiles() {
+        File[] files = firstSnapshot.getAbsoluteFile().getParentFile().listFiles();
+        return files == null ? new File[0] : files;
+    }
+
+    private int latestGeneration() {
+        int latest = 0;
+        for (File file : snapshotDirectoryFiles()) {
+            latest = Math.max(latest, generationOf(file.getName()));
+        }
+        return latest;
+    }
+
+    //Deletes the generations before the latest that the store doesn't have open. One that can't be deleted
+    //yet, e.g. because Windows still sees it mapped, is tried again next time.
+    private void deleteOldSnapshots() {
+        for (File file : snapshotDirectoryFiles()) {
+            int fileGeneration = generationOf(file.getName());
+            if (fileGeneration >= 0 && fileGeneration < generation && fileGeneration != storeGeneration) {
+                file.delete();
+            }
+        }
+    }
+
+    private void writeHeader() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(4).putInt(MAGIC);
+        header.flip();
+        channel.position(0);
+        channel.write(header);
+        channel.force(false);
+    }
+
+    //Reading
+
+    //Fails rather than returning an empty catalog, so an unreadable snapshot is never compacted over.
+    //Given a store, photos leave their descriptions in it.
+    private Map<String, PhotoCollection> readSnapshot(PhotoStore store) throws IOException {
+        File snapshotFile = snapshotFile(generation);
+        if (!snapshotFile.exists()) {
+            return new HashMap<>(); //A new catalog, or one whose edits are all still in the journal
+        }
+        return CatalogFormat.readSnapshot(snapshotFile, store);
+    }
+
+    //Opens a store on the latest snapshot, replacing the one of the previous load. Legacy snapshots are read in full.
+    private void openStore() throws IOException {
+        closeStore();
+        File snapshotFile = snapshotFile(generation);
+        if (snapshotFile.exists() && !CatalogFormat.isLegacy(snapshotFile)) {
+            store = PhotoStore.open(snapshotFile);
+            storeGeneration = generation;
+        }
+    }
+
+    private void closeStore() throws IOException {
+        if (store != null) {
+            store.close();
+            store = null;
+            storeGeneration = -1;
+        }
+    }
+
+    //Applies the journal to the collections and returns the length of its intact prefix.
+    private long replay(Map<String, PhotoCollection> collections) throws IOException {
+        legacyJournal = false;
+        if (!journalFile.exists() || journalFile.length() < 4) {
+            return 0;
+        }
+        Replay replay = new Replay(collections);
+        recordCount = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(journalFile)))) {
+            int magic = in.readInt();
+            if (magic != MAGIC && magic != LEGACY_MAGIC) {
+                System.err.println("Ignoring unrecognised journal " + journalFile);
+                return 0;
+            }
+            legacyJournal = replay.legacy = magic == LEGACY_MAGIC;
+            long validLength = 4;
+            while (true) {
+                byte[] body;
+                try {
+                    int length = in.readInt();
+                    if (length <= 0 || validLength + 8 + length > journalFile.length()) {
+                        break;
+                    }
+                    body = new byte[length];
+                    in.readFully(body);
+                    CRC32 crc = new CRC32();
+                    crc.update(body);
+                    if (in.readInt() != (int) crc.getValue()) {
+                        break;
+                    }
+                } catch (EOFException e) {
+                    break;
+                }
+                replay.apply(new DataInputStream(new ByteArrayInputStream(body)));
+                validLength += 8 + body.length;
+                recordCount++;
+            }
+            return validLength;
+        }
+    }
+
+    //State of a replay: the collections being rebuilt and their photos by id and by path.
+    private static class Replay {
+        private final Map<String, PhotoCollection> collections;
+        private final Map<Long, Photo> photosById = new HashMap<>();
+        private final Map<String, Photo> photosByPath = new HashMap<>();
+        private boolean legacy;
+
+        Replay(Map<String, PhotoCollection> collections) {
+            this.collections = collections;
+            for (PhotoCollection collection : collections.values()) {
+                for (Photo photo : collection.getPhotos()) {
+                    register(photo);
+                }
+            }
+        }
+
+        private void register(Photo photo) {
+            photosById.put(photo.getId(), photo);
+            photosByPath.put(photo.getFilePath(), photo);
+        }
+
+        private void forget(Photo photo) {
+            photosById.remove(photo.getId());
+            photosByPath.remove(photo.getFilePath());
+        }
+
+        //Reads a reference to a photo: its id, or its path in a legacy journal. Null if the photo is gone.
+        private Photo readReference(DataInputStream in) throws IOException {
+            return legacy ? photosByPath.get(in.readUTF()) : photosById.get(in.readLong());
+        }
+
+        //Adds a photo unless it is already known, as it is when a record is replayed twice.
+        private void addPhoto(PhotoCollection collection, Photo photo) {
+            boolean known = legacy ? photosByPath.containsKey(photo.getFilePath()) : photosById.containsKey(photo.getId());
+            if (!known) {
+                register(photo);
+                collection.addPhoto(photo);
+            }
+        }
+
+        //Reads a count followed by that many photo references, leaving out photos that are gone.
+        private List<Photo> readReferences(DataInputStream in) throws IOException {
+            int count = in.readInt();
+            List<Photo> photos = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                Photo photo = readReference(in);
+                if (photo != null) {
+                    photos.add(photo);
+                }
+            }
+            return photos;
+        }
+
+        //The same membership rules as the catalog's: filing photos in a collection takes them out of Default,
+        //and photos taken out of their last collection go back to it.
+        private void file(String collectionName, List<Photo> photos) {
+            PhotoCollection collection = collections.computeIfAbsent(collectionName, PhotoCollection::new);
+            for (Photo photo : photos) {
+                collection.addPhoto(photo);
+            }
+            if (!collectionName.equals("Default")) {
+                collections.get("Default").removePhotos(photos);
+            }
+        }
+
+        private void unfile(String collectionName, List<Photo> photos) {
+            PhotoCollection collection = collections.get(collectionName);
+            if (collection != null) {
+                collection.removePhotos(photos);
+            }
+            PhotoCollection defaultCollection = collections.get("Default");
+            for (Photo photo : photos) {
+                if (isUnfiled(photo)) {
+                    defaultCollection.addPhoto(photo);
+                }
+            }
+        }
+
+        private boolean isUnfiled(Photo photo) {
+            for (PhotoCollection collection : collections.values()) {
+                if (!collection.getName().equals("Default") && collection.contains(photo)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void apply(DataInputStream in) throws IOException {
+            PhotoCollection defaultCollection = collections.computeIfAbsent("Default", PhotoCollection::new);
+            switch (in.readByte()) {
+                case ADD_PHOTO: {
+                    PhotoCollection collection = collections.computeIfAbsent(in.readUTF(), PhotoCollection::new);
+                    addPhoto(collection, CatalogFormat.readPhoto(in, !legacy));
+                    break;
+                }
+                case ADD_PHOTOS: {
+                    PhotoCollection collection = collections.computeIfAbsent(in.readUTF(), PhotoCollection::new);
+                    int count = in.readInt();
+                    for (int i = 0; i < count; i++) {
+                        addPhoto(collection, CatalogFormat.readPhoto(in, !legacy));
+                    }
+                    break;
+                }
+                case REMOVE_PHOTO: {
+                    Photo photo = readReference(in);
+                    if (photo != null) {
+                        forget(photo);
+                        for (PhotoCollection collection : collections.values()) {
+                            collection.removePhoto(photo);
+                        }
+                    }
+                    break;
+                }
+                case REMOVE_PHOTOS: {
+                    List<Photo> photos = readReferences(in);
+                    photos.forEach(this::forget);
+                    for (PhotoCollection collection : collections.values()) {
+                        collection.removePhotos(photos);
+                    }
+                    break;
+                }
+                case PHOTOS_TAGGED: {
+                    int count = in.readInt();
+                    for (int i = 0; i < count; i++) {
+                        Photo photo = readReference(in);
+                        int tagCount = in.readInt();
+                        List<String> tags = new ArrayList<>(tagCount);
+                        for (int j = 0; j < tagCount; j++) {
+                            tags.add(in.readUTF());
+                        }
+                        if (photo != null) {
+                            for (String tag : photo.getTags()) {
+                                photo.removeTag(tag);
+                            }
+                            tags.forEach(photo::addTag);
+                        }
+                    }
+                    break;
+                }
+                case MOVE_PHOTO: {
+                    Photo photo = readReference(in);
+                    PhotoCollection collection = collections.computeIfAbsent(in.readUTF(), PhotoCollection::new);
+                    if (photo != null && !collection.contains(photo)) {
+                        collection.addPhoto(photo);
+                        defaultCollection.removePhoto(photo);
+                    }
+                    break;
+                }
+                case PHOTOS_HASHED: {
+                    int count = in.readInt();
+                    for (int i = 0; i < count; i++) {
+                        Photo photo = readReference(in);
+                        String contentHash = in.readUTF();
+                        long perceptualHash = in.readLong();
+                        if (photo != null) {
+                            photo.setContentHash(contentHash.isEmpty() ? null : contentHash);
+                            photo.setPerceptualHash(perceptualHash);
+                        }
+                    }
+                    break;
+                }
+                case PHOTO_RELOCATED: {
+                    Photo photo = readReference(in);
+                    String newPath = in.readUTF();
+                    if (photo != null) {
+                        forget(photo);
+                        photo.setFilePath(newPath);
+                        register(photo);
+                    }
+                    break;
+                }
+                case ADD_TO_COLLECTION: {
+                    String name = in.readUTF();
+                    file(name, readReferences(in));
+                    break;
+                }
+                case REMOVE_FROM_COLLECTION: {
+                    String name = in.readUTF();
+                    unfile(name, readReferences(in));
+                    break;
+                }
+                case MOVE_TO_COLLECTION: {
+                    String source = in.readUTF();
+                    String target = in.readUTF();
+                    List<Photo> photos = readReferences(in);
+                    if (target.equals("Default")) {
+                        unfile(source, photos);
+                    } else {
+                        file(target, photos);
+                        unfile(source, photos);
+                    }
+                    break;
+                }
+                case MERGE_COLLECTIONS: {
+                    String source = in.readUTF();
+                    String target = in.readUTF();
+                    PhotoCollection collection = collections.get(source);
+                    if (collection != null && !source.equals("Default") && !source.equals(target)) {
+                        file(target, collection.getPhotos());
+                        collections.remove(source);
+                    }
+                    break;
+                }
+                case DELETE_COLLECTION: {
+                    String name = in.readUTF();
+                    PhotoCollection collection = collections.get(name);
+                    if (collection != null && !name.equals("Default")) {
+                        collections.remove(name);
+                        unfile(name, collection.getPhotos());
+                    }
+                    break;
+                }
+                default:
+                    throw new IOException("Unknown journal record");
+            }
+        }
+    }
+}
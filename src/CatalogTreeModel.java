@@ -0,0 +1,246 @@
+import javax.swing.event.EventListenerList;
+import javax.swing.event.TreeModelEvent;
+import javax.swing.event.TreeModelListener;
+import javax.swing.tree.TreeModel;
+import javax.swing.tree.TreePath;
+import java.util.*;
+
+//Tree model backed directly by the collections, without a node object per photo.
+//The root is the Default collection: its photos come first, followed by the other collections sorted by name.
+//Mutations go through this model so it can fire events for just the rows that changed; the JTree only
+//asks for the children of expanded collections, so collapsed ones are never materialized.
+//The model owns its collections: it is given copies of the catalog's and kept in step on the EDT.
+public class CatalogTreeModel implements TreeModel {
+    private final EventListenerList listeners = new EventListenerList();
+    private PhotoCollection defaultCollection = new PhotoCollection("Default");
+    private final List<PhotoCollection> otherCollections = new ArrayList<>();
+
+    //Replaces everything shown by the model.
+    public void setCollections(Map<String, PhotoCollection> collections) {
+        defaultCollection = collections.getOrDefault("Default", new PhotoCollection("Default"));
+        otherCollections.clear();
+        for (PhotoCollection collection : collections.values()) {
+            if (collection != defaultCollection) {
+                otherCollections.add(collection);
+            }
+        }
+        otherCollections.sort(Comparator.comparing(PhotoCollection::getName));
+        fireStructureChanged();
+    }
+
+    //Appends a photo to a collection.
+    public void addPhoto(PhotoCollection collection, Photo photo) {
+        addPhotos(collection, Collections.singletonList(photo));
+    }
+
+    //Appends photos to a collection with a single insert event. Photos already in it are skipped.
+    public void addPhotos(PhotoCollection collection, List<Photo> photos) {
+        int first = collection.getPhotos().size();
+        List<Photo> added = new ArrayList<>(photos.size());
+        for (Photo photo : photos) {
+            if (!collection.contains(photo)) {
+                collection.addPhoto(photo);
+                added.add(photo);
+            }
+        }
+        if (added.isEmpty() || !isShown(collection)) {
+            return;
+        }
+        int[] indices = new int[added.size()];
+        for (int i = 0; i < indices.length; i++) {
+            indices[i] = first + i;
+        }
+        fireInserted(pathTo(collection), indices, added.toArray());
+    }
+
+    //Removes a photo from one collection.
+    public void removePhoto(PhotoCollection collection, Photo photo) {
+        int index = collection.removePhoto(photo);
+        if (index >= 0 && isShown(collection)) {
+            fireRemoved(pathTo(collection), new int[]{index}, new Object[]{photo});
+        }
+    }
+
+    //Removes photos from one collection with a single remove event.
+    public void removePhotos(PhotoCollection collection, List<Photo> photos) {
+        if (photos.isEmpty()) {
+            return;
+        }
+        if (photos.size() == 1) {
+            removePhoto(collection, photos.get(0));
+            return;
+        }
+        //The event lists the children in the order they were shown, at the positions they had
+        TreeMap<Integer, Photo> removed = new TreeMap<>();
+        for (Photo photo : photos) {
+            int index = collection.indexOf(photo);
+            if (index >= 0) {
+                removed.put(index, collection.getPhotos().get(index));
+            }
+        }
+        if (removed.isEmpty()) {
+            return;
+        }
+        collection.removePhotos(removed.values());
+        if (isShown(collection)) {
+            int[] indices = removed.keySet().stream().mapToInt(Integer::intValue).toArray();
+            fireRemoved(pathTo(collection), indices, removed.values().toArray());
+        }
+    }
+
+    //Tells the tree a photo's label changed, if the collection holds it.
+    private void photoChanged(PhotoCollection collection, Photo photo) {
+        int index = collection.indexOf(photo);
+        if (index < 0 || !isShown(collection)) {
+            return;
+        }
+        TreeModelEvent event = new TreeModelEvent(this, pathTo(collection), new int[]{index}, new Object[]{photo});
+        for (TreeModelListener listener : listeners.getListeners(TreeModelListener.class)) {
+            listener.treeNodesChanged(event);
+        }
+    }
+
+    //Adds a collection node under the root, keeping the collections sorted by name.
+    public void addCollection(PhotoCollection collection) {
+        int position = 0;
+        while (position < otherCollections.size()
+                && otherCollections.get(position).getName().compareTo(collection.getName()) < 0) {
+            position++;
+        }
+        otherCollections.add(position, collection);
+        fireInserted(new TreePath(defaultCollection), new int[]{rootIndexOf(position)}, new Object[]{collection});
+    }
+
+    //Removes a collection node; its photos are not touched.
+    public void removeCollection(PhotoCollection collection) {
+        int position = otherCollections.indexOf(collection);
+        if (position >= 0) {
+            int index = rootIndexOf(position);
+            otherCollections.remove(position);
+            fireRemoved(new TreePath(defaultCollection), new int[]{index}, new Object[]{collection});
+        }
+    }
+
+    public PhotoCollection getDefaultCollection() {
+        return defaultCollection;
+    }
+
+    //Returns the shown collection with a name, or null.
+    public PhotoCollection getCollection(String name) {
+        if (defaultCollection.getName().equals(name)) {
+            return defaultCollection;
+        }
+        for (PhotoCollection collection : otherCollections) {
+            if (collection.getName().equals(name)) {
+                return collection;
+            }
+        }
+        return null;
+    }
+
+    //Removes photos from every collection, with one remove event per collection that had any of them.
+    public void removePhotos(List<Photo> photos) {
+        removePhotos(defaultCollection, photos);
+        for (PhotoCollection collection : otherCollections) {
+            removePhotos(collection, photos);
+        }
+    }
+
+    //Tells the tree a photo's label changed.
+    public void photoChanged(Photo photo) {
+        photoChanged(defaultCollection, photo);
+        for (PhotoCollection collection : otherCollections) {
+            photoChanged(collection, photo);
+        }
+    }
+
+    private boolean isShown(PhotoCollection collection) {
+        return collection == defaultCollection || otherCollections.contains(collection);
+    }
+
+    private TreePath pathTo(PhotoCollection collection) {
+        TreePath root = new TreePath(defaultCollection);
+        return collection == defaultCollection ? root : root.pathByAddingChild(collection);
+    }
+
+    private int rootIndexOf(int position) {
+        return defaultCollection.getPhotos().size() + position;
+    }
+
+    //TreeModel
+
+    @Override
+    public Object getRoot() {
+        return defaultCollection;
+    }
+
+    @Override
+    public Object getChild(Object parent, int index) {
+        if (parent == defaultCollection) {
+            int photoCount = defaultCollection.getPhotos().size();
+            return index < photoCount ? defaultCollection.getPhotos().get(index) : otherCollections.get(index - photoCount);
+        }
+        return ((PhotoCollection) parent).getPhotos().get(index);
+    }
+
+    @Override
+    public int getChildCount(Object parent) {
+        if (parent == defaultCollection) {
+            return defaultCollection.getPhotos().size() + otherCollections.size();
+        }
+        return parent instanceof PhotoCollection ? ((PhotoCollection) parent).getPhotos().size() : 0;
+    }
+
+    @Override
+    public boolean isLeaf(Object node) {
+        return node instanceof Photo;
+    }
+
+    @Override
+    public int getIndexOfChild(Object parent, Object child) {
+        if (parent == defaultCollection && child instanceof PhotoCollection) {
+            int position = otherCollections.indexOf(child);
+            return position < 0 ? -1 : rootIndexOf(position);
+        }
+        if (parent instanceof PhotoCollection && child instanceof Photo) {
+            return ((PhotoCollection) parent).indexOf((Photo) child);
+        }
+        return -1;
+    }
+
+    //Nodes are not editable in place.
+    @Override
+    public void valueForPathChanged(TreePath path, Object newValue) {
+    }
+
+    @Override
+    public void addTreeModelListener(TreeModelListener listener) {
+        listeners.add(TreeModelListener.class, listener);
+    }
+
+    @Override
+    public void removeTreeModelListener(TreeModelListener listener) {
+        listeners.remove(TreeModelListener.class, listener);
+    }
+
+    private void fireInserted(TreePath parent, int[] indices, Object[] children) {
+        TreeModelEvent event = new TreeModelEvent(this, parent, indices, children);
+        for (TreeModelListener listener : listeners.getListeners(TreeModelListener.class)) {
+            listener.treeNodesInserted(event);
+        }
+    }
+
+    private void fireRemoved(TreePath parent, int[] indices, Object[] children) {
+        TreeModelEvent event = new TreeModelEvent(this, parent, indices, children);
+        for (TreeModelListener listener : listeners.getListeners(TreeModelListener.class)) {
+            listener.treeNodesRemoved(event);
+        }
+    }
+
+    private void fireStructureChanged() {
+        TreeModelEvent event = new TreeModelEvent(this, new TreePath(defaultCollection));
+        for (TreeModelListener listener : listeners.getListeners(TreeModelListener.class)) {
+            listener.treeStructureChanged(event);
+        }
+    }
+}
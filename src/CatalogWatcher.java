@@ -0,0 +1,270 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+//Keeps the catalog in step with photo files changed outside the application while it runs. The folders
+//holding the catalog's photos and the photos/ folder of per-photo files are watched. Events are gathered
+//until the folders have been quiet for QUIET_MILLIS, or for at most MAX_DELAY_MILLIS, so a burst such as
+//a folder being moved is applied at once; then only the paths named in the events are looked at:
+//- a new photo file is imported, or relocates the photo whose file is gone if it has the same content hash;
+//- a photo file that disappeared marks its photo missing, and the photo stays in the catalog as a tombstone;
+//- a photo file that was rewritten is hashed again;
+//- a new per-photo file in photos/, e.g. written by the command line, is added as loadPhotos would.
+//WatchService watches single folders, so folders created inside watched ones are watched as they appear.
+public class CatalogWatcher implements Closeable {
+    private static final long QUIET_MILLIS = 500;
+    private static final long MAX_DELAY_MILLIS = 5000;
+    private static final int MAX_COPIES = 10000;
+
+    private final PhotoCatalog catalog;
+    private final Path photosDirectory;
+    private final Map<WatchKey, Path> directories = new ConcurrentHashMap<>();
+    private final Set<Path> watched = ConcurrentHashMap.newKeySet();
+    //Files left out of the catalog as copies of a photo, by content hash; if that photo's file goes, the copy takes its place
+    private final Map<String, Path> copies = new LinkedHashMap<String, Path>(16, 0.75f, false) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Path> eldest) {
+            return size() > MAX_COPIES;
+        }
+    };
+    private volatile WatchService service;
+
+    public CatalogWatcher(PhotoCatalog catalog, File photosDirectory) {
+        this.catalog = catalog;
+        this.photosDirectory = photosDirectory.toPath().toAbsolutePath();
+    }
+
+    //Starts watching in the background: the photos/ folder and every folder holding a photo of the catalog.
+    public void start() throws IOException {
+        service = FileSystems.getDefault().newWatchService();
+        Thread thread = new Thread(this::run, "catalog-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (service != null) {
+            service.close();
+        }
+    }
+
+    //Watches a folder and every folder below it, e.g. one photos were just imported from.
+    public void watchTree(Path root) {
+        try {
+            Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path directory, BasicFileAttributes attributes) {
+                    watch(directory);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    //Watches one folder, e.g. the one a photo was just added from. Watching a folder twice does nothing.
+    public void watch(Path directory) {
+        Path absolute = directory.toAbsolutePath();
+        if (service == null || watched.contains(absolute) || !Files.isDirectory(absolute)) {
+            return;
+        }
+        try {
+            directories.put(absolute.register(service, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), absolute);
+            watched.add(absolute);
+        } catch (IOException e) {
+            e.printStackTrace(); //E.g. out of watches; changes in that folder are picked up at the next start
+        } catch (ClosedWatchServiceException e) {
+            //Closed meanwhile
+        }
+    }
+
+    private void run() {
+        photosDirectory.toFile().mkdirs();
+        watch(photosDirectory);
+        for (String directory : catalog.getPhotoDirectories()) {
+            watch(Paths.get(directory));
+        }
+        Set<Path> changed = new LinkedHashSet<>();
+        Set<Path> overflowed = new LinkedHashSet<>();
+        long firstEvent = 0;
+        try {
+            while (true) {
+                WatchKey key;
+                if (changed.isEmpty() && overflowed.isEmpty()) {
+                    key = service.take();
+                    firstEvent = System.currentTimeMillis();
+                } else {
+                    long wait = Math.min(QUIET_MILLIS, firstEvent + MAX_DELAY_MILLIS - System.currentTimeMillis());
+                    key = wait > 0 ? service.poll(wait, TimeUnit.MILLISECONDS) : null;
+                }
+                if (key != null) {
+                    Path directory = directories.get(key);
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (directory == null) {
+                            continue;
+                        }
+                        if (event.kind() == OVERFLOW) {
+                            overflowed.add(directory);
+                        } else {
+                            changed.add(directory.resolve((Path) event.context()));
+                        }
+                    }
+                    if (!key.reset()) {
+                        directories.remove(key);
+                    }
+                } else {
+                    try {
+                        apply(changed, overflowed);
+                    } catch (RuntimeException e) {
+                        e.printStackTrace();
+                    }
+                    changed.clear();
+                    overflowed.clear();
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            //Closed
+        }
+    }
+
+    //Applies a burst of changes. Tombstones are set before new files are imported, so a photo moved within
+    //the burst is relocated by content hash rather than imported again. Package-private for tests.
+    void apply(Set<Path> changed, Set<Path> overflowed) {
+        Queue<String> errors = new ArrayDeque<>();
+        for (Path directory : overflowed) {
+            changed.addAll(listDirectory(directory, errors)); //Events were lost here, so look at all of it
+        }
+        List<Photo> photoFiles = new ArrayList<>();
+        List<Path> appeared = new ArrayList<>();
+        List<Photo> rewritten = new ArrayList<>();
+        for (Path path : changed) {
+            if (photosDirectory.equals(path.getParent())) {
+                readPhotoFile(path, photoFiles);
+                continue;
+            }
+            Photo known = catalog.getPhoto(path.toString());
+            if (Files.isDirectory(path)) {
+                watchTree(path);
+                appeared.addAll(PhotoImporter.findPhotos(path, errors));
+            } else if (Files.isRegularFile(path)) {
+                if (known == null && PhotoImporter.isPhoto(path)) {
+                    appeared.add(path);
+                } else if (known != null) {
+                    catalog.setMissing(known, false);
+                    rewritten.add(known);
+                }
+            } else if (known != null) {
+                markMissing(known, appeared);
+            } else if (watched.remove(path)) {
+                //A watched folder was deleted or moved away, with its photos and the folders below it
+                watched.removeIf(directory -> directory.startsWith(path));
+                for (Photo photo : catalog.getPhotosUnder(path.toString())) {
+                    if (!new File(photo.getFilePath()).exists()) {
+                        markMissing(photo, appeared);
+                    }
+                }
+            }
+        }
+        if (!photoFiles.isEmpty()) {
+            List<Photo> added = catalog.addPhotos(photoFiles);
+            ContentHasher.hashAsync(added, false, catalog::applyHashes);
+        }
+        importFiles(appeared, errors);
+        rehash(rewritten);
+        for (String error : errors) {
+            System.err.println(error);
+        }
+    }
+
+    //Marks a photo missing, or relocates it at once to a copy of its file seen earlier.
+    private void markMissing(Photo photo, List<Path> appeared) {
+        catalog.setMissing(photo, true);
+        Path copy = photo.getContentHash() == null ? null : copies.remove(photo.getContentHash());
+        if (copy != null && Files.isRegularFile(copy) && !appeared.contains(copy)) {
+            appeared.add(copy);
+        }
+    }
+
+    //Imports new files. Those left out as copies of photos already in the catalog are remembered.
+    private void importFiles(List<Path> files, Queue<String> errors) {
+        files.removeIf(file -> catalog.getPhoto(file.toString()) != null);
+        if (files.isEmpty()) {
+            return;
+        }
+        List<Photo> photos = PhotoImporter.readPhotos(files, errors);
+        catalog.importPhotos(photos, new ArrayList<>());
+        for (Photo photo : photos) {
+            if (catalog.getPhoto(photo.getFilePath()) == null && photo.getContentHash() != null) {
+                copies.put(photo.getContentHash(), Paths.get(photo.getFilePath()));
+            }
+        }
+    }
+
+    //Hashes rewritten files again. The perceptual hash is recomputed too if the photo had one, so it can't be
+    //left describing the old content.
+    private void rehash(List<Photo> photos) {
+        List<ContentHasher.Hashes> hashes = new ArrayList<>();
+        for (Photo photo : photos) {
+            File file = new File(photo.getFilePath());
+            try {
+                long perceptualHash = photo.getPerceptualHash() == 0 ? 0 : ContentHasher.perceptualHash(file);
+                hashes.add(new ContentHasher.Hashes(photo, ContentHasher.contentHash(file.toPath()), perceptualHash));
+            } catch (IOException e) {
+                //Gone again or still being written; a later event brings it back
+            }
+        }
+        if (!hashes.isEmpty()) {
+            catalog.applyHashes(hashes);
+        }
+        for (Photo photo : photos) {
+            catalog.fileChanged(photo);
+        }
+    }
+
+    private void readPhotoFile(Path path, List<Photo> photos) {
+        if (!path.toString().endsWith(".dat") || !Files.isRegularFile(path)) {
+            return; //Per-photo files deleted outside the application are rewritten as needed
+        }
+        try {
+            Photo photo = CatalogFormat.readPhotoFile(path.toFile());
+            if (catalog.getPhoto(photo.getFilePath()) == null) {
+                photos.add(photo);
+            }
+        } catch (IOException e) {
+            //Still being written; the next event for it retries
+        }
+    }
+
+    //Every entry of a folder, plus the files of catalog photos that were in it.
+    private List<Path> listDirectory(Path directory, Queue<String> errors) {
+        List<Path> entries = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path entry : stream) {
+                entries.add(entry);
+            }
+        } catch (IOException e) {
+            errors.add(directory + ": " + e.getMessage());
+        }
+        for (Photo photo : catalog.getPhotosUnder(directory.toString())) {
+            Path file = Paths.get(photo.getFilePath());
+            if (directory.equals(file.getParent())) {
+                entries.add(file);
+            }
+        }
+        return entries;
+    }
+}
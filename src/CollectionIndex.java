@@ -0,0 +1,91 @@
+import java.util.*;
+
+//Index of collection membership: for each collection, a bitmap of the slots of its photos.
+//Collection names are matched without regard to case in lookups, as search queries are lowercased.
+public class CollectionIndex {
+    private final Map<String, BitSet> members = new HashMap<>();
+
+    public void add(String collection, int slot) {
+        members.computeIfAbsent(collection, name -> new BitSet()).set(slot);
+    }
+
+    public void remove(String collection, int slot) {
+        BitSet slots = members.get(collection);
+        if (slots != null) {
+            slots.clear(slot);
+        }
+    }
+
+    //Takes a photo that left the catalog out of every collection.
+    public void removeSlot(int slot) {
+        for (BitSet slots : members.values()) {
+            slots.clear(slot);
+        }
+    }
+
+    public void removeCollection(String collection) {
+        members.remove(collection);
+    }
+
+    public void clear() {
+        members.clear();
+    }
+
+    //Returns the slots of the photos in the collections with a name, ignoring case.
+    public BitSet lookup(String name) {
+        BitSet result = new BitSet();
+        for (Map.Entry<String, BitSet> entry : members.entrySet()) {
+            if (entry.getKey().equalsIgnoreCase(name)) {
+                result.or(entry.getValue());
+            }
+        }
+        return result;
+    }
+
+    //Tells whether a slot is in a collection with a name, ignoring case.
+    public boolean contains(String name, int slot) {
+        for (Map.Entry<String, BitSet> entry : members.entrySet()) {
+            if (entry.getKey().equalsIgnoreCase(name) && entry.getValue().get(slot)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int count(String name) {
+        int count = 0;
+        for (Map.Entry<String, BitSet> entry : members.entrySet()) {
+            if (entry.getKey().equalsIgnoreCase(name)) {
+                count += entry.getValue().cardinality();
+            }
+        }
+        return count;
+    }
+
+    //Number of matching photos in each collection that has any. Small collections are counted by testing
+    //their photos against the matches, others by ANDing word by word in a scratch bitmap that is reused.
+    public Map<String, Integer> countWithin(BitSet matches) {
+        Map<String, Integer> counts = new HashMap<>();
+        BitSet scratch = new BitSet();
+        for (Map.Entry<String, BitSet> entry : members.entrySet()) {
+            BitSet slots = entry.getValue();
+            int count = 0;
+            if (slots.cardinality() < slots.length() / 64) {
+                for (int slot = slots.nextSetBit(0); slot >= 0; slot = slots.nextSetBit(slot + 1)) {
+                    if (matches.get(slot)) {
+                        count++;
+                    }
+                }
+            } else {
+                scratch.clear();
+                scratch.or(slots);
+                scratch.and(matches);
+                count = scratch.cardinality();
+            }
+            if (count > 0) {
+                counts.put(entry.getKey(), count);
+            }
+        }
+        return counts;
+    }
+}
@@ -0,0 +1,126 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+//Hashes photo files by content. The content hash is a SHA-256 of the file, read through memory-mapped
+//chunks; the perceptual hash is a 64-bit difference hash (dHash) of the image, which barely changes when
+//a photo is re-encoded or resized, so near-duplicates can be found by Hamming distance.
+public class ContentHasher {
+    private static final long CHUNK_SIZE = 16L * 1024 * 1024;
+    private static final int BATCH_SIZE = 200;
+
+    private static final ExecutorService hasher = Executors.newFixedThreadPool(2, runnable -> {
+        Thread thread = new Thread(runnable, "content-hasher");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    //Hashes computed for one photo. Perceptual hashes are 0 when not requested.
+    public static class Hashes {
+        private final Photo photo;
+        private final String contentHash;
+        private final long perceptualHash;
+
+        Hashes(Photo photo, String contentHash, long perceptualHash) {
+            this.photo = photo;
+            this.contentHash = contentHash;
+            this.perceptualHash = perceptualHash;
+        }
+
+        public Photo getPhoto() {
+            return photo;
+        }
+
+        public String getContentHash() {
+            return contentHash;
+        }
+
+        public long getPerceptualHash() {
+            return perceptualHash;
+        }
+    }
+
+    private ContentHasher() {
+    }
+
+    //Hashes the photos' files in the background and hands the results to onHashed on the hashing thread, a batch at a time.
+    //The photos themselves are not modified; files that can't be read are left out.
+    public static void hashAsync(List<Photo> photos, boolean perceptual, Consumer<List<Hashes>> onHashed) {
+        for (int start = 0; start < photos.size(); start += BATCH_SIZE) {
+            List<Photo> batch = new ArrayList<>(photos.subList(start, Math.min(start + BATCH_SIZE, photos.size())));
+            hasher.execute(() -> {
+                List<Hashes> results = new ArrayList<>(batch.size());
+                for (Photo photo : batch) {
+                    File file = new File(photo.getFilePath());
+                    try {
+                        results.add(new Hashes(photo, contentHash(file.toPath()), perceptual ? perceptualHash(file) : 0));
+                    } catch (IOException e) {
+                        //Missing or unreadable files stay unhashed
+                    }
+                }
+                onHashed.accept(results);
+            });
+        }
+    }
+
+    //SHA-256 of a file as hex, streamed through memory-mapped chunks so large files are never copied onto the heap.
+    public static String contentHash(Path file) throws IOException {
+        MessageDigest digest = sha256();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            for (long position = 0; position < size; position += CHUNK_SIZE) {
+                digest.update(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(CHUNK_SIZE, size - position)));
+            }
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    //dHash: the image shrunk to 9x8 grey pixels, one bit per pair of horizontal neighbours telling
+    //whether brightness goes up. Decoding is subsampled, so this costs far less than a full decode.
+    public static long perceptualHash(File file) throws IOException {
+        BufferedImage small = PreviewLoader.decodeScaled(file, 64);
+        BufferedImage grey = new BufferedImage(9, 8, BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D g = grey.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.drawImage(small, 0, 0, 9, 8, null);
+        g.dispose();
+        long hash = 0;
+        for (int y = 0; y < 8; y++) {
+            for (int x = 0; x < 8; x++) {
+                int left = grey.getRaster().getSample(x, y, 0);
+                int right = grey.getRaster().getSample(x + 1, y, 0);
+                hash = (hash << 1) | (left < right ? 1 : 0);
+            }
+        }
+        return hash;
+    }
+
+    //Number of differing bits between two perceptual hashes.
+    public static int distance(long a, long b) {
+        return Long.bitCount(a ^ b);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+//Index of photos by capture day, answering day/month/year/range queries in O(log n + k).
+//Entries are packed as (epochDay << 32 | slot) into one sorted long array, so there is no boxing
+//and a range of days is a contiguous run of the array.
+public class DateIndex {
+    private long[] entries = new long[16];
+    private int size;
+    private boolean sorted = true;
+
+    //Appending in date order keeps the array sorted; anything else is sorted lazily before the next read.
+    public void add(int slot, long epochDay) {
+        long entry = entry(epochDay, slot);
+        if (size == entries.length) {
+            entries = Arrays.copyOf(entries, size * 2);
+        }
+        if (size > 0 && entry < entries[size - 1]) {
+            sorted = false;
+        }
+        entries[size++] = entry;
+    }
+
+    public void remove(int slot, long epochDay) {
+        ensureSorted();
+        int index = Arrays.binarySearch(entries, 0, size, entry(epochDay, slot));
+        if (index >= 0) {
+            System.arraycopy(entries, index + 1, entries, index, size - index - 1);
+            size--;
+        }
+    }
+
+    //Removes the photos in the given slots with one pass over the array, so a batch of k removals costs O(n)
+    //rather than k binary searches and copies.
+    public void removeAll(BitSet slots) {
+        if (slots.isEmpty()) {
+            return;
+        }
+        int kept = 0;
+        for (int index = 0; index < size; index++) {
+            if (!slots.get((int) entries[index])) {
+                entries[kept++] = entries[index];
+            }
+        }
+        size = kept;
+    }
+
+    public void clear() {
+        size = 0;
+        sorted = true;
+    }
+
+    //Returns the slots of photos taken on a day in [fromDay, toDay).
+    public BitSet lookup(long fromDay, long toDay) {
+        ensureSorted();
+        BitSet result = new BitSet();
+        long end = entry(toDay, 0);
+        int index = Arrays.binarySearch(entries, 0, size, entry(fromDay, 0));
+        if (index < 0) {
+            index = -index - 1;
+        }
+        for (; index < size && entries[index] < end; index++) {
+            result.set((int) entries[index]);
+        }
+        return result;
+    }
+
+    //Number of matching photos taken in each month, in order, in one pass over the index.
+    public SortedMap<YearMonth, Integer> countByMonth(BitSet matches) {
+        ensureSorted();
+        SortedMap<YearMonth, Integer> counts = new TreeMap<>();
+        YearMonth month = null;
+        long monthStart = 0;
+        long monthEnd = 0;
+        int count = 0;
+        for (int index = 0; index < size; index++) {
+            if (!matches.get((int) entries[index])) {
+                continue;
+            }
+            long day = entries[index] >> 32;
+            if (month == null || day < monthStart || day >= monthEnd) {
+                if (count > 0) {
+                    counts.put(month, count);
+                }
+                month = YearMonth.from(LocalDate.ofEpochDay(day));
+                monthStart = month.atDay(1).toEpochDay();
+                monthEnd = month.plusMonths(1).atDay(1).toEpochDay();
+                count = 0;
+            }
+            count++;
+        }
+        if (count > 0) {
+            counts.put(month, count);
+        }
+        return counts;
+    }
+
+    //Synchronized because lookups may run concurrently under a catalog's read lock.
+    private synchronized void ensureSorted() {
+        if (!sorted) {
+            Arrays.sort(entries, 0, size);
+            sorted = true;
+        }
+    }
+
+    //Days outside the int range only occur as open range bounds, so they are clamped.
+    private static long entry(long epochDay, int slot) {
+        long day = Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, epochDay));
+        return (day << 32) | slot;
+    }
+}
@@ -0,0 +1,72 @@
+import java.util.*;
+
+//Finds photos by content: exact copies through their content hash and near-duplicates through their
+//perceptual hash. A perceptual hash is split into four 16-bit bands and filed under each of them; two
+//hashes at most NEAR_DISTANCE bits apart must share a band, so only those buckets need comparing.
+public class DuplicateIndex {
+    public static final int NEAR_DISTANCE = 3;
+    private static final int BANDS = 4;
+
+    private final Map<String, List<Photo>> byContent = new HashMap<>(); //Copies in the order they were added
+    private final Map<Integer, List<Photo>> bands = new HashMap<>();
+
+    //Indexes whatever hashes the photo has. The first photo with a given content hash stays its representative
+    //until it is removed; then the next copy takes its place.
+    public void add(Photo photo) {
+        if (photo.getContentHash() != null) {
+            byContent.computeIfAbsent(photo.getContentHash(), hash -> new ArrayList<>(1)).add(photo);
+        }
+        if (photo.getPerceptualHash() != 0) {
+            for (int band = 0; band < BANDS; band++) {
+                bands.computeIfAbsent(bandKey(photo.getPerceptualHash(), band), key -> new ArrayList<>()).add(photo);
+            }
+        }
+    }
+
+    public void remove(Photo photo) {
+        List<Photo> copies = photo.getContentHash() == null ? null : byContent.get(photo.getContentHash());
+        if (copies != null && copies.remove(photo) && copies.isEmpty()) {
+            byContent.remove(photo.getContentHash());
+        }
+        if (photo.getPerceptualHash() != 0) {
+            for (int band = 0; band < BANDS; band++) {
+                List<Photo> bucket = bands.get(bandKey(photo.getPerceptualHash(), band));
+                if (bucket != null) {
+                    bucket.remove(photo);
+                }
+            }
+        }
+    }
+
+    public void clear() {
+        byContent.clear();
+        bands.clear();
+    }
+
+    //Returns a photo with exactly this content, or null.
+    public Photo findCopy(String contentHash) {
+        List<Photo> copies = contentHash == null ? null : byContent.get(contentHash);
+        return copies == null ? null : copies.get(0);
+    }
+
+    //Returns the photos whose perceptual hash is within NEAR_DISTANCE bits of this one.
+    public List<Photo> findSimilar(long perceptualHash) {
+        List<Photo> similar = new ArrayList<>();
+        if (perceptualHash == 0) {
+            return similar;
+        }
+        Set<Photo> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (int band = 0; band < BANDS; band++) {
+            for (Photo photo : bands.getOrDefault(bandKey(perceptualHash, band), Collections.emptyList())) {
+                if (seen.add(photo) && ContentHasher.distance(perceptualHash, photo.getPerceptualHash()) <= NEAR_DISTANCE) {
+                    similar.add(photo);
+                }
+            }
+        }
+        return similar;
+    }
+
+    private static int bandKey(long hash, int band) {
+        return (band << 16) | (int) ((hash >>> (16 * band)) & 0xffff);
+    }
+}
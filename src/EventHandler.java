@@ -1,43 +1,127 @@
 import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import javax.swing.filechooser.FileNameExtensionFilter;
-import javax.swing.tree.DefaultMutableTreeNode;
-import javax.swing.tree.DefaultTreeModel;
+import javax.swing.tree.TreePath;
 import java.awt.*;
 import java.awt.event.*;
 import java.io.*;
-import java.text.SimpleDateFormat;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
 
 //Handles all event-related actions for the application.
+//The catalog itself lives in PhotoCatalog; this class turns UI actions into catalog calls and catalog
+//changes into tree and grid updates.
 public class EventHandler {
     private UserInterface ui;
-    private PhotoCollection currentCollection;
-    private Map<String, PhotoCollection> collections = new HashMap<>();
-    private static final String COLLECTIONS_FILE = "collections.dat";
+    private PhotoCatalog catalog = new PhotoCatalog(new File("."));
+    private ThumbnailStore thumbnailStore = new ThumbnailStore(new File(THUMBNAILS_DIRECTORY));
+    private PreviewLoader previewLoader = new PreviewLoader(thumbnailStore);
+    private PreviewLoader gridThumbnails = new PreviewLoader(thumbnailStore); //Separate, so scrolling never queues ahead of the preview
+    private Future<?> pendingPreview;
+    private BatchEdit runningEdit; //The edit of selected photos running in the background, if any
+    private LiveSearch liveSearch = new LiveSearch(catalog, new SearchResultsView());
+    private CatalogWatcher watcher = new CatalogWatcher(catalog, new File("photos"));
+    private CatalogTreeModel searchResults; //Shown in the tree while a search is active
+    private static final String THUMBNAILS_DIRECTORY = "thumbnails";
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("dd/MM/yyyy");
+    private static final int PREVIEW_WIDTH = 620;
+    private static final Metrics.Timer TREE_TIMER = Metrics.timer("ui.updateTree");
+    private static final Metrics.Timer PREVIEW_TIMER = Metrics.timer("ui.preview");
+    private static final Metrics.Counter PREVIEW_CACHE_HITS = Metrics.counter("ui.previewCacheHits");
 
     public EventHandler(UserInterface ui) {
         this.ui = ui;
-        loadCollections(); //Load existing photo collections from file
-        if (!collections.containsKey("Default")) {
-            collections.put("Default", new PhotoCollection("Default"));
+        ui.getPhotoGrid().setThumbnailSource(gridThumbnails);
+        catalog.addListener(new TreeUpdater()); //Keep the tree up to date once the catalog is loaded
+    }
+
+    //Loads the catalog in the background, so the window shows before it is in. The load itself still reads
+    //every photo, so it takes longer the larger the library; the controls that search or change the catalog
+    //are disabled until it is done.
+    public void loadCatalog() {
+        JProgressBar progressBar = ui.getProgressBar();
+        setCatalogControlsEnabled(false);
+        progressBar.setIndeterminate(true);
+        progressBar.setString("Loading catalog");
+        progressBar.setVisible(true);
+        Thread thread = new Thread(() -> {
+            catalog.load(); //Load existing photo collections from file
+            SwingUtilities.invokeLater(() -> {
+                progressBar.setIndeterminate(false);
+                progressBar.setVisible(false);
+                updateTree(); //Update the UI tree with current collections
+                setCatalogControlsEnabled(true);
+                hashUnhashedPhotos(); //Hash photos added before content hashing, for duplicate detection
+                startWatcher(); //Follow photo files moved, deleted or changed outside the application
+                loadPhotos(); //Add photo files the catalog lacks, e.g. written by the command line
+            });
+        }, "catalog-loader");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void setCatalogControlsEnabled(boolean enabled) {
+        ui.getSearchField().setEnabled(enabled);
+        ui.getSearchOptions().setEnabled(enabled);
+        for (Component button : ui.getButtonPanel().getComponents()) {
+            button.setEnabled(enabled);
+        }
+    }
+
+    private void startWatcher() {
+        try {
+            watcher.start();
+        } catch (IOException e) {
+            e.printStackTrace();
         }
-        this.currentCollection = collections.get("Default");
-        updateTree(); //Update the UI tree with current collections
     }
 
     //Adds event listeners for various UI components.
     public void addEventListeners() {
         addSearchButtonListener();
         addAddPhotoButtonListener();
+        addImportFolderButtonListener();
         addPhotoTreeMouseListener();
+        addPhotoGridListeners();
+        ui.getCancelButton().addActionListener(e -> {
+            if (runningEdit != null) {
+                runningEdit.cancel();
+            }
+        });
     }
 
-    //Adds a listener for the search button.
+    //Adds a listener for the search button, and searches as the query is typed or the criterion changed.
     private void addSearchButtonListener() {
         JButton searchButton = new JButton("Search");
         searchButton.addActionListener(this::performSearch); //Perform search on click
         styleButton(searchButton);
         ui.getButtonPanel().add(searchButton); //Add to UI
+        ui.getSearchField().addActionListener(this::performSearch); //And on Enter
+        ui.getSearchField().getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                liveSearch.queryChanged(ui.getSearchField().getText(), (String) ui.getSearchOptions().getSelectedItem());
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                liveSearch.queryChanged(ui.getSearchField().getText(), (String) ui.getSearchOptions().getSelectedItem());
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+            }
+        });
+        ui.getSearchOptions().addActionListener(e -> liveSearch.queryChanged(ui.getSearchField().getText(),
+                (String) ui.getSearchOptions().getSelectedItem()));
+        new TagCompletion(ui.getSearchField(), catalog, () -> (String) ui.getSearchOptions().getSelectedItem());
+        ui.getFacetPanel().setListener(this::drillDown);
     }
 
     //Adds a listener for the add photo button.
@@ -48,6 +132,14 @@ public class EventHandler {
         ui.getButtonPanel().add(addButton); //Add to UI
     }
 
+    //Adds a listener for the import folder button.
+    private void addImportFolderButtonListener() {
+        JButton importButton = new JButton("Import Folder");
+        importButton.addActionListener(this::importFolder); //Import a folder on click
+        styleButton(importButton);
+        ui.getButtonPanel().add(importButton); //Add to UI
+    }
+
     //Adds a mouse listener to the photo tree for handling context menus and double-click actions.
     private void addPhotoTreeMouseListener() {
         ui.getPhotoTree().addMouseListener(new MouseAdapter() {
@@ -58,89 +150,171 @@ public class EventHandler {
         });
     }
 
-    //Handles mouse pressed events on the photo tree.
+    //Shows the photo selected in the grid, and the photo context menu on right-click.
+    private void addPhotoGridListeners() {
+        PhotoGrid grid = ui.getPhotoGrid();
+        grid.addListSelectionListener(e -> {
+            Photo photo = grid.getSelectedValue();
+            if (!e.getValueIsAdjusting() && photo != null) {
+                updatePhotoPreview(photo);
+                updatePhotoDetails(photo);
+            }
+        });
+        grid.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mousePressed(MouseEvent e) {
+                int index = grid.locationToIndex(e.getPoint());
+                if (SwingUtilities.isRightMouseButton(e) && index >= 0 && grid.getCellBounds(index, index).contains(e.getPoint())) {
+                    if (!grid.isSelectedIndex(index)) {
+                        grid.setSelectedIndex(index); //Keep a multiple selection the click is part of
+                    }
+                    showContextMenu(grid.getModel().getElementAt(index), e);
+                }
+            }
+        });
+    }
+
+    //Handles mouse pressed events on the photo tree. Selecting rows is left to the tree, so several photos can
+    //be selected with Ctrl and Shift; right-clicking outside the selection selects just the row clicked.
     private void handleMousePressed(MouseEvent e) {
-        int x = e.getX();
-        int y = e.getY();
-        int row = ui.getPhotoTree().getRowForLocation(x, y);
-        if (row != -1) {
-            ui.getPhotoTree().setSelectionRow(row);
-            DefaultMutableTreeNode node = (DefaultMutableTreeNode) ui.getPhotoTree().getLastSelectedPathComponent();
-            if (node != null) {
-                if (SwingUtilities.isRightMouseButton(e)) {
-                    showContextMenu(node, e);
-                } else if (e.getClickCount() == 2 && !e.isConsumed()) {
-                    handleDoubleClick(node);
+        JTree tree = ui.getPhotoTree();
+        int row = tree.getRowForLocation(e.getX(), e.getY());
+        if (row == -1) {
+            return;
+        }
+        Object clicked = tree.getPathForRow(row).getLastPathComponent();
+        if (clicked instanceof PhotoCollection) {
+            ui.getGridModel().showCollection((PhotoCollection) clicked);
+        }
+        if (SwingUtilities.isRightMouseButton(e)) {
+            if (!tree.isRowSelected(row) || clicked instanceof PhotoCollection) {
+                tree.setSelectionRow(row);
+            }
+            showContextMenu(clicked, e);
+        } else if (e.getClickCount() == 2 && !e.isConsumed()) {
+            handleDoubleClick(clicked);
+        }
+    }
+
+    //Returns the photo selected in the grid, or the photo or collection behind the selected row of the tree.
+    private Object getSelectedObject() {
+        if (ui.isGridShowing()) {
+            return ui.getPhotoGrid().getSelectedValue();
+        }
+        return ui.getPhotoTree().getLastSelectedPathComponent();
+    }
+
+    //Returns every photo selected in the grid, or behind the selected rows of the tree.
+    private List<Photo> getSelectedPhotos() {
+        if (ui.isGridShowing()) {
+            return ui.getPhotoGrid().getSelectedValuesList();
+        }
+        List<Photo> photos = new ArrayList<>();
+        TreePath[] paths = ui.getPhotoTree().getSelectionPaths();
+        if (paths != null) {
+            Set<Photo> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (TreePath path : paths) {
+                if (path.getLastPathComponent() instanceof Photo && seen.add((Photo) path.getLastPathComponent())) {
+                    photos.add((Photo) path.getLastPathComponent());
                 }
             }
         }
+        return photos;
+    }
+
+    //Name of the collection the selected photos are shown in, or null for search results or photos
+    //selected in several collections.
+    private String getSelectedCollectionName() {
+        if (ui.isGridShowing()) {
+            return ui.getGridModel().getCollectionName();
+        }
+        TreePath[] paths = ui.getPhotoTree().getSelectionPaths();
+        if (searchResults != null || paths == null) {
+            return null;
+        }
+        Object parent = null;
+        for (TreePath path : paths) {
+            if (path.getParentPath() == null || parent != null && parent != path.getParentPath().getLastPathComponent()) {
+                return null;
+            }
+            parent = path.getParentPath().getLastPathComponent();
+        }
+        return ((PhotoCollection) parent).getName();
     }
 
     //Handles double-click events on a photo node.
-    private void handleDoubleClick(DefaultMutableTreeNode node) {
-        Object userObject = node.getUserObject();
-        if (userObject instanceof Photo) {
-            Photo photo = (Photo) userObject;
+    private void handleDoubleClick(Object selected) {
+        if (selected instanceof Photo) {
+            Photo photo = (Photo) selected;
             updatePhotoPreview(photo);
             updatePhotoDetails(photo);
         }
     }
 
-    //Displays the context menu for a node.
-    private void showContextMenu(DefaultMutableTreeNode node, MouseEvent e) {
-        Object userObject = node.getUserObject();
+    //Displays the context menu for a node. Photo actions apply to every selected photo.
+    private void showContextMenu(Object selected, MouseEvent e) {
         JPopupMenu contextMenu = new JPopupMenu();
 
-        if (userObject instanceof Photo) {
-            JMenuItem removePhoto = new JMenuItem("Remove Photo");
+        if (selected instanceof Photo) {
+            int count = getSelectedPhotos().size();
+            JMenuItem removePhoto = new JMenuItem(count > 1 ? "Remove " + count + " Photos" : "Remove Photo");
             removePhoto.addActionListener(event -> deletePhoto(event));
             contextMenu.add(removePhoto);
 
             JMenuItem addToCollection = new JMenuItem("Add to Collection");
             addToCollection.addActionListener(event -> addToCollection(event));
             contextMenu.add(addToCollection);
-        } else if (userObject instanceof String) {
+
+            String collectionName = getSelectedCollectionName();
+            if (collectionName != null && !collectionName.equals(PhotoCatalog.DEFAULT_COLLECTION)) {
+                JMenuItem moveToCollection = new JMenuItem("Move to Collection");
+                moveToCollection.addActionListener(event -> moveToCollection(event));
+                contextMenu.add(moveToCollection);
+
+                JMenuItem removeFromCollection = new JMenuItem("Remove from " + collectionName);
+                removeFromCollection.addActionListener(event -> removeFromCollection(event));
+                contextMenu.add(removeFromCollection);
+            }
+
+            JMenuItem tagPhotos = new JMenuItem("Add Tags...");
+            tagPhotos.addActionListener(event -> tagPhotos(event));
+            contextMenu.add(tagPhotos);
+
+            JMenuItem retagPhotos = new JMenuItem("Replace Tag...");
+            retagPhotos.addActionListener(event -> retagPhotos(event));
+            contextMenu.add(retagPhotos);
+        } else if (selected instanceof PhotoCollection) {
             JMenuItem removeCollection = new JMenuItem("Remove Collection");
             removeCollection.addActionListener(event -> deleteCollection(event));
             contextMenu.add(removeCollection);
+
+            if (!((PhotoCollection) selected).getName().equals(PhotoCatalog.DEFAULT_COLLECTION)) {
+                JMenuItem mergeCollection = new JMenuItem("Merge Into...");
+                mergeCollection.addActionListener(event -> mergeCollection(event));
+                contextMenu.add(mergeCollection);
+            }
         }
 
-        contextMenu.show(ui.getPhotoTree(), e.getX(), e.getY());
+        contextMenu.show(e.getComponent(), e.getX(), e.getY());
     }
 
-    //Deletes a photo from the collection.
+    //Deletes the selected photos from the catalog, asking first if there are several.
     public void deletePhoto(ActionEvent e) {
-        DefaultMutableTreeNode selectedNode = (DefaultMutableTreeNode) ui.getPhotoTree().getLastSelectedPathComponent();
-        if (selectedNode != null && selectedNode.getUserObject() instanceof Photo) {
-            Photo photo = (Photo) selectedNode.getUserObject();
-            for (PhotoCollection collection : collections.values()) {
-                collection.removePhoto(photo);
-            }
-            ui.getTreeModel().removeNodeFromParent(selectedNode);
-            clearPhotoInfo();
-            deletePhotoFile(photo);
-            saveCollections();
-            updateTree();
-            ui.getPhotoTree().updateUI();
+        List<Photo> photos = getSelectedPhotos();
+        if (photos.isEmpty() || photos.size() > 1 && JOptionPane.showConfirmDialog(ui.getPhotoTree(),
+                "Remove " + photos.size() + " photos from the library?", "Remove Photos", JOptionPane.OK_CANCEL_OPTION) != JOptionPane.OK_OPTION) {
+            return;
         }
+        clearPhotoInfo();
+        runBatchEdit("Removing photos", progress -> catalog.removePhotos(photos, progress));
     }
 
     //Deletes a photo collection.
     public void deleteCollection(ActionEvent e) {
-        DefaultMutableTreeNode selectedNode = (DefaultMutableTreeNode) ui.getPhotoTree().getLastSelectedPathComponent();
-        if (selectedNode != null && selectedNode.getUserObject() instanceof String) {
-            String collectionName = (String) selectedNode.getUserObject();
-            if (!collectionName.equals("Default")) {
-                PhotoCollection collectionToRemove = collections.get(collectionName);
-                PhotoCollection defaultCollection = collections.get("Default");
-                for (Photo photo : collectionToRemove.getPhotos()) {
-                    defaultCollection.addPhoto(photo);
-                }
-                collections.remove(collectionName);
-                ui.getTreeModel().removeNodeFromParent(selectedNode);
-                saveCollections();
-                updateTree();
-                ui.getPhotoTree().updateUI();
+        if (getSelectedObject() instanceof PhotoCollection) {
+            String collectionName = ((PhotoCollection) getSelectedObject()).getName();
+            if (!collectionName.equals(PhotoCatalog.DEFAULT_COLLECTION)) {
+                runBatchEdit("Deleting " + collectionName, progress -> catalog.deleteCollection(collectionName, progress));
             } else {
                 JOptionPane.showMessageDialog(ui.getPhotoTree(), "Cannot delete the Default collection", "Error",
                         JOptionPane.ERROR_MESSAGE);
@@ -148,92 +322,187 @@ public class EventHandler {
         }
     }
 
-    //Adds a photo to a specified collection.
+    //Adds the selected photos to a specified collection.
     public void addToCollection(ActionEvent e) {
-        DefaultMutableTreeNode selectedNode = (DefaultMutableTreeNode) ui.getPhotoTree().getLastSelectedPathComponent();
-        if (selectedNode != null && selectedNode.getUserObject() instanceof Photo) {
-            Photo selectedPhoto = (Photo) selectedNode.getUserObject();
-            String collectionName = JOptionPane.showInputDialog(ui.getPhotoTree(), "Enter Collection Name:");
-            if (collectionName != null && !collectionName.trim().isEmpty()) {
-                PhotoCollection collection = collections.get(collectionName);
-                if (collection == null) {
-                    collection = new PhotoCollection(collectionName);
-                    collections.put(collectionName, collection);
-                }
-                collection.addPhoto(selectedPhoto);
-                collections.get("Default").removePhoto(selectedPhoto);
-                updateTree();
-                saveCollections();
-                ui.getPhotoTree().updateUI();
-                updatePhotoPreview(selectedPhoto);
+        List<Photo> photos = getSelectedPhotos();
+        String collectionName = photos.isEmpty() ? null : askCollectionName();
+        if (collectionName != null) {
+            runBatchEdit("Adding to " + collectionName,
+                    progress -> catalog.addToCollection(photos, collectionName, progress));
+        }
+    }
+
+    //Moves the selected photos from the collection they are shown in to a specified one.
+    public void moveToCollection(ActionEvent e) {
+        List<Photo> photos = getSelectedPhotos();
+        String sourceName = getSelectedCollectionName();
+        String targetName = photos.isEmpty() || sourceName == null ? null : askCollectionName();
+        if (targetName != null) {
+            runBatchEdit("Moving to " + targetName,
+                    progress -> catalog.moveToCollection(photos, sourceName, targetName, progress));
+        }
+    }
+
+    //Asks for the name of a collection to file photos in; null if none was given.
+    private String askCollectionName() {
+        String collectionName = JOptionPane.showInputDialog(ui.getPhotoTree(), "Enter Collection Name:");
+        if (collectionName == null || collectionName.trim().isEmpty()) {
+            return null;
+        }
+        if (collectionName.equals(PhotoCatalog.DEFAULT_COLLECTION)) {
+            JOptionPane.showMessageDialog(ui.getPhotoTree(), "Photos go back to Default when they leave their last collection",
+                    "Error", JOptionPane.ERROR_MESSAGE);
+            return null;
+        }
+        return collectionName;
+    }
+
+    //Takes the selected photos out of the collection they are shown in; they stay in their other collections.
+    public void removeFromCollection(ActionEvent e) {
+        List<Photo> photos = getSelectedPhotos();
+        String collectionName = getSelectedCollectionName();
+        if (!photos.isEmpty() && collectionName != null) {
+            runBatchEdit("Removing from " + collectionName,
+                    progress -> catalog.removeFromCollection(photos, collectionName, progress));
+        }
+    }
+
+    //Adds tags to the selected photos.
+    public void tagPhotos(ActionEvent e) {
+        List<Photo> photos = getSelectedPhotos();
+        String input = photos.isEmpty() ? null : JOptionPane.showInputDialog(ui.getPhotoTree(), "Tags to add (separated by , )");
+        if (input == null) {
+            return;
+        }
+        List<String> tags = new ArrayList<>();
+        for (String tag : input.split(",")) {
+            if (!TagDictionary.normalize(tag).isEmpty()) {
+                tags.add(TagDictionary.normalize(tag));
             }
         }
+        if (!tags.isEmpty()) {
+            runBatchEdit("Tagging photos", progress -> catalog.tagPhotos(photos, tags, progress));
+        }
     }
 
-    //Performs a search based on the query entered in the search field.
-    private void performSearch(ActionEvent e) {
-        String query = ui.getSearchField().getText().trim().toLowerCase();
-        clearPhotoInfo();
-        if (query.isEmpty()) {
-            updateTree();
-            ui.getPhotoTree().setModel(ui.getTreeModel());
-            ui.getPhotoTree().updateUI();
-            expandAllNodes();
+    //Replaces a tag with another one on the selected photos that have it; leaving the new tag empty removes it.
+    public void retagPhotos(ActionEvent e) {
+        List<Photo> photos = getSelectedPhotos();
+        if (photos.isEmpty()) {
             return;
         }
-        DefaultMutableTreeNode searchRoot = new DefaultMutableTreeNode("Search Results");
-        DefaultMutableTreeNode root = (DefaultMutableTreeNode) ui.getTreeModel().getRoot();
-        treeNodeSearch(root, searchRoot, query, (String) ui.getSearchOptions().getSelectedItem());
-        DefaultTreeModel searchModel = new DefaultTreeModel(searchRoot);
-        ui.getPhotoTree().setModel(searchModel);
-        expandAllNodes();
-    }
-
-    //Recursively searches through the photo tree nodes.
-    private void treeNodeSearch(DefaultMutableTreeNode currentNode, DefaultMutableTreeNode searchRoot, String query, String criteria) {
-        if (currentNode.getUserObject() instanceof Photo) {
-            Photo photo = (Photo) currentNode.getUserObject();
-            if (matchesSearchCriteria(photo, query, criteria)) {
-                searchRoot.add(new DefaultMutableTreeNode(photo));
-            }
-        }
-        for (int i = 0; i < currentNode.getChildCount(); i++) {
-            treeNodeSearch((DefaultMutableTreeNode) currentNode.getChildAt(i), searchRoot, query, criteria);
-        }
-    }
-
-    //Checks if a photo matches the search criteria.
-    private boolean matchesSearchCriteria(Photo photo, String query, String criteria) {
-        switch (criteria) {
-            case "Titles":
-                return photo.getTitle().toLowerCase().contains(query);
-            case "Descriptions":
-                return photo.getDescription().toLowerCase().contains(query);
-            case "Dates":
-                return new SimpleDateFormat("dd/MM/yyyy").format(photo.getDate()).equals(query);
-            case "Tags":
-                String[] orTags = query.split("\\|");
-                for (String orTagGroup : orTags) {
-                    String[] andTags = orTagGroup.split(",");
-                    boolean allMatch = true;
-                    for (String andTag : andTags) {
-                        if (!photo.getTags().contains(andTag.trim().toLowerCase())) {
-                            allMatch = false;
-                            break;
-                        }
-                    }
-                    if (allMatch) {
-                        return true;
-                    }
-                }
-                return false;
-            default:
-                return false;
+        JTextField oldTagField = new JTextField();
+        JTextField newTagField = new JTextField();
+        styleTextField(oldTagField);
+        styleTextField(newTagField);
+        JPanel panel = new JPanel(new GridLayout(0, 1));
+        JLabel oldTagLabel = new JLabel("Replace tag");
+        styleLabel(oldTagLabel);
+        panel.add(oldTagLabel);
+        panel.add(oldTagField);
+        JLabel newTagLabel = new JLabel("With (leave empty to remove it)");
+        styleLabel(newTagLabel);
+        panel.add(newTagLabel);
+        panel.add(newTagField);
+        panel.setBackground(new Color(149, 210, 179));
+
+        int result = JOptionPane.showConfirmDialog(null, panel, "Replace Tag", JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE);
+        String oldTag = oldTagField.getText();
+        String newTag = newTagField.getText();
+        if (result == JOptionPane.OK_OPTION && !TagDictionary.normalize(oldTag).isEmpty()) {
+            runBatchEdit("Retagging photos", progress -> catalog.retagPhotos(photos, oldTag, newTag, progress));
         }
     }
 
+    //Runs an edit of many photos in the background as a single catalog change, showing its progress.
+    //The Cancel button stops it until the change is being made. One edit runs at a time.
+    private void runBatchEdit(String name, Consumer<PhotoCatalog.Progress> edit) {
+        if (runningEdit != null) {
+            JOptionPane.showMessageDialog(ui.getPhotoTree(), "Please wait until the current edit is finished", "Error",
+                    JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        JProgressBar progressBar = ui.getProgressBar();
+        JButton cancelButton = ui.getCancelButton();
+        progressBar.setIndeterminate(false);
+        progressBar.setValue(0);
+        progressBar.setString(name);
+        progressBar.setVisible(true);
+        cancelButton.setEnabled(true);
+        cancelButton.setVisible(true);
+        runningEdit = BatchEdit.start(edit, new BatchEdit.Listener() {
+            @Override
+            public void progress(int done, int total) {
+                progressBar.setMaximum(total);
+                progressBar.setValue(done);
+                progressBar.setString(name + " " + done + "/" + total);
+            }
+
+            @Override
+            public void applying() {
+                cancelButton.setEnabled(false);
+                progressBar.setIndeterminate(true);
+                progressBar.setString(name);
+            }
 
+            @Override
+            public void finished() {
+                editDone();
+            }
+
+            @Override
+            public void cancelled() {
+                editDone();
+            }
 
+            @Override
+            public void failed(String message) {
+                editDone();
+                JOptionPane.showMessageDialog(null, name + " failed: " + message, "Error", JOptionPane.ERROR_MESSAGE);
+            }
+        });
+    }
+
+    private void editDone() {
+        runningEdit = null;
+        ui.getProgressBar().setIndeterminate(false);
+        ui.getProgressBar().setVisible(false);
+        ui.getCancelButton().setVisible(false);
+    }
+
+    //Merges the selected collection into another one, chosen from a list.
+    public void mergeCollection(ActionEvent e) {
+        if (!(getSelectedObject() instanceof PhotoCollection)) {
+            return;
+        }
+        String collectionName = ((PhotoCollection) getSelectedObject()).getName();
+        List<String> targets = catalog.getCollectionNames();
+        targets.remove(collectionName);
+        targets.remove(PhotoCatalog.DEFAULT_COLLECTION);
+        if (targets.isEmpty()) {
+            JOptionPane.showMessageDialog(ui.getPhotoTree(), "There is no other collection to merge into", "Error",
+                    JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        Object target = JOptionPane.showInputDialog(ui.getPhotoTree(), "Merge " + collectionName + " into:", "Merge Collection",
+                JOptionPane.QUESTION_MESSAGE, null, targets.toArray(), targets.get(0));
+        if (target != null) {
+            runBatchEdit("Merging " + collectionName,
+                    progress -> catalog.mergeCollections(collectionName, (String) target, progress));
+        }
+    }
+
+    //Searches at once for the query in the search field; clearing it shows the whole catalog again.
+    private void performSearch(ActionEvent e) {
+        clearPhotoInfo();
+        liveSearch.searchNow(ui.getSearchField().getText(), (String) ui.getSearchOptions().getSelectedItem());
+    }
+
+    //Narrows the search to the photos of a facet by adding its clause to the query.
+    private void drillDown(SearchFacets.Facet facet) {
+        ui.getSearchField().setText(SearchQuery.refine(ui.getSearchField().getText(), facet.getClause()));
+        performSearch(null);
+    }
 
     //Adds a new photo to the collection.
     private void addPhoto(ActionEvent e) {
@@ -295,67 +564,151 @@ public class EventHandler {
                 if (!dateField.getText().matches("\\d{2}/\\d{2}/\\d{4}")) {
                     throw new IllegalArgumentException("Invalid date format. Please use 'dd/MM/yyyy'.");
                 }
-                Date photoDate = new SimpleDateFormat("dd/MM/yyyy").parse(dateField.getText());
+                LocalDate photoDate = LocalDate.parse(dateField.getText(), DATE_FORMAT);
                 Photo newPhoto = new Photo(titleField.getText(), descField.getText(), photoDate, filePathField.getText());
                 for (String tag : tagsField.getText().split(",")) {
                     newPhoto.addTag(tag.trim());
                 }
-                currentCollection.addPhoto(newPhoto);
-                savePhotoToFile(newPhoto);
-                saveCollections();
-                updateTree();
+                if (!catalog.addPhoto(newPhoto)) {
+                    JOptionPane.showMessageDialog(null, "This file is already in the library.", "Error", JOptionPane.ERROR_MESSAGE);
+                    return;
+                }
+                ContentHasher.hashAsync(Collections.singletonList(newPhoto), false, hashes -> applyHashes(hashes, true));
+                watcher.watch(new File(newPhoto.getFilePath()).getAbsoluteFile().getParentFile().toPath());
             } catch (Exception ex) {
                 JOptionPane.showMessageDialog(null, "Invalid date format. Please use 'dd/MM/yyyy'.", "Error", JOptionPane.ERROR_MESSAGE);
             }
         }
     }
 
-    //Updates the photo preview.
-    private void updatePhotoPreview(Photo photo) {
-        try {
-            ImageIcon imageIcon = new ImageIcon(photo.getFilePath());
-            Image image = imageIcon.getImage().getScaledInstance(620, -1, Image.SCALE_SMOOTH);
-            ui.getPhotoLabel().setIcon(new ImageIcon(image));
-            ui.getPhotoLabel().revalidate();
-            ui.getPhotoLabel().repaint();
-        } catch (Exception ex) {
-            ex.printStackTrace();
-            JOptionPane.showMessageDialog(null, "Error loading image: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+    //Imports every photo under a chosen folder in the background, then adds them all to Default at once.
+    private void importFolder(ActionEvent e) {
+        JFileChooser folderChooser = new JFileChooser();
+        folderChooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+        JCheckBox nearDuplicates = new JCheckBox("Find near-duplicates (slower)");
+        folderChooser.setAccessory(nearDuplicates);
+        if (folderChooser.showOpenDialog(null) != JFileChooser.APPROVE_OPTION) {
+            return;
         }
+        JButton importButton = (JButton) e.getSource();
+        importButton.setEnabled(false);
+        JProgressBar progressBar = ui.getProgressBar();
+        Path folder = folderChooser.getSelectedFile().toPath();
+        PhotoImporter.importFolder(folder, catalog.getPhotoPaths(), nearDuplicates.isSelected(),
+                new PhotoImporter.Listener() {
+            @Override
+            public void progress(int done, int total) {
+                progressBar.setVisible(true);
+                progressBar.setMaximum(total);
+                progressBar.setValue(done);
+                progressBar.setString("Importing photos " + done + "/" + total);
+            }
+
+            @Override
+            public void finished(PhotoImporter.Report report) {
+                progressBar.setString("Adding photos to the catalog");
+                //Indexing a large import takes a while; the tree catches up through the catalog listener
+                new Thread(() -> {
+                    List<String> notes = new ArrayList<>();
+                    int imported = catalog.importPhotos(report.getPhotos(), notes).size();
+                    watcher.watchTree(folder);
+                    SwingUtilities.invokeLater(() -> {
+                        progressBar.setVisible(false);
+                        importButton.setEnabled(true);
+                        showImportReport(report, imported, notes);
+                    });
+                }, "catalog-import").start();
+            }
+        });
     }
 
-    //Updates the photo details.
-    private void updatePhotoDetails(Photo photo) {
-        ui.getTitleLabel().setText("Title: " + photo.getTitle());
-        ui.getDescriptionLabel().setText("Description: " + photo.getDescription());
-        SimpleDateFormat dateFormat = new SimpleDateFormat("dd/MM/yyyy");
-        ui.getDateLabel().setText("Date: " + dateFormat.format(photo.getDate()));
-        ui.getTagLabel().setText("Tags: " + String.join(", ", photo.getTags()));
+    //Hashes every photo that has no content hash yet, in the background.
+    private void hashUnhashedPhotos() {
+        ContentHasher.hashAsync(catalog.getUnhashedPhotos(), false, hashes -> applyHashes(hashes, false));
     }
 
-    //Saves the photo object to a file.
-    private void savePhotoToFile(Photo photo) {
-        String filename = "photos/" + photo.getTitle().replace(" ", "_").replace(":", "_").replace("/", "_") + ".dat";
+    //Stores hashes computed in the background, optionally telling the user when a photo turns out to be
+    //a copy of another one. Called on the hashing thread.
+    private void applyHashes(List<ContentHasher.Hashes> hashes, boolean reportCopies) {
+        Map<Photo, Photo> copies = catalog.applyHashes(hashes);
+        if (reportCopies && !copies.isEmpty()) {
+            SwingUtilities.invokeLater(() -> {
+                for (Map.Entry<Photo, Photo> copy : copies.entrySet()) {
+                    JOptionPane.showMessageDialog(null, copy.getKey().getFilePath() + " is a copy of " + copy.getValue().getFilePath(),
+                            "Duplicate Photo", JOptionPane.WARNING_MESSAGE);
+                }
+            });
+        }
+    }
 
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(filename))) {
-            oos.writeObject(photo);
-        } catch (IOException e) {
-            e.printStackTrace();
+    private void showImportReport(PhotoImporter.Report report, int imported, List<String> notes) {
+        StringBuilder message = new StringBuilder(String.format("Imported %d of %d photos in %.1f s (%.0f files/s).",
+                imported, report.getFileCount(), report.getSeconds(), report.getFilesPerSecond()));
+        if (report.getSkippedCount() > 0) {
+            message.append("\nSkipped ").append(report.getSkippedCount()).append(" already in the catalog.");
         }
+        appendList(message, notes.size() + " duplicates found:", notes);
+        appendList(message, report.getErrors().size() + " files could not be read:", report.getErrors());
+        JOptionPane.showMessageDialog(null, message.toString(), "Import Folder",
+                report.getErrors().isEmpty() ? JOptionPane.INFORMATION_MESSAGE : JOptionPane.WARNING_MESSAGE);
     }
 
-    //Deletes the photo file.
-    private void deletePhotoFile(Photo photo) {
-        String filename = "photos/" + photo.getTitle().replace(" ", "_").replace(":", "_").replace("/", "_") + ".dat";
+    //Appends up to 20 lines of a list to a message, under a heading.
+    private void appendList(StringBuilder message, String heading, List<String> lines) {
+        if (!lines.isEmpty()) {
+            message.append("\n\n").append(heading);
+            for (String line : lines.subList(0, Math.min(lines.size(), 20))) {
+                message.append("\n").append(line);
+            }
+            if (lines.size() > 20) {
+                message.append("\n...and ").append(lines.size() - 20).append(" more");
+            }
+        }
+    }
 
-        File file = new File(filename);
-        if (file.exists()) {
-            file.delete();
+    //Updates the photo preview. Cached previews show at once; others are decoded in the background,
+    //superseding any preview still loading. The time until the preview shows is recorded.
+    private void updatePhotoPreview(Photo photo) {
+        long start = System.nanoTime();
+        if (pendingPreview != null) {
+            pendingPreview.cancel(true);
         }
+        ImageIcon cached = previewLoader.getCached(photo.getFilePath(), PREVIEW_WIDTH);
+        if (cached != null) {
+            showPreview(cached);
+            PREVIEW_CACHE_HITS.increment();
+            PREVIEW_TIMER.record(System.nanoTime() - start);
+            return;
+        }
+        ui.getPhotoLabel().setIcon(null);
+        pendingPreview = previewLoader.load(photo.getFilePath(), PREVIEW_WIDTH, preview -> {
+            showPreview(preview);
+            PREVIEW_TIMER.record(System.nanoTime() - start);
+        }, ex -> {
+            PREVIEW_TIMER.failed(ex);
+            JOptionPane.showMessageDialog(null, "Error loading image: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+        });
+    }
+
+    private void showPreview(ImageIcon preview) {
+        ui.getPhotoLabel().setIcon(preview);
+        ui.getPhotoLabel().revalidate();
+        ui.getPhotoLabel().repaint();
+    }
+
+    //Updates the photo details.
+    private void updatePhotoDetails(Photo photo) {
+        ui.getTitleLabel().setText("Title: " + photo.getTitle());
+        ui.getDescriptionLabel().setText("Description: " + photo.getDescription());
+        ui.getDateLabel().setText("Date: " + DATE_FORMAT.format(photo.getDate()));
+        ui.getTagLabel().setText("Tags: " + String.join(", ", photo.getTags()));
     }
 
     //Clears the photo information displayed in the UI.
     private void clearPhotoInfo() {
+        if (pendingPreview != null) {
+            pendingPreview.cancel(true);
+        }
         ui.getPhotoLabel().setIcon(null);
         ui.getTitleLabel().setText("Title: ");
         ui.getDescriptionLabel().setText("Description: ");
@@ -364,58 +717,36 @@ public class EventHandler {
     }
 
 
-    //Loads photos from files.
-    public void loadPhotos() {
-        new Thread(() -> {
-            File folder = new File("photos");
-            File[] files = folder.listFiles((dir, name) -> name.endsWith(".dat"));
-            if (files != null) {
-                Arrays.sort(files);
-                for (File file : files) {
-                    try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(file))) {
-                        Photo photo = (Photo) ois.readObject();
-                        SwingUtilities.invokeLater(() -> {
-                            if (!containsPhoto(photo)) {
-                                addPhotoToCollection(photo);
-                            }
-                        });
-                    } catch (IOException | ClassNotFoundException e) {
-                        e.printStackTrace();
-                    }
-                }
+    //Loads photos from files in the background, adding them to the tree in batches.
+    //Files of photos already in the catalog are skipped without being read.
+    private void loadPhotos() {
+        JProgressBar progressBar = ui.getProgressBar();
+        PhotoLoader.load(new File("photos"), catalog::containsPhoto, new PhotoLoader.Listener() {
+            @Override
+            public void batchLoaded(List<Photo> photos) {
+                addLoadedPhotos(photos);
             }
-        }).start();
-    }
 
-    //Checks if a photo is already in the collection.
-    private boolean containsPhoto(Photo photo) {
-        for (PhotoCollection collection : collections.values()) {
-            for (Photo existingPhoto : collection.getPhotos()) {
-                if (existingPhoto.getFilePath().equals(photo.getFilePath())) {
-                    return true;
-                }
+            @Override
+            public void progress(int loaded, int total) {
+                progressBar.setVisible(true);
+                progressBar.setMaximum(total);
+                progressBar.setValue(loaded);
+                progressBar.setString("Loading photos " + loaded + "/" + total);
             }
-        }
-        return false;
-    }
 
-    //Adds a photo to the collection and updates the UI.
-    private void addPhotoToCollection(Photo photo) {
-        PhotoCollection collection = collections.get("Default");
-        if (collection == null) {
-            collection = new PhotoCollection("Default");
-            collections.put("Default", collection);
-        }
-        collection.addPhoto(photo);
-        updatePhotoNodes(photo);
+            @Override
+            public void finished() {
+                progressBar.setVisible(false);
+            }
+        });
     }
 
-    //Updates the photo nodes in the tree.
-    private void updatePhotoNodes(Photo photo) {
-        DefaultMutableTreeNode rootNode = (DefaultMutableTreeNode) ui.getTreeModel().getRoot();
-        DefaultMutableTreeNode photoNode = new DefaultMutableTreeNode(photo);
-        ui.getTreeModel().insertNodeInto(photoNode, rootNode, rootNode.getChildCount());
-        ui.getPhotoTree().updateUI();
+    //Adds a batch of loaded photos that aren't in any collection yet to Default, with one tree event.
+    //Runs on the loader thread; the catalog hands the event to the tree on the EDT.
+    private void addLoadedPhotos(List<Photo> photos) {
+        List<Photo> newPhotos = catalog.addPhotos(photos);
+        ContentHasher.hashAsync(newPhotos, false, hashes -> applyHashes(hashes, false));
     }
 
     //Styles a button with a specific color scheme.
@@ -432,69 +763,166 @@ public class EventHandler {
         label.setBackground(new Color(149, 210, 179));
     }
 
-    //Saves the photo collections to a file.
-    private void saveCollections() {
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(COLLECTIONS_FILE))) {
-            oos.writeObject(collections);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+    //Shows the loaded collections in the tree. Later edits update the tree model incrementally.
+    private void updateTree() {
+        TREE_TIMER.time(() -> {
+            ui.getTreeModel().setCollections(catalog.copyCollections());
+            ui.getPhotoTree().expandRow(0);
+            ui.getGridModel().showCollection(ui.getTreeModel().getDefaultCollection());
+        });
     }
 
-    //Loads the photo collections from a file.
-    private void loadCollections() {
-        File file = new File(COLLECTIONS_FILE);
-        if (file.exists()) {
-            try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(COLLECTIONS_FILE))) {
-                Object obj = ois.readObject();
-                if (obj instanceof Map) {
-                    collections = (Map<String, PhotoCollection>) obj;
-                } else {
-                    collections = new HashMap<>();
+    //Mirrors catalog changes in the tree and the grid. The catalog may change on any thread, so the models,
+    //which hold their own copies of the photos, are updated on the EDT.
+    private class TreeUpdater implements PhotoCatalog.Listener {
+        @Override
+        public void photosAdded(String collectionName, List<Photo> photos) {
+            List<Photo> added = new ArrayList<>(photos);
+            for (Photo photo : added) {
+                thumbnailStore.generateAsync(photo.getFilePath());
+            }
+            SwingUtilities.invokeLater(() -> {
+                ui.getTreeModel().addPhotos(collectionNamed(collectionName), added);
+                if (collectionName.equals(ui.getGridModel().getCollectionName())) {
+                    ui.getGridModel().addPhotos(added);
+                }
+            });
+        }
+
+        @Override
+        public void photosRemoved(List<Photo> photos) {
+            SwingUtilities.invokeLater(() -> {
+                ui.getTreeModel().removePhotos(photos);
+                ui.getGridModel().removePhotos(photos);
+                if (searchResults != null) {
+                    searchResults.removePhotos(photos);
+                }
+            });
+        }
+
+        //Tags aren't shown in the tree or the grid, only in the details of the selected photo.
+        @Override
+        public void photosChanged(List<Photo> photos) {
+            SwingUtilities.invokeLater(() -> {
+                Object selected = getSelectedObject();
+                if (selected instanceof Photo && photos.contains(selected)) {
+                    updatePhotoDetails((Photo) selected);
                 }
-            } catch (IOException | ClassNotFoundException e) {
-                e.printStackTrace();
-                collections = new HashMap<>();
+            });
+        }
+
+        @Override
+        public void collectionChanged(String collectionName, List<Photo> added, List<Photo> removed) {
+            SwingUtilities.invokeLater(() -> {
+                PhotoCollection collection = collectionNamed(collectionName);
+                ui.getTreeModel().addPhotos(collection, added);
+                ui.getTreeModel().removePhotos(collection, removed);
+                PhotoGridModel grid = ui.getGridModel();
+                if (collectionName.equals(grid.getCollectionName())) {
+                    grid.addPhotos(added);
+                    grid.removePhotos(removed);
+                }
+            });
+        }
+
+        @Override
+        public void photoRelocated(Photo photo, String oldPath) {
+            thumbnailStore.invalidate(oldPath);
+            SwingUtilities.invokeLater(() -> {
+                ui.getTreeModel().photoChanged(photo);
+                ui.getGridModel().photoChanged(photo);
+                if (searchResults != null) {
+                    searchResults.photoChanged(photo);
+                }
+            });
+        }
+
+        @Override
+        public void photoFileChanged(Photo photo) {
+            thumbnailStore.invalidate(photo.getFilePath());
+            previewLoader.invalidate(photo.getFilePath());
+            SwingUtilities.invokeLater(() -> {
+                ui.getTreeModel().photoChanged(photo);
+                ui.getGridModel().photoChanged(photo);
+                ui.getPhotoGrid().reloadThumbnail(photo);
+                if (searchResults != null) {
+                    searchResults.photoChanged(photo);
+                }
+            });
+        }
+
+        @Override
+        public void collectionDeleted(String collectionName) {
+            SwingUtilities.invokeLater(() -> {
+                CatalogTreeModel model = ui.getTreeModel();
+                PhotoCollection collection = model.getCollection(collectionName);
+                if (collection != null) {
+                    model.removeCollection(collection);
+                }
+                if (collectionName.equals(ui.getGridModel().getCollectionName())) {
+                    ui.getGridModel().showCollection(model.getDefaultCollection());
+                }
+            });
+        }
+
+        //The tree's collection with a name, added to the tree if it is new.
+        private PhotoCollection collectionNamed(String name) {
+            PhotoCollection collection = ui.getTreeModel().getCollection(name);
+            if (collection == null) {
+                collection = new PhotoCollection(name);
+                ui.getTreeModel().addCollection(collection);
             }
-        } else {
-            System.out.println("Collections file does not exist.");
+            return collection;
         }
     }
 
+    //Shows the results of the live search in the tree and the grid as they arrive.
+    private class SearchResultsView implements LiveSearch.Listener {
+        @Override
+        //The tree switches to the results model when a search starts; later searches empty it rather than
+        //replacing it.
+        public void started() {
+            if (searchResults == null) {
+                searchResults = new CatalogTreeModel();
+                ui.getPhotoTree().setModel(searchResults);
+            }
+            searchResults.setCollections(Collections.singletonMap(PhotoCatalog.DEFAULT_COLLECTION, new PhotoCollection("Search Results")));
+            ui.getPhotoTree().expandRow(0);
+            ui.getGridModel().showResults(Collections.emptyList());
+        }
 
-    //Updates the photo tree to reflect changes in collections.
-    private void updateTree() {
-        DefaultMutableTreeNode root = new DefaultMutableTreeNode("Default");
-
-        //Add photos to the root node
-        collections.getOrDefault("Default", new PhotoCollection("Default"))
-                .getPhotos()
-                .stream()
-                .map(DefaultMutableTreeNode::new)
-                .forEach(root::add);
-
-        //Add other collections as children of the root node
-        collections.entrySet()
-                .stream()
-                .filter(entry -> !entry.getKey().equals("Default"))
-                .forEach(entry -> {
-                    DefaultMutableTreeNode collectionNode = new DefaultMutableTreeNode(entry.getKey());
-                    entry.getValue().getPhotos()
-                            .stream()
-                            .map(DefaultMutableTreeNode::new)
-                            .forEach(collectionNode::add);
-                    root.add(collectionNode);
-                });
-
-        ui.getTreeModel().setRoot(root);
-        ui.getTreeModel().reload();  //Apply changes to the tree
-        expandAllNodes(); //Expand all nodes to show changes
-    }
-
-    //Expands all nodes in the photo tree.
-    private void expandAllNodes() {
-        for (int i = 0; i < ui.getPhotoTree().getRowCount(); i++) {
-            ui.getPhotoTree().expandRow(i);
+        @Override
+        public void resultsFound(List<Photo> photos) {
+            searchResults.addPhotos(searchResults.getDefaultCollection(), photos);
+            ui.getGridModel().addPhotos(photos);
+        }
+
+        @Override
+        public void finished(SearchFacets facets) {
+            ui.getSearchField().setToolTipText(facets.getTotal() + " photos found");
+            ui.getFacetPanel().showFacets(facets);
+            ui.getFacetPanel().setVisible(true);
+            ui.getFacetPanel().getParent().revalidate();
+        }
+
+        @Override
+        public void failed(String message, boolean explicit) {
+            ui.getSearchField().setToolTipText(message);
+            if (explicit) {
+                JOptionPane.showMessageDialog(null, message, "Error", JOptionPane.ERROR_MESSAGE);
+            }
+        }
+
+        @Override
+        public void cleared() {
+            searchResults = null;
+            ui.getSearchField().setToolTipText(null);
+            ui.getFacetPanel().clear();
+            ui.getFacetPanel().setVisible(false);
+            ui.getFacetPanel().getParent().revalidate();
+            ui.getPhotoTree().setModel(ui.getTreeModel());
+            ui.getPhotoTree().expandRow(0);
+            ui.getGridModel().showCollection(ui.getTreeModel().getDefaultCollection());
         }
     }
 }
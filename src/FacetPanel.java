@@ -0,0 +1,90 @@
+import javax.swing.*;
+import javax.swing.tree.DefaultMutableTreeNode;
+import javax.swing.tree.DefaultTreeModel;
+import javax.swing.tree.TreePath;
+import java.awt.*;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.util.List;
+
+//Shows the facet counts of the search results: the most common tags, years with their months, and
+//collections. Clicking a facet drills down into it.
+public class FacetPanel extends JPanel {
+    public interface Listener {
+        void facetSelected(SearchFacets.Facet facet);
+    }
+
+    private final DefaultMutableTreeNode root = new DefaultMutableTreeNode();
+    private final DefaultTreeModel model = new DefaultTreeModel(root);
+    private final JTree tree = new JTree(model);
+    private final JLabel totalLabel = new JLabel();
+    private Listener listener;
+
+    public FacetPanel() {
+        super(new BorderLayout());
+        tree.setRootVisible(false);
+        tree.setShowsRootHandles(true);
+        tree.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                TreePath path = tree.getPathForLocation(e.getX(), e.getY());
+                Object node = path == null ? null : ((DefaultMutableTreeNode) path.getLastPathComponent()).getUserObject();
+                if (node instanceof SearchFacets.Facet && listener != null) {
+                    listener.facetSelected((SearchFacets.Facet) node);
+                }
+            }
+        });
+        totalLabel.setBorder(BorderFactory.createEmptyBorder(4, 4, 4, 4));
+        add(totalLabel, BorderLayout.NORTH);
+        add(new JScrollPane(tree), BorderLayout.CENTER);
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public JTree getTree() {
+        return tree;
+    }
+
+    //Shows the facets of new results, with the groups open and the years closed.
+    public void showFacets(SearchFacets facets) {
+        totalLabel.setText(facets.getTotal() + " photos");
+        root.removeAllChildren();
+        addGroup("Tags", facets.getTags());
+        addGroup("Dates", facets.getYears());
+        addGroup("Collections", facets.getCollections());
+        model.reload();
+        for (int row = 0; row < tree.getRowCount(); row++) {
+            Object node = ((DefaultMutableTreeNode) tree.getPathForRow(row).getLastPathComponent()).getUserObject();
+            if (node instanceof String) {
+                tree.expandRow(row);
+            }
+        }
+    }
+
+    public void clear() {
+        totalLabel.setText(null);
+        root.removeAllChildren();
+        model.reload();
+    }
+
+    private void addGroup(String name, List<SearchFacets.Facet> facets) {
+        if (facets.isEmpty()) {
+            return;
+        }
+        DefaultMutableTreeNode group = new DefaultMutableTreeNode(name);
+        for (SearchFacets.Facet facet : facets) {
+            group.add(facetNode(facet));
+        }
+        root.add(group);
+    }
+
+    private static DefaultMutableTreeNode facetNode(SearchFacets.Facet facet) {
+        DefaultMutableTreeNode node = new DefaultMutableTreeNode(facet);
+        for (SearchFacets.Facet child : facet.getChildren()) {
+            node.add(facetNode(child));
+        }
+        return node;
+    }
+}
@@ -0,0 +1,166 @@
+import javax.swing.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+//Runs the search bar query as it is typed. Input is debounced, queries run on a worker thread, and a query
+//still running when the next one starts is cancelled and its results dropped. When the new query narrows
+//the last completed one and the catalog hasn't changed since, its results are filtered instead of
+//searching the whole catalog again. Results are handed over in chunks as they are found: the candidates
+//the indexes leave are checked a chunk at a time, with cancellation checked in between, so the first ones
+//show while the rest are still being checked. The facet counts of the results come with the end of the search.
+public class LiveSearch {
+    private static final int DEBOUNCE_MILLIS = 200;
+    private static final int CHUNK_SIZE = 500;
+
+    //Callbacks, all made on the EDT. Every search calls started, then resultsFound any number of times,
+    //then finished or failed; a search that is superseded stops calling back.
+    public interface Listener {
+        void started();
+
+        void resultsFound(List<Photo> photos);
+
+        void finished(SearchFacets facets);
+
+        //Explicit is true for searches run with searchNow, whose errors should be reported to the user.
+        void failed(String message, boolean explicit);
+
+        //The query was cleared.
+        void cleared();
+    }
+
+    private final PhotoCatalog catalog;
+    private final Listener listener;
+    private final Timer debounce;
+    private String pendingText;
+    private String pendingCriteria;
+    private SearchWorker running;
+    private Completed lastCompleted;
+
+    public LiveSearch(PhotoCatalog catalog, Listener listener) {
+        this.catalog = catalog;
+        this.listener = listener;
+        debounce = new Timer(DEBOUNCE_MILLIS, e -> start(pendingText, pendingCriteria, false));
+        debounce.setRepeats(false);
+    }
+
+    //Searches once the input has been left alone for DEBOUNCE_MILLIS.
+    public void queryChanged(String text, String criteria) {
+        pendingText = text;
+        pendingCriteria = criteria;
+        debounce.restart();
+    }
+
+    //Searches at once, e.g. for the Search button.
+    public void searchNow(String text, String criteria) {
+        debounce.stop();
+        start(text, criteria, true);
+    }
+
+    private void start(String text, String criteria, boolean explicit) {
+        if (running != null) {
+            running.cancel(true);
+            running = null;
+        }
+        if (text.trim().isEmpty()) {
+            listener.cleared();
+            return;
+        }
+        running = new SearchWorker(text, criteria, explicit, lastCompleted);
+        listener.started();
+        running.execute();
+    }
+
+    //The results of the last search that ran to the end, and the catalog version they were found in.
+    private static class Completed {
+        final SearchQuery query;
+        final long version;
+        final List<Photo> photos;
+        final SearchFacets facets;
+
+        Completed(SearchQuery query, long version, List<Photo> photos, SearchFacets facets) {
+            this.query = query;
+            this.version = version;
+            this.photos = photos;
+            this.facets = facets;
+        }
+    }
+
+    private class SearchWorker extends SwingWorker<Completed, List<Photo>> {
+        private final String text;
+        private final String criteria;
+        private final boolean explicit;
+        private final Completed previous;
+        private int delivered; //Results passed to the listener so far, counted on the EDT
+
+        SearchWorker(String text, String criteria, boolean explicit, Completed previous) {
+            this.text = text;
+            this.criteria = criteria;
+            this.explicit = explicit;
+            this.previous = previous;
+        }
+
+        @Override
+        protected Completed doInBackground() {
+            SearchQuery query = SearchQuery.compile(text, criteria);
+            long version = catalog.getVersion();
+            if (previous != null && previous.version == version && query.narrows(previous.query)) {
+                List<Photo> found = new ArrayList<>();
+                for (int start = 0; start < previous.photos.size(); start += CHUNK_SIZE) {
+                    if (isCancelled()) {
+                        return null;
+                    }
+                    List<Photo> chunk = catalog.filter(query, previous.photos.subList(start, Math.min(start + CHUNK_SIZE, previous.photos.size())));
+                    found.addAll(chunk);
+                    publish(chunk);
+                }
+                return new Completed(query, version, found, catalog.facets(found));
+            }
+            SearchResults results = catalog.searchInSlices(text, criteria, CHUNK_SIZE, chunk -> {
+                if (!chunk.isEmpty()) {
+                    publish(chunk);
+                }
+                return !isCancelled();
+            });
+            return results == null ? null : new Completed(query, version, results.getPhotos(), results.getFacets());
+        }
+
+        @Override
+        protected void process(List<List<Photo>> chunks) {
+            if (running != this) {
+                return;
+            }
+            for (List<Photo> chunk : chunks) {
+                if (!chunk.isEmpty()) {
+                    delivered += chunk.size();
+                    listener.resultsFound(chunk);
+                }
+            }
+        }
+
+        //Chunks can still be queued for process when done runs; whatever hasn't been delivered yet is passed on here.
+        @Override
+        protected void done() {
+            if (running != this || isCancelled()) {
+                return;
+            }
+            running = null;
+            try {
+                lastCompleted = get();
+                List<Photo> rest = lastCompleted.photos.subList(delivered, lastCompleted.photos.size());
+                if (!rest.isEmpty()) {
+                    listener.resultsFound(new ArrayList<>(rest));
+                }
+                listener.finished(lastCompleted.facets);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (!(cause instanceof IllegalArgumentException)) {
+                    cause.printStackTrace();
+                }
+                listener.failed(cause.getMessage(), explicit);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
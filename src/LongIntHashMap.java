@@ -0,0 +1,126 @@
+import java.util.Arrays;
+
+//Map from long keys to int values in two parallel open-addressing arrays, without boxing. Key 0 is reserved
+//as the empty marker, which is why photo ids are never 0. Removal shifts later entries back into the freed
+//slot, so lookups never have to skip over deleted entries.
+public class LongIntHashMap {
+    //Returned by get and remove for a key that isn't in the map.
+    public static final int MISSING = -1;
+
+    private long[] keys;
+    private int[] values;
+    private int size;
+
+    public LongIntHashMap() {
+        this(16);
+    }
+
+    public LongIntHashMap(int expectedSize) {
+        keys = new long[tableSizeFor(expectedSize)];
+        values = new int[keys.length];
+    }
+
+    public boolean containsKey(long key) {
+        return key != 0 && keys[find(keys, key)] == key;
+    }
+
+    //Returns the value stored for the key, or MISSING.
+    public int get(long key) {
+        if (key == 0) {
+            return MISSING;
+        }
+        int slot = find(keys, key);
+        return keys[slot] == key ? values[slot] : MISSING;
+    }
+
+    //Stores a value for the key and returns the one it replaced, or MISSING.
+    public int put(long key, int value) {
+        if (key == 0) {
+            throw new IllegalArgumentException("0 can't be stored in a LongIntHashMap");
+        }
+        int slot = find(keys, key);
+        if (keys[slot] == key) {
+            int old = values[slot];
+            values[slot] = value;
+            return old;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size * 2 > keys.length) {
+            resize(keys.length * 2);
+        }
+        return MISSING;
+    }
+
+    //Returns the value the key had, or MISSING if it wasn't present.
+    public int remove(long key) {
+        if (key == 0) {
+            return MISSING;
+        }
+        int slot = find(keys, key);
+        if (keys[slot] != key) {
+            return MISSING;
+        }
+        int value = values[slot];
+        int mask = keys.length - 1;
+        int free = slot;
+        for (int next = (free + 1) & mask; keys[next] != 0; next = (next + 1) & mask) {
+            //Move an entry back if its home slot doesn't lie cyclically between the hole and its position
+            int home = hash(keys[next]) & mask;
+            if (((next - home) & mask) >= ((next - free) & mask)) {
+                keys[free] = keys[next];
+                values[free] = values[next];
+                free = next;
+            }
+        }
+        keys[free] = 0;
+        size--;
+        return value;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, 0);
+        size = 0;
+    }
+
+    //Slot holding the key, or the empty slot where it would go.
+    private static int find(long[] keys, long key) {
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (keys[slot] != 0 && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void resize(int capacity) {
+        long[] resizedKeys = new long[capacity];
+        int[] resizedValues = new int[capacity];
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != 0) {
+                int slot = find(resizedKeys, keys[i]);
+                resizedKeys[slot] = keys[i];
+                resizedValues[slot] = values[i];
+            }
+        }
+        keys = resizedKeys;
+        values = resizedValues;
+    }
+
+    private static int hash(long key) {
+        long mixed = key * 0x9e3779b97f4a7c15L;
+        return (int) (mixed ^ (mixed >>> 32));
+    }
+
+    private static int tableSizeFor(int expectedSize) {
+        int capacity = 16;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+}
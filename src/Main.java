@@ -28,10 +28,14 @@
 
 import javax.swing.*;
 import java.awt.*;
+import java.io.File;
 
 //Main application class for the Photo Manager.
 //Sets up the main frame and initializes UI components.
 public class Main extends JFrame {
+    private static final String METRICS_FILE = "metrics.csv";
+    private static final long METRICS_PERIOD_SECONDS = 60;
+
     private UserInterface userInterface;
     private EventHandler eventHandler;
     private ContextMenu contextMenu;
@@ -54,14 +58,15 @@ public class Main extends JFrame {
         add(userInterface.getTopPanel(), BorderLayout.NORTH);
         add(userInterface.getSplitPane(), BorderLayout.CENTER);
 
-        //Add event listeners and load photos
+        //Add event listeners, then show the window while the catalog loads
         eventHandler.addEventListeners();
-        eventHandler.loadPhotos();
+        eventHandler.loadCatalog();
 
         setVisible(true);
     }
 
     public static void main(String[] args) {
+        Metrics.startReporting(new File(METRICS_FILE), METRICS_PERIOD_SECONDS); //Timings of catalog operations, also over JMX
         SwingUtilities.invokeLater(() -> new Main());
     }
 }
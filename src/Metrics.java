@@ -0,0 +1,319 @@
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+//Lightweight metrics for catalog operations: counters, and timers keeping a latency histogram, a failure
+//count and, where the JVM supports it, the bytes allocated by the timed thread. Recording is lock-free and
+//allocation-free. Every metric is registered as an MXBean under "photomanager:type=Timer|Counter,name=...",
+//and startReporting appends all of them to a CSV file periodically.
+public class Metrics {
+    private static final Map<String, Timer> timers = new ConcurrentSkipListMap<>();
+    private static final Map<String, Counter> counters = new ConcurrentSkipListMap<>();
+    private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private static final boolean allocationSupported = allocationSupported();
+    private static final DateTimeFormatter TIMESTAMP = DateTimeFormatter.ISO_LOCAL_DATE_TIME;
+
+    private Metrics() {
+    }
+
+    public static Timer timer(String name) {
+        return timers.computeIfAbsent(name, key -> register("Timer", key, new Timer(key)));
+    }
+
+    public static Counter counter(String name) {
+        return counters.computeIfAbsent(name, key -> register("Counter", key, new Counter()));
+    }
+
+    //Appends every metric to a CSV file every periodSeconds, and once more when the application exits.
+    public static void startReporting(File file, long periodSeconds) {
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics-reporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reporter.scheduleAtFixedRate(() -> report(file), periodSeconds, periodSeconds, TimeUnit.SECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> report(file)));
+    }
+
+    //One row per metric. Latencies are in milliseconds; interval max is the longest call since the previous row.
+    static synchronized void report(File file) {
+        boolean header = !file.exists() || file.length() == 0;
+        try (PrintWriter out = new PrintWriter(new FileWriter(file, true))) {
+            if (header) {
+                out.println("time,metric,count,failures,mean_ms,p50_ms,p95_ms,p99_ms,max_ms,interval_max_ms,allocated_bytes_per_call");
+            }
+            String time = LocalDateTime.now().format(TIMESTAMP);
+            for (Timer timer : timers.values()) {
+                out.println(String.format(Locale.ROOT, "%s,%s,%d,%d,%.3f,%.3f,%.3f,%.3f,%.3f,%.3f,%d", time, timer.name,
+                        timer.getCount(), timer.getFailures(), timer.getMeanMillis(), timer.getP50Millis(), timer.getP95Millis(),
+                        timer.getP99Millis(), timer.getMaxMillis(), millis(timer.intervalMax.getThenReset()), timer.getAllocatedBytesPerCall()));
+            }
+            for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+                out.println(time + "," + entry.getKey() + "," + entry.getValue().getCount() + ",,,,,,,,");
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static <T> T register(String type, String name, T metric) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metric, new ObjectName("photomanager:type=" + type + ",name=" + name));
+        } catch (JMException e) {
+            e.printStackTrace(); //Still recorded and reported, just not visible over JMX
+        }
+        return metric;
+    }
+
+    private static boolean allocationSupported() {
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return false;
+        }
+        com.sun.management.ThreadMXBean sunThreads = (com.sun.management.ThreadMXBean) threads;
+        return sunThreads.isThreadAllocatedMemorySupported() && sunThreads.isThreadAllocatedMemoryEnabled();
+    }
+
+    private static long allocatedBytes() {
+        return allocationSupported ? ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId()) : 0;
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    public interface CounterMXBean {
+        long getCount();
+    }
+
+    public static class Counter implements CounterMXBean {
+        private final LongAdder count = new LongAdder();
+
+        public void increment() {
+            count.increment();
+        }
+
+        public void add(long amount) {
+            count.add(amount);
+        }
+
+        @Override
+        public long getCount() {
+            return count.sum();
+        }
+    }
+
+    public interface TimerMXBean {
+        long getCount();
+
+        long getFailures();
+
+        double getMeanMillis();
+
+        double getP50Millis();
+
+        double getP95Millis();
+
+        double getP99Millis();
+
+        double getMaxMillis();
+
+        long getAllocatedBytesPerCall();
+    }
+
+    //Latencies go into buckets of 8 per power of two of nanoseconds, so percentiles are within 12.5% and
+    //the histogram is a fixed array of counts whatever the number of calls.
+    public static class Timer implements TimerMXBean {
+        private static final int SUB_BITS = 3;
+        private static final int BUCKETS = (64 - SUB_BITS) << SUB_BITS;
+
+        private final String name;
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAdder allocated = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+        private final LongAccumulator intervalMax = new LongAccumulator(Math::max, 0);
+
+        Timer(String name) {
+            this.name = name;
+        }
+
+        //Starts timing a call on this thread; close the sample when the call is over.
+        public Sample start() {
+            return new Sample(this, System.nanoTime(), allocatedBytes());
+        }
+
+        //Times a call on this thread and returns its result.
+        public <T, E extends Exception> T time(Call<T, E> call) throws E {
+            Sample sample = start();
+            try {
+                return call.call();
+            } finally {
+                sample.close();
+            }
+        }
+
+        //Times a call on this thread that returns nothing.
+        public <E extends Exception> void time(Task<E> task) throws E {
+            Sample sample = start();
+            try {
+                task.run();
+            } finally {
+                sample.close();
+            }
+        }
+
+        //Records a call timed elsewhere, e.g. one that completes on another thread.
+        public void record(long nanos) {
+            record(nanos, 0);
+        }
+
+        private void record(long nanos, long allocatedBytes) {
+            buckets.incrementAndGet(bucket(nanos));
+            count.increment();
+            totalNanos.add(nanos);
+            allocated.add(allocatedBytes);
+            max.accumulate(nanos);
+            intervalMax.accumulate(nanos);
+        }
+
+        //Counts a failed call and prints its stack trace.
+        public void failed(Throwable e) {
+            failures.increment();
+            e.printStackTrace();
+        }
+
+        @Override
+        public long getCount() {
+            return count.sum();
+        }
+
+        @Override
+        public long getFailures() {
+            return failures.sum();
+        }
+
+        @Override
+        public double getMeanMillis() {
+            long calls = count.sum();
+            return calls == 0 ? 0 : millis(totalNanos.sum() / calls);
+        }
+
+        @Override
+        public double getP50Millis() {
+            return millis(percentile(0.50));
+        }
+
+        @Override
+        public double getP95Millis() {
+            return millis(percentile(0.95));
+        }
+
+        @Override
+        public double getP99Millis() {
+            return millis(percentile(0.99));
+        }
+
+        @Override
+        public double getMaxMillis() {
+            return millis(max.get());
+        }
+
+        @Override
+        public long getAllocatedBytesPerCall() {
+            long calls = count.sum();
+            return calls == 0 ? 0 : allocated.sum() / calls;
+        }
+
+        //Upper bound of the bucket holding the given fraction of the calls.
+        long percentile(double fraction) {
+            long[] counts = new long[BUCKETS];
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = buckets.get(i);
+                total += counts[i];
+            }
+            long rank = (long) Math.ceil(fraction * total);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank && seen > 0) {
+                    return Math.min(upperBound(i), max.get());
+                }
+            }
+            return 0;
+        }
+
+        static int bucket(long nanos) {
+            if (nanos < (1 << SUB_BITS)) {
+                return (int) Math.max(nanos, 0);
+            }
+            int magnitude = 63 - Long.numberOfLeadingZeros(nanos);
+            int sub = (int) (nanos >>> (magnitude - SUB_BITS)) & ((1 << SUB_BITS) - 1);
+            return ((magnitude - SUB_BITS + 1) << SUB_BITS) + sub;
+        }
+
+        static long upperBound(int bucket) {
+            if (bucket < (1 << SUB_BITS)) {
+                return bucket;
+            }
+            int magnitude = (bucket >> SUB_BITS) + SUB_BITS - 1;
+            int sub = bucket & ((1 << SUB_BITS) - 1);
+            return ((long) ((1 << SUB_BITS) + sub + 1) << (magnitude - SUB_BITS)) - 1;
+        }
+    }
+
+    //A call timed by Timer.time, which may throw a checked exception.
+    public interface Call<T, E extends Exception> {
+        T call() throws E;
+    }
+
+    //A call timed by Timer.time that returns nothing.
+    public interface Task<E extends Exception> {
+        void run() throws E;
+    }
+
+    //One timed call. Closing it records the time since start and what the thread allocated meanwhile.
+    public static class Sample implements AutoCloseable {
+        private final Timer timer;
+        private final long startNanos;
+        private final long startAllocated;
+
+        Sample(Timer timer, long startNanos, long startAllocated) {
+            this.timer = timer;
+            this.startNanos = startNanos;
+            this.startAllocated = startAllocated;
+        }
+
+        @Override
+        public void close() {
+            timer.record(System.nanoTime() - startNanos, allocationSupported ? allocatedBytes() - startAllocated : 0);
+        }
+    }
+
+    //Names of the metrics recorded so far, timers first.
+    static List<String> names() {
+        List<String> names = new ArrayList<>(timers.keySet());
+        names.addAll(counters.keySet());
+        return names;
+    }
+}
@@ -1,49 +1,230 @@
-import java.io.Serializable;
-import java.util.Date;
-import java.util.HashSet;
-import java.util.Set;
+import java.io.*;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
 
 public class Photo implements Serializable {
+    private static final long serialVersionUID = -906032759710967190L;
+    private static final int[] NO_TAGS = new int[0];
+    //Tag ids only mean something within one run, so the serialized form keeps tags as strings
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("id", long.class),
+            new ObjectStreamField("title", String.class),
+            new ObjectStreamField("tags", Set.class),
+            new ObjectStreamField("description", String.class),
+            new ObjectStreamField("epochDay", long.class),
+            new ObjectStreamField("filePath", String.class)
+    };
+
+    private long id; //Stable identity, never 0
     private String title;
-    private Set<String> tags;
-    private String description;
-    private Date date;
-    private String filePath;
+    private int[] tagIds = NO_TAGS; //TagDictionary ids, sorted
+    private String description; //Null while the description is left in the store
+    private PhotoStore store;
+    private int storeOffset;
+    private long epochDay;
+    //These change after the photo is in the catalog, on whichever thread changed the catalog
+    private volatile String filePath;
+    private volatile String contentHash; //SHA-256 of the file, hex; null until hashed
+    private volatile long perceptualHash; //dHash of the image; 0 until hashed
+    private volatile boolean missing; //The file was seen to disappear; not stored
+
+    public Photo(String title, String description, LocalDate date, String filePath) {
+        this(newId(), title, description, date, filePath);
+    }
 
-    public Photo(String title, String description, Date date, String filePath) {
+    //Recreates a stored photo with the id it was given when first added.
+    public Photo(long id, String title, String description, LocalDate date, String filePath) {
+        this.id = id;
         this.title = title;
         this.description = description;
-        this.date = date;
+        this.epochDay = date.toEpochDay();
         this.filePath = filePath;
-        this.tags = new HashSet<>();
     }
 
+    //Recreates a photo read from the snapshot, leaving its description in the store until it is asked for.
+    Photo(long id, String title, PhotoStore store, int storeOffset, LocalDate date, String filePath) {
+        this(id, title, null, date, filePath);
+        this.store = store;
+        this.storeOffset = storeOffset;
+    }
+
+    //Random 64-bit ids don't need a shared counter, so photos can be created anywhere without coordination.
+    public static long newId() {
+        long id;
+        do {
+            id = ThreadLocalRandom.current().nextLong();
+        } while (id == 0);
+        return id;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    //Adds a tag, normalized by TagDictionary. Blank and repeated tags are ignored.
     public void addTag(String tag) {
-        tags.add(tag);
+        tagIds = withTag(tagIds, tag);
+    }
+
+    //Removes a tag, normalized by TagDictionary. Returns false if the photo didn't have it.
+    public boolean removeTag(String tag) {
+        int[] removed = withoutTag(tagIds, tag);
+        if (removed == tagIds) {
+            return false;
+        }
+        tagIds = removed;
+        return true;
+    }
+
+    //Sorted tag ids with a tag added, e.g. to work out an edit before making it. Returns the same array
+    //if the tag is blank or already there.
+    static int[] withTag(int[] tagIds, String tag) {
+        int tagId = TagDictionary.idOf(tag);
+        if (tagId < 0) {
+            return tagIds;
+        }
+        int position = Arrays.binarySearch(tagIds, tagId);
+        if (position >= 0) {
+            return tagIds;
+        }
+        int insert = -position - 1;
+        int[] added = new int[tagIds.length + 1];
+        System.arraycopy(tagIds, 0, added, 0, insert);
+        added[insert] = tagId;
+        System.arraycopy(tagIds, insert, added, insert + 1, tagIds.length - insert);
+        return added;
+    }
+
+    //Sorted tag ids without a tag. Returns the same array if the tag isn't there.
+    static int[] withoutTag(int[] tagIds, String tag) {
+        int position = Arrays.binarySearch(tagIds, TagDictionary.find(tag));
+        if (position < 0) {
+            return tagIds;
+        }
+        int[] removed = new int[tagIds.length - 1];
+        System.arraycopy(tagIds, 0, removed, 0, position);
+        System.arraycopy(tagIds, position + 1, removed, position, removed.length - position);
+        return removed;
+    }
+
+    public boolean hasTag(int tagId) {
+        return Arrays.binarySearch(tagIds, tagId) >= 0;
+    }
+
+    //The photo's tag ids in ascending order. The array is shared, not copied: don't modify it.
+    public int[] getTagIds() {
+        return tagIds;
+    }
+
+    //Replaces the tags with sorted tag ids, e.g. worked out with withTag and withoutTag.
+    void setTagIds(int[] tagIds) {
+        this.tagIds = tagIds;
     }
 
     public String getTitle() {
         return title;
     }
 
+    //Photos loaded from the snapshot read their description back from it, through the store's cache.
     public String getDescription() {
-        return description;
+        return store == null ? description : store.description(storeOffset);
     }
 
-    public Date getDate() {
-        return date;
+    public LocalDate getDate() {
+        return LocalDate.ofEpochDay(epochDay);
+    }
+
+    //Date as days since 1970-01-01, for comparisons that shouldn't allocate.
+    public long getEpochDay() {
+        return epochDay;
     }
 
     public String getFilePath() {
         return filePath;
     }
 
-    public Set<String> getTags() {
+    //The photo's tags as strings, looked up in TagDictionary on every call.
+    public List<String> getTags() {
+        List<String> tags = new ArrayList<>(tagIds.length);
+        for (int tagId : tagIds) {
+            tags.add(TagDictionary.name(tagId));
+        }
         return tags;
     }
 
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    public void setContentHash(String contentHash) {
+        this.contentHash = contentHash;
+    }
+
+    public long getPerceptualHash() {
+        return perceptualHash;
+    }
+
+    public void setPerceptualHash(long perceptualHash) {
+        this.perceptualHash = perceptualHash;
+    }
+
+    //Points the photo at its file's new location after it was moved on disk.
+    public void setFilePath(String filePath) {
+        this.filePath = filePath;
+    }
+
+    //True while the photo's file is known to be gone, e.g. moved or deleted outside the application.
+    //The photo stays in the catalog as a tombstone, so it can be found again by content hash.
+    public boolean isMissing() {
+        return missing;
+    }
+
+    public void setMissing(boolean missing) {
+        this.missing = missing;
+    }
+
     @Override
     public String toString() {
-        return filePath;
+        return missing ? filePath + " (missing)" : filePath;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("id", id);
+        fields.put("title", title);
+        fields.put("tags", new HashSet<>(getTags()));
+        fields.put("description", getDescription());
+        fields.put("epochDay", epochDay);
+        fields.put("filePath", filePath);
+        out.writeFields();
+    }
+
+    //Photos saved before dates were stored as epoch days carry a java.util.Date field instead,
+    //and photos saved before ids existed are given one.
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        title = (String) fields.get("title", null);
+        tagIds = NO_TAGS;
+        Set<String> tags = (Set<String>) fields.get("tags", null);
+        if (tags != null) {
+            for (String tag : tags) {
+                addTag(tag);
+            }
+        }
+        description = (String) fields.get("description", null);
+        filePath = (String) fields.get("filePath", null);
+        if (fields.getObjectStreamClass().getField("date") != null) {
+            Date legacyDate = (Date) fields.get("date", null);
+            epochDay = legacyDate.toInstant().atZone(ZoneId.systemDefault()).toLocalDate().toEpochDay();
+        } else {
+            epochDay = fields.get("epochDay", 0L);
+        }
+        id = fields.get("id", 0L);
+        if (id == 0) {
+            id = newId();
+        }
     }
 }
@@ -0,0 +1,1057 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+
+//The photo catalog without any user interface: collections, search and duplicate indexes, the per-photo
+//files and the journal. Safe to use from any thread: changes take a write lock, queries a read lock, and
+//queries return copies rather than live views, so every query sees the catalog between two changes.
+//Bulk additions are applied in batches of WRITE_BATCH, each under its own write lock, so a large import
+//running in the background holds up searches for one batch at a time rather than until it is done.
+//A photo can be in any number of collections. Default holds exactly the photos that are in no other one:
+//filing a photo takes it out of Default, and a photo that leaves its last collection goes back to it.
+//Membership changes of many photos at once, like merging two collections, are a single change with
+//one journal record and one event per collection affected. Such changes can be worked out in steps under
+//the read lock, with their progress reported and a chance to cancel after each one, and are then made under
+//a short write lock; see Progress.
+//The Swing UI and the command line are both clients of it.
+public class PhotoCatalog implements Closeable {
+    public static final String DEFAULT_COLLECTION = "Default";
+    private static final int WRITE_BATCH = 500;
+    private static final int EDIT_STEP = 500;
+    private static final Metrics.Timer LOAD_TIMER = Metrics.timer("catalog.load");
+    private static final Metrics.Timer SAVE_TIMER = Metrics.timer("catalog.save");
+    private static final Metrics.Timer SEARCH_TIMER = Metrics.timer("catalog.search");
+    private static final Metrics.Timer FACETS_TIMER = Metrics.timer("catalog.facets");
+
+    //Told how far a change made in steps has got, after each step, with the read lock held: queries go on,
+    //other changes wait. Returning false cancels the change, which was only being worked out, so the catalog
+    //is left as it was; once the last step is done and progress returns true, the change is made whole.
+    //Nothing else sees the steps: the change still has one journal record, and listeners hear about it only
+    //once it is made.
+    public interface Progress {
+        Progress NONE = (done, total) -> true;
+
+        boolean step(int done, int total);
+    }
+
+    //Told about every change, on the thread that made it while the catalog is still locked, so events
+    //arrive in order. Listeners must return quickly and must not change the catalog.
+    public interface Listener {
+        void photosAdded(String collectionName, List<Photo> photos);
+
+        void photosRemoved(List<Photo> photos);
+
+        //The details of photos, e.g. their tags, were edited.
+        void photosChanged(List<Photo> photos);
+
+        //Photos already in the catalog joined or left a collection; a collection that gains its first photo is new.
+        void collectionChanged(String collectionName, List<Photo> added, List<Photo> removed);
+
+        void photoRelocated(Photo photo, String oldPath);
+
+        //The photo's file went missing, came back or was changed on disk.
+        void photoFileChanged(Photo photo);
+
+        //The collection is gone; photos left in no other collection were moved to Default beforehand.
+        void collectionDeleted(String collectionName);
+    }
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, PhotoCollection> collections = new HashMap<>();
+    private final Map<String, Photo> photosByPath = new HashMap<>();
+    private final SearchIndex searchIndex = new SearchIndex();
+    private final DuplicateIndex duplicateIndex = new DuplicateIndex();
+    private final CatalogJournal journal;
+    private final File photosDirectory;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final Set<Photo> unsavedPhotos = Collections.newSetFromMap(new IdentityHashMap<>()); //Photo files not written yet
+    private volatile long version; //Bumped by every change that can affect search results
+
+    //A catalog kept in a directory: collections.dat, collections.journal and the photos/ folder.
+    public PhotoCatalog(File directory) {
+        journal = new CatalogJournal(new File(directory, "collections.dat"), new File(directory, "collections.journal"));
+        photosDirectory = new File(directory, "photos");
+        journal.onCompacted(this::savePhotoFiles);
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    //Persistence
+
+    //Loads the collections from the snapshot and journal and indexes them.
+    public void load() {
+        lock.writeLock().lock();
+        Metrics.Sample sample = LOAD_TIMER.start();
+        try {
+            collections.clear();
+            collections.putAll(journal.load());
+            collections.computeIfAbsent(DEFAULT_COLLECTION, PhotoCollection::new);
+            version++;
+            photosByPath.clear();
+            searchIndex.clear();
+            duplicateIndex.clear();
+            unsavedPhotos.clear();
+            for (PhotoCollection collection : collections.values()) {
+                for (Photo photo : collection.getPhotos()) {
+                    index(photo);
+                    searchIndex.addToCollection(collection.getName(), photo);
+                }
+            }
+            //Older versions could leave a photo in Default as well as in the collection it was filed in
+            List<Photo> filed = new ArrayList<>();
+            for (Photo photo : collections.get(DEFAULT_COLLECTION).getPhotos()) {
+                if (!isUnfiled(photo, DEFAULT_COLLECTION)) {
+                    filed.add(photo);
+                }
+            }
+            if (!filed.isEmpty()) {
+                journal.removedFromCollection(DEFAULT_COLLECTION, leave(DEFAULT_COLLECTION, filed));
+            }
+        } finally {
+            sample.close();
+            lock.writeLock().unlock();
+        }
+    }
+
+    //Writes the whole catalog to the snapshot now instead of waiting for the next compaction.
+    public void save() throws IOException {
+        savePhotoFiles();
+        SAVE_TIMER.time(journal::checkpoint);
+    }
+
+    //Writes out pending changes. The catalog can't be changed afterwards.
+    @Override
+    public void close() {
+        savePhotoFiles();
+        journal.close();
+    }
+
+    //Changes
+
+    //Adds a photo to Default and writes its photo file. Returns false if a photo with that path is already in the catalog.
+    public boolean addPhoto(Photo photo) {
+        lock.writeLock().lock();
+        try {
+            if (photosByPath.containsKey(photo.getFilePath())) {
+                return false;
+            }
+            index(photo);
+            addToDefault(Collections.singletonList(photo));
+            journal.photoAdded(DEFAULT_COLLECTION, photo);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        savePhotoFile(photo);
+        return true;
+    }
+
+    //Adds the photos whose paths aren't in the catalog yet to Default, with one journal record per batch, and returns them.
+    //Their photo files are written later; see savePhotoFiles.
+    public List<Photo> addPhotos(List<Photo> photos) {
+        List<Photo> added = new ArrayList<>();
+        for (int start = 0; start < photos.size(); start += WRITE_BATCH) {
+            added.addAll(addBatch(photos.subList(start, Math.min(start + WRITE_BATCH, photos.size()))));
+        }
+        return added;
+    }
+
+    //Adds imported photos to Default and returns the ones added. Copies of photos already in the catalog
+    //are skipped, unless the original file is gone: then the photo was moved, and the catalog entry follows
+    //it. Near-duplicates are added. Every copy, move and near-duplicate is described in notes.
+    public List<Photo> importPhotos(List<Photo> photos, List<String> notes) {
+        List<Photo> imported = new ArrayList<>();
+        for (int start = 0; start < photos.size(); start += WRITE_BATCH) {
+            List<Photo> relocated = new ArrayList<>();
+            imported.addAll(importBatch(photos.subList(start, Math.min(start + WRITE_BATCH, photos.size())), notes, relocated));
+            for (Photo photo : relocated) {
+                savePhotoFile(photo); //Its file still names the old path
+            }
+        }
+        return imported;
+    }
+
+    //Removes a photo from every collection and deletes its photo file. Returns false if it wasn't in the catalog.
+    public boolean removePhoto(Photo photo) {
+        return !removePhotos(Collections.singletonList(photo)).isEmpty();
+    }
+
+    //Removes photos from every collection as a single change and returns the ones that were in the catalog.
+    //Their photo files are deleted once the catalog is unlocked.
+    public List<Photo> removePhotos(Collection<Photo> photos) {
+        return removePhotos(photos, Progress.NONE);
+    }
+
+    //Same, in steps; returns an empty list if progress cancels it. The collections each photo is in are
+    //found in the steps, so the change itself only has to take the photos out.
+    public List<Photo> removePhotos(Collection<Photo> photos, Progress progress) {
+        List<Photo> removed = change(progress, stepProgress -> {
+            Plan plan = new Plan();
+            boolean done = inSteps(photos, stepProgress, step -> {
+                for (Photo photo : step) {
+                    if (!isInCatalog(photo) || !plan.seen.add(photo)) {
+                        continue;
+                    }
+                    plan.photos.add(photo);
+                    for (PhotoCollection collection : collections.values()) {
+                        if (collection.contains(photo)) {
+                            plan.leaving.computeIfAbsent(collection, c -> new ArrayList<>()).add(photo);
+                        }
+                    }
+                }
+            });
+            return done && !plan.photos.isEmpty() ? plan : null;
+        }, plan -> {
+            for (Map.Entry<PhotoCollection, List<Photo>> entry : plan.leaving.entrySet()) {
+                entry.getKey().removePhotos(entry.getValue());
+            }
+            for (Photo photo : plan.photos) {
+                photosByPath.remove(photo.getFilePath());
+                duplicateIndex.remove(photo);
+                unsavedPhotos.remove(photo);
+            }
+            searchIndex.removeAll(plan.photos);
+            version++;
+            journal.photosRemoved(plan.photos);
+            for (Listener listener : listeners) {
+                listener.photosRemoved(plan.photos);
+            }
+            return plan.photos;
+        }, Collections.emptyList());
+        for (Photo photo : removed) {
+            deletePhotoFile(photo);
+        }
+        return removed;
+    }
+
+    //Adds tags to photos as a single change and returns the photos that didn't have them all.
+    public List<Photo> tagPhotos(Collection<Photo> photos, Collection<String> tags) {
+        return tagPhotos(photos, tags, Progress.NONE);
+    }
+
+    //Same, in steps; returns an empty list if progress cancels it.
+    public List<Photo> tagPhotos(Collection<Photo> photos, Collection<String> tags, Progress progress) {
+        return editTags(photos, tagIds -> {
+            for (String tag : tags) {
+                tagIds = Photo.withTag(tagIds, tag);
+            }
+            return tagIds;
+        }, progress);
+    }
+
+    //Replaces a tag with another on the photos that have it, as a single change, and returns those photos.
+    //A blank new tag just removes the old one.
+    public List<Photo> retagPhotos(Collection<Photo> photos, String oldTag, String newTag) {
+        return retagPhotos(photos, oldTag, newTag, Progress.NONE);
+    }
+
+    //Same, in steps; returns an empty list if progress cancels it.
+    public List<Photo> retagPhotos(Collection<Photo> photos, String oldTag, String newTag, Progress progress) {
+        return editTags(photos, tagIds -> {
+            int[] removed = Photo.withoutTag(tagIds, oldTag);
+            return removed == tagIds ? tagIds : Photo.withTag(removed, newTag);
+        }, progress);
+    }
+
+    //Adds a photo to a collection, creating it if needed, and takes it out of Default.
+    //Returns false if the photo isn't in the catalog.
+    public boolean movePhoto(Photo photo, String collectionName) {
+        lock.writeLock().lock();
+        try {
+            if (photosByPath.get(photo.getFilePath()) != photo) {
+                return false;
+            }
+            addToCollection(Collections.singletonList(photo), collectionName);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    //Adds photos to a collection, creating it if needed, and takes them out of Default, as a single change.
+    //Returns the photos that weren't in the collection yet. Photos can't be added to Default directly:
+    //they go back to it by leaving their last collection.
+    public List<Photo> addToCollection(Collection<Photo> photos, String collectionName) {
+        return addToCollection(photos, collectionName, Progress.NONE);
+    }
+
+    //Same, in steps; returns an empty list if progress cancels it.
+    public List<Photo> addToCollection(Collection<Photo> photos, String collectionName, Progress progress) {
+        if (collectionName.equals(DEFAULT_COLLECTION)) {
+            return Collections.emptyList();
+        }
+        return change(progress, stepProgress -> {
+            PhotoCollection collection = collections.get(collectionName);
+            Plan plan = new Plan();
+            boolean done = inSteps(photos, stepProgress, step -> {
+                for (Photo photo : step) {
+                    if (isInCatalog(photo) && plan.seen.add(photo) && (collection == null || !collection.contains(photo))) {
+                        plan.photos.add(photo);
+                    }
+                }
+            });
+            return done && !plan.photos.isEmpty() ? plan : null;
+        }, plan -> {
+            List<Photo> added = file(collectionName, plan.photos);
+            journal.addedToCollection(collectionName, added);
+            return added;
+        }, Collections.emptyList());
+    }
+
+    //Takes photos out of a collection as a single change; those left in no collection go back to Default.
+    //Returns the photos that were in the collection. Photos can't be taken out of Default directly.
+    public List<Photo> removeFromCollection(Collection<Photo> photos, String collectionName) {
+        return removeFromCollection(photos, collectionName, Progress.NONE);
+    }
+
+    //Same, in steps; returns an empty list if progress cancels it.
+    public List<Photo> removeFromCollection(Collection<Photo> photos, String collectionName, Progress progress) {
+        if (collectionName.equals(DEFAULT_COLLECTION)) {
+            return Collections.emptyList();
+        }
+        return change(progress, stepProgress -> {
+            PhotoCollection collection = collections.get(collectionName);
+            if (collection == null) {
+                return null;
+            }
+            Plan plan = new Plan();
+            boolean done = inSteps(photos, stepProgress, step -> leaving(collection, step, plan));
+            return done && !plan.photos.isEmpty() ? plan : null;
+        }, plan -> {
+            List<Photo> removed = leave(collectionName, plan.photos);
+            join(DEFAULT_COLLECTION, plan.unfiled);
+            journal.removedFromCollection(collectionName, removed);
+            return removed;
+        }, Collections.emptyList());
+    }
+
+    //Moves photos from one collection to another as a single change; photos not in the source are skipped.
+    //Moving them to Default takes them out of the source only. Returns the photos moved.
+    public List<Photo> moveToCollection(Collection<Photo> photos, String sourceName, String targetName) {
+        return moveToCollection(photos, sourceName, targetName, Progress.NONE);
+    }
+
+    //Same, in steps; returns an empty list if progress cancels it.
+    public List<Photo> moveToCollection(Collection<Photo> photos, String sourceName, String targetName, Progress progress) {
+        if (sourceName.equals(targetName)) {
+            return Collections.emptyList();
+        }
+        return change(progress, stepProgress -> {
+            PhotoCollection source = collections.get(sourceName);
+            if (source == null) {
+                return null;
+            }
+            Plan plan = new Plan();
+            boolean done = inSteps(photos, stepProgress, step -> leaving(source, step, plan));
+            return done && !plan.photos.isEmpty() ? plan : null;
+        }, plan -> {
+            if (targetName.equals(DEFAULT_COLLECTION)) {
+                leave(sourceName, plan.photos);
+                join(DEFAULT_COLLECTION, plan.unfiled);
+            } else {
+                file(targetName, plan.photos);
+                leave(sourceName, plan.photos);
+            }
+            journal.movedToCollection(sourceName, targetName, plan.photos);
+            return plan.photos;
+        }, Collections.emptyList());
+    }
+
+    //Adds the photos of one collection to another and deletes it, as a single change. Merging into Default
+    //is deleting the collection. Returns false if either is missing or they are the same collection.
+    public boolean mergeCollections(String sourceName, String targetName) {
+        return mergeCollections(sourceName, targetName, Progress.NONE);
+    }
+
+    //Same, in steps over the photos of the source; returns false if progress cancels it.
+    public boolean mergeCollections(String sourceName, String targetName, Progress progress) {
+        if (targetName.equals(DEFAULT_COLLECTION)) {
+            return deleteCollection(sourceName, progress);
+        }
+        if (sourceName.equals(DEFAULT_COLLECTION) || sourceName.equals(targetName)) {
+            return false;
+        }
+        return change(progress, stepProgress -> {
+            PhotoCollection source = collections.get(sourceName);
+            PhotoCollection target = collections.get(targetName);
+            if (source == null || target == null) {
+                return null;
+            }
+            Plan plan = new Plan();
+            boolean done = inSteps(new ArrayList<>(source.getPhotos()), stepProgress, step -> {
+                for (Photo photo : step) {
+                    if (!target.contains(photo)) {
+                        plan.photos.add(photo);
+                    }
+                }
+            });
+            return done ? plan : null;
+        }, plan -> {
+            file(targetName, plan.photos);
+            dropCollection(sourceName);
+            journal.collectionsMerged(sourceName, targetName);
+            return true;
+        }, false);
+    }
+
+    //Deletes a collection; its photos that are in no other collection go back to Default. Default itself can't be deleted.
+    public boolean deleteCollection(String collectionName) {
+        return deleteCollection(collectionName, Progress.NONE);
+    }
+
+    //Same, in steps over the photos of the collection; returns false if progress cancels it.
+    public boolean deleteCollection(String collectionName, Progress progress) {
+        if (collectionName.equals(DEFAULT_COLLECTION)) {
+            return false;
+        }
+        return change(progress, stepProgress -> {
+            PhotoCollection collection = collections.get(collectionName);
+            if (collection == null) {
+                return null;
+            }
+            Plan plan = new Plan();
+            boolean done = inSteps(new ArrayList<>(collection.getPhotos()), stepProgress, step -> {
+                for (Photo photo : step) {
+                    if (isUnfiled(photo, collectionName)) {
+                        plan.unfiled.add(photo);
+                    }
+                }
+            });
+            return done ? plan : null;
+        }, plan -> {
+            dropCollection(collectionName);
+            join(DEFAULT_COLLECTION, plan.unfiled);
+            journal.collectionDeleted(collectionName);
+            return true;
+        }, false);
+    }
+
+    //Stores hashes computed in the background on the photos still in the catalog.
+    //Returns each photo that turned out to be a copy of another one, mapped to that other photo.
+    public Map<Photo, Photo> applyHashes(List<ContentHasher.Hashes> hashes) {
+        lock.writeLock().lock();
+        try {
+            Map<Photo, Photo> copies = new IdentityHashMap<>();
+            List<Photo> hashed = new ArrayList<>();
+            for (ContentHasher.Hashes result : hashes) {
+                Photo photo = result.getPhoto();
+                if (photosByPath.get(photo.getFilePath()) != photo) {
+                    continue; //Removed meanwhile
+                }
+                Photo copy = duplicateIndex.findCopy(result.getContentHash());
+                if (copy != null && copy != photo) {
+                    copies.put(photo, copy);
+                }
+                duplicateIndex.remove(photo);
+                photo.setContentHash(result.getContentHash());
+                photo.setPerceptualHash(result.getPerceptualHash());
+                duplicateIndex.add(photo);
+                hashed.add(photo);
+            }
+            if (!hashed.isEmpty()) {
+                journal.photosHashed(hashed);
+            }
+            return copies;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    //Marks a photo's file as missing or back. Returns false if it isn't in the catalog or nothing changed.
+    public boolean setMissing(Photo photo, boolean missing) {
+        lock.writeLock().lock();
+        try {
+            if (photosByPath.get(photo.getFilePath()) != photo || photo.isMissing() == missing) {
+                return false;
+            }
+            photo.setMissing(missing);
+            for (Listener listener : listeners) {
+                listener.photoFileChanged(photo);
+            }
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    //Tells the listeners that a photo's file was rewritten on disk, e.g. by an image editor.
+    public void fileChanged(Photo photo) {
+        lock.writeLock().lock();
+        try {
+            if (photosByPath.get(photo.getFilePath()) == photo) {
+                for (Listener listener : listeners) {
+                    listener.photoFileChanged(photo);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    //Queries
+
+    //Runs a search bar query; bare values are matched against the given criterion.
+    public List<Photo> search(String query, String defaultCriteria) {
+        SearchEvent event = new SearchEvent();
+        event.begin();
+        lock.readLock().lock();
+        try {
+            List<Photo> results = SEARCH_TIMER.time(() -> searchIndex.search(query, defaultCriteria));
+            event.results = results.size();
+            return results;
+        } finally {
+            lock.readLock().unlock();
+            commit(event, query, defaultCriteria);
+        }
+    }
+
+    //Runs a search bar query and counts the results per tag, month and collection.
+    public SearchResults searchWithFacets(String query, String defaultCriteria) {
+        SearchEvent event = new SearchEvent();
+        event.begin();
+        lock.readLock().lock();
+        try {
+            SearchResults results = SEARCH_TIMER.time(() -> searchIndex.searchWithFacets(query, defaultCriteria));
+            event.results = results.getPhotos().size();
+            event.faceted = true;
+            return results;
+        } finally {
+            lock.readLock().unlock();
+            commit(event, query, defaultCriteria);
+        }
+    }
+
+    //Runs a search bar query and hands its matches to found a slice at a time, as they are found; see
+    //SearchIndex.searchInSlices. found is called under the read lock, so it should only pass the slice on.
+    //Returns all the matches with their facet counts, or null if found stopped the search.
+    public SearchResults searchInSlices(String query, String defaultCriteria, int sliceSize, Predicate<List<Photo>> found) {
+        SearchEvent event = new SearchEvent();
+        event.begin();
+        lock.readLock().lock();
+        try {
+            SearchResults results = SEARCH_TIMER.time(() -> searchIndex.searchInSlices(query, defaultCriteria, sliceSize, found));
+            event.results = results == null ? 0 : results.getPhotos().size();
+            event.faceted = true;
+            return results;
+        } finally {
+            lock.readLock().unlock();
+            commit(event, query, defaultCriteria);
+        }
+    }
+
+    //Keeps the photos that match a query, e.g. to narrow down the results of an earlier one.
+    public List<Photo> filter(SearchQuery query, List<Photo> photos) {
+        lock.readLock().lock();
+        try {
+            List<Photo> matching = new ArrayList<>();
+            for (Photo photo : photos) {
+                if (query.matches(photo, searchIndex::isInCollection)) {
+                    matching.add(photo);
+                }
+            }
+            return matching;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    //Counts photos per tag, month and collection, e.g. for results filtered outside the catalog.
+    //Photos no longer in the catalog aren't counted.
+    public SearchFacets facets(Collection<Photo> photos) {
+        lock.readLock().lock();
+        try {
+            return FACETS_TIMER.time(() -> searchIndex.facets(photos));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    //Records a search in a Flight Recorder recording, if one is running.
+    private static void commit(SearchEvent event, String query, String defaultCriteria) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.query = query;
+            event.criteria = defaultCriteria;
+            event.commit();
+        }
+    }
+
+    //Tags starting with prefix, most used first, for completing what is being typed.
+    public List<String> suggestTags(String prefix, int limit) {
+        lock.readLock().lock();
+        try {
+            return searchIndex.suggestTags(prefix, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    //Tells whether a photo with an id is in any collection.
+    public boolean containsPhoto(long photoId) {
+        lock.readLock().lock();
+        try {
+            for (PhotoCollection collection : collections.values()) {
+                if (collection.containsId(photoId)) {
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    //Returns the photo with a file path, or null.
+    public Photo getPhoto(String filePath) {
+        lock.readLock().lock();
+        try {
+            return photosByPath.get(filePath);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    //Returns the photos whose files are in a directory or below it.
+    public List<Photo> getPhotosUnder(String directory) {
+        String prefix = directory.endsWith(File.separator) ? directory : directory + File.separator;
+        lock.readLock().lock();
+        try {
+            List<Photo> photos = new ArrayList<>();
+            for (Map.Entry<String, Photo> entry : photosByPath.entrySet()) {
+                if (entry.getKey().startsWith(prefix)) {
+                    photos.add(entry.getValue());
+                }
+            }
+            return photos;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    //Returns the directories holding the catalog's photo files.
+    public Set<String> getPhotoDirectories() {
+        lock.readLock().lock();
+        try {
+            Set<String> directories = new HashSet<>();
+            for (String path : photosByPath.keySet()) {
+                String parent = new File(path).getParent();
+                if (parent != null) {
+                    directories.add(parent);
+                }
+            }
+            return directories;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public Set<String> getPhotoPaths() {
+        lock.readLock().lock();
+        try {
+            return new HashSet<>(photosByPath.keySet());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    //Changes whenever photos are added, removed, moved, retagged or relocated, so results computed at one version
+    //can be reused as long as it hasn't changed. Hashing photos doesn't change it.
+    public long getVersion() {
+        return version;
+    }
+
+    public int getPhotoCount() {
+        lock.readLock().lock();
+        try {
+            return photosByPath.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    //Names of the collections, sorted.
+    public List<String> getCollectionNames() {
+        lock.readLock().lock();
+        try {
+            List<String> names = new ArrayList<>(collections.keySet());
+            Collections.sort(names);
+            return names;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    //Returns copies of every collection, so they can be read and changed without affecting the catalog.
+    public Map<String, PhotoCollection> copyCollections() {
+        lock.readLock().lock();
+        try {
+            Map<String, PhotoCollection> copies = new HashMap<>();
+            for (PhotoCollection collection : collections.values()) {
+                PhotoCollection copy = new PhotoCollection(collection.getName());
+                for (Photo photo : collection.getPhotos()) {
+                    copy.addPhoto(photo);
+                }
+                copies.put(copy.getName(), copy);
+            }
+            return copies;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    //Returns the photos that have no content hash yet.
+    public List<Photo> getUnhashedPhotos() {
+        lock.readLock().lock();
+        try {
+            List<Photo> unhashed = new ArrayList<>();
+            for (Photo photo : photosByPath.values()) {
+                if (photo.getContentHash() == null) {
+                    unhashed.add(photo);
+                }
+            }
+            return unhashed;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    //Batches; each one is applied under a single write lock
+
+    private List<Photo> addBatch(List<Photo> photos) {
+        lock.writeLock().lock();
+        try {
+            List<Photo> newPhotos = new ArrayList<>();
+            for (Photo photo : photos) {
+                if (!photosByPath.containsKey(photo.getFilePath())) {
+                    index(photo);
+                    newPhotos.add(photo);
+                }
+            }
+            addToDefault(newPhotos);
+            journalAdded(newPhotos);
+            return newPhotos;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    //Adds the photos relocated rather than imported to relocated.
+    private List<Photo> importBatch(List<Photo> photos, List<String> notes, List<Photo> relocated) {
+        lock.writeLock().lock();
+        try {
+            List<Photo> newPhotos = new ArrayList<>();
+            for (Photo photo : photos) {
+                if (photosByPath.containsKey(photo.getFilePath())) {
+                    continue;
+                }
+                Photo copy = duplicateIndex.findCopy(photo.getContentHash());
+                if (copy != null && !new File(copy.getFilePath()).exists()) {
+                    notes.add(photo.getFilePath() + ": moved from " + copy.getFilePath());
+                    relocate(copy, photo.getFilePath());
+                    relocated.add(copy);
+                } else if (copy != null) {
+                    notes.add(photo.getFilePath() + ": copy of " + copy.getFilePath());
+                } else {
+                    for (Photo similar : duplicateIndex.findSimilar(photo.getPerceptualHash())) {
+                        notes.add(photo.getFilePath() + ": looks like " + similar.getFilePath());
+                    }
+                    index(photo);
+                    newPhotos.add(photo);
+                }
+            }
+            addToDefault(newPhotos);
+            journalAdded(newPhotos);
+            return newPhotos;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    //Works out the new tags of the photos in steps with edit, which returns new sorted tag ids rather than
+    //changing the ones it is given, then sets them and reindexes the photos in the change itself.
+    private List<Photo> editTags(Collection<Photo> photos, UnaryOperator<int[]> edit, Progress progress) {
+        return change(progress, stepProgress -> {
+            Plan plan = new Plan();
+            boolean done = inSteps(photos, stepProgress, step -> {
+                for (Photo photo : step) {
+                    if (!isInCatalog(photo) || !plan.seen.add(photo)) {
+                        continue;
+                    }
+                    int[] tagIds = edit.apply(photo.getTagIds());
+                    if (!Arrays.equals(tagIds, photo.getTagIds())) {
+                        plan.photos.add(photo);
+                        plan.tagIds.add(tagIds);
+                    }
+                }
+            });
+            return done && !plan.photos.isEmpty() ? plan : null;
+        }, plan -> {
+            for (int i = 0; i < plan.photos.size(); i++) {
+                Photo photo = plan.photos.get(i);
+                int[] oldTagIds = photo.getTagIds();
+                photo.setTagIds(plan.tagIds.get(i));
+                searchIndex.retag(photo, oldTagIds);
+            }
+            version++;
+            journal.photosTagged(plan.photos);
+            for (Listener listener : listeners) {
+                listener.photosChanged(plan.photos);
+            }
+            return plan.photos;
+        }, Collections.emptyList());
+    }
+
+    //What a change made in steps is to do, worked out under the read lock and made under the write lock.
+    private static class Plan {
+        final Set<Photo> seen = Collections.newSetFromMap(new IdentityHashMap<>()); //So repeated photos are skipped
+        final List<Photo> photos = new ArrayList<>(); //The photos the change is made to
+        final List<Photo> unfiled = new ArrayList<>(); //Photos that go back to Default
+        final List<int[]> tagIds = new ArrayList<>(); //The new tags of each photo, for tag edits
+        final Map<PhotoCollection, List<Photo>> leaving = new HashMap<>(); //The photos each collection loses, for removals
+    }
+
+    //Makes a change in steps. plan works it out under the read lock, telling progress after each step, so
+    //searches and the UI carry on meanwhile; it returns null if progress cancelled or there is nothing to do,
+    //and then nothing is returned. commit makes the change under the write lock. If another change got in
+    //between, the plan may no longer hold, so it is worked out again first, in one go.
+    private <R> R change(Progress progress, Function<Progress, Plan> plan, Function<Plan, R> commit, R nothing) {
+        Plan planned;
+        long plannedVersion;
+        lock.readLock().lock();
+        try {
+            planned = plan.apply(progress);
+            plannedVersion = version;
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (planned == null) {
+            return nothing;
+        }
+        lock.writeLock().lock();
+        try {
+            if (version != plannedVersion) {
+                planned = plan.apply(Progress.NONE);
+                if (planned == null) {
+                    return nothing;
+                }
+            }
+            return commit.apply(planned);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    //Helpers; all called with the lock held, the write lock for those that change the catalog
+
+    private void index(Photo photo) {
+        photosByPath.put(photo.getFilePath(), photo);
+        searchIndex.add(photo);
+        duplicateIndex.add(photo);
+    }
+
+    private boolean isInCatalog(Photo photo) {
+        return photosByPath.get(photo.getFilePath()) == photo;
+    }
+
+    //Runs work on the photos EDIT_STEP at a time, telling progress after each step. Returns false if progress
+    //cancelled. With no photos, progress is told once that nothing is left to do.
+    private static boolean inSteps(Collection<Photo> photos, Progress progress, Consumer<List<Photo>> work) {
+        List<Photo> list = photos instanceof List ? (List<Photo>) photos : new ArrayList<>(photos);
+        if (list.isEmpty()) {
+            return progress.step(0, 0);
+        }
+        for (int start = 0; start < list.size(); start += EDIT_STEP) {
+            int end = Math.min(start + EDIT_STEP, list.size());
+            work.accept(list.subList(start, end));
+            if (!progress.step(end, list.size())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //Plans the photos of a step that are in a collection and not seen yet to leave it, and those of them that
+    //are in no other collection but Default to go back to Default.
+    private void leaving(PhotoCollection collection, List<Photo> step, Plan plan) {
+        for (Photo photo : step) {
+            if (isInCatalog(photo) && collection.contains(photo) && plan.seen.add(photo)) {
+                plan.photos.add(photo);
+                if (isUnfiled(photo, collection.getName())) {
+                    plan.unfiled.add(photo);
+                }
+            }
+        }
+    }
+
+    //Adds photos to a collection other than Default and takes them out of Default. Returns the ones added.
+    private List<Photo> file(String collectionName, List<Photo> photos) {
+        List<Photo> added = join(collectionName, photos);
+        leave(DEFAULT_COLLECTION, photos);
+        return added;
+    }
+
+    //Adds photos to a collection, creating it if needed, and returns the ones that weren't in it.
+    private List<Photo> join(String collectionName, List<Photo> photos) {
+        List<Photo> added = new ArrayList<>();
+        PhotoCollection collection = collections.get(collectionName);
+        for (Photo photo : photos) {
+            if (collection == null) {
+                collection = new PhotoCollection(collectionName);
+                collections.put(collectionName, collection);
+            }
+            if (!collection.contains(photo)) {
+                collection.addPhoto(photo);
+                searchIndex.addToCollection(collectionName, photo);
+                added.add(photo);
+            }
+        }
+        collectionChanged(collectionName, added, Collections.emptyList());
+        return added;
+    }
+
+    //Takes photos out of a collection and returns the ones that were in it.
+    private List<Photo> leave(String collectionName, List<Photo> photos) {
+        PhotoCollection collection = collections.get(collectionName);
+        if (collection == null) {
+            return Collections.emptyList();
+        }
+        List<Photo> removed = new ArrayList<>();
+        for (Photo photo : photos) {
+            if (collection.contains(photo)) {
+                searchIndex.removeFromCollection(collectionName, photo);
+                removed.add(photo);
+            }
+        }
+        collection.removePhotos(removed);
+        collectionChanged(collectionName, Collections.emptyList(), removed);
+        return removed;
+    }
+
+    private void collectionChanged(String collectionName, List<Photo> added, List<Photo> removed) {
+        if (added.isEmpty() && removed.isEmpty()) {
+            return;
+        }
+        version++;
+        for (Listener listener : listeners) {
+            listener.collectionChanged(collectionName, added, removed);
+        }
+    }
+
+    //Removes a collection and its bitmap and returns the photos it had.
+    private List<Photo> dropCollection(String collectionName) {
+        PhotoCollection collection = collections.remove(collectionName);
+        searchIndex.removeCollection(collectionName);
+        version++;
+        for (Listener listener : listeners) {
+            listener.collectionDeleted(collectionName);
+        }
+        return collection.getPhotos();
+    }
+
+    //Tells whether a photo is in no collection but Default and the one named.
+    private boolean isUnfiled(Photo photo, String collectionName) {
+        for (PhotoCollection collection : collections.values()) {
+            String name = collection.getName();
+            if (!name.equals(DEFAULT_COLLECTION) && !name.equals(collectionName) && collection.contains(photo)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void addToDefault(List<Photo> photos) {
+        if (photos.isEmpty()) {
+            return;
+        }
+        PhotoCollection defaultCollection = collections.get(DEFAULT_COLLECTION);
+        for (Photo photo : photos) {
+            defaultCollection.addPhoto(photo);
+            searchIndex.addToCollection(DEFAULT_COLLECTION, photo);
+        }
+        version++;
+        for (Listener listener : listeners) {
+            listener.photosAdded(DEFAULT_COLLECTION, photos);
+        }
+    }
+
+    //Journals photos added in a batch. Their photo files are left for savePhotoFiles.
+    private void journalAdded(List<Photo> photos) {
+        if (photos.isEmpty()) {
+            return;
+        }
+        journal.photosAdded(DEFAULT_COLLECTION, photos);
+        unsavedPhotos.addAll(photos);
+        List<Photo> hashed = new ArrayList<>();
+        for (Photo photo : photos) {
+            if (photo.getContentHash() != null) {
+                hashed.add(photo);
+            }
+        }
+        if (!hashed.isEmpty()) {
+            journal.photosHashed(hashed);
+        }
+    }
+
+    private void relocate(Photo photo, String newPath) {
+        String oldPath = photo.getFilePath();
+        photosByPath.remove(oldPath);
+        photo.setFilePath(newPath);
+        photo.setMissing(false);
+        photosByPath.put(newPath, photo);
+        version++;
+        journal.photoRelocated(photo);
+        for (Listener listener : listeners) {
+            listener.photoRelocated(photo, oldPath);
+        }
+    }
+
+    //Writes the photo files of the photos added in batches since the last time. The journal alone restores the
+    //catalog, so the files are only for readers of photos/; an import writes its journal records and no more,
+    //and the files follow after the journal is compacted, or on save and close. The read lock keeps the photos
+    //from being removed, and their files deleted, while they are written.
+    private void savePhotoFiles() {
+        lock.readLock().lock();
+        try {
+            List<Photo> photos;
+            synchronized (unsavedPhotos) { //Other readers may be saving too
+                photos = new ArrayList<>(unsavedPhotos);
+                unsavedPhotos.clear();
+            }
+            for (Photo photo : photos) {
+                savePhotoFile(photo);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void savePhotoFile(Photo photo) {
+        try {
+            photosDirectory.mkdirs();
+            CatalogFormat.writePhotoFile(photo, new File(photosDirectory, CatalogFormat.photoFileName(photo)));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    //Deletes the photo file, and the file named after the title that older versions wrote if it holds this photo.
+    private void deletePhotoFile(Photo photo) {
+        new File(photosDirectory, CatalogFormat.photoFileName(photo)).delete();
+        File legacyFile = new File(photosDirectory, photo.getTitle().replace(" ", "_").replace(":", "_").replace("/", "_") + ".dat");
+        try {
+            if (legacyFile.exists() && CatalogFormat.readPhotoFile(legacyFile).getFilePath().equals(photo.getFilePath())) {
+                legacyFile.delete();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -1,26 +1,248 @@
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 
 //represents a collection of photos.
+//The photos sit in slots in the order they are shown. Removing one empties its slot, and the slots are packed
+//when the array fills up. A map from photo id to slot makes checking and removing a photo O(1), whichever
+//Photo object stands for it; a Fenwick tree counting the filled slots turns a slot into a position and back
+//in O(log n).
+//A photo can be in any number of collections; they share the same Photo object.
 public class PhotoCollection implements Serializable {
+    private static final long serialVersionUID = 6994088746002438045L;
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("name", String.class),
+            new ObjectStreamField("photos", List.class)
+    };
+
     private String name;
-    private List<Photo> photos;
+    private transient Photo[] slots;
+    private transient int slotCount; //Slots used so far, filled or emptied
+    private transient int[] filled; //Fenwick tree over the slots, 1-based: 1 for each filled slot
+    private transient LongIntHashMap slotsById;
 
     public PhotoCollection(String name) {
         this.name = name;
-        this.photos = new ArrayList<>();
+        init(16);
+    }
+
+    private void init(int capacity) {
+        slots = new Photo[capacity];
+        slotCount = 0;
+        filled = new int[capacity + 1];
+        slotsById = new LongIntHashMap(capacity);
     }
 
+    //Adds a photo unless it is already in the collection.
     public void addPhoto(Photo photo) {
-        photos.add(photo);
+        if (slotsById.containsKey(photo.getId())) {
+            return;
+        }
+        if (slotCount == slots.length) {
+            pack();
+        }
+        slots[slotCount] = photo;
+        slotsById.put(photo.getId(), slotCount);
+        count(slotCount, 1);
+        slotCount++;
+    }
+
+    //Removes a photo and returns the position it had, or -1 if it wasn't in the collection.
+    public int removePhoto(Photo photo) {
+        int slot = slotsById.remove(photo.getId());
+        if (slot == LongIntHashMap.MISSING) {
+            return -1;
+        }
+        int position = filledBefore(slot);
+        slots[slot] = null;
+        count(slot, -1);
+        return position;
+    }
+
+    //Removes photos and returns how many were in the collection.
+    public int removePhotos(Collection<Photo> removed) {
+        int count = 0;
+        for (Photo photo : removed) {
+            if (removePhoto(photo) >= 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    //Position of a photo in display order, or -1 if it isn't in the collection.
+    public int indexOf(Photo photo) {
+        int slot = slotsById.get(photo.getId());
+        return slot == LongIntHashMap.MISSING ? -1 : filledBefore(slot);
+    }
+
+    public boolean contains(Photo photo) {
+        return containsId(photo.getId());
+    }
+
+    public boolean containsId(long photoId) {
+        return slotsById.containsKey(photoId);
+    }
+
+    public int size() {
+        return slotsById.size();
     }
 
-    public void removePhoto(Photo photo) {
-        photos.remove(photo);
+    public String getName() {
+        return name;
     }
 
+    //The photos in display order, as a read-only view; get and indexOf cost O(log n). Changes go through
+    //addPhoto, removePhoto and removePhotos. Removing photos while iterating the view is safe: slots are
+    //only packed when a photo is added.
     public List<Photo> getPhotos() {
-        return photos;
+        return new Photos();
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    private class Photos extends AbstractList<Photo> {
+        @Override
+        public Photo get(int index) {
+            if (index < 0 || index >= size()) {
+                throw new IndexOutOfBoundsException("Index " + index + " out of " + size());
+            }
+            return slots[slotAt(index)];
+        }
+
+        @Override
+        public int size() {
+            return PhotoCollection.this.size();
+        }
+
+        @Override
+        public int indexOf(Object o) {
+            return o instanceof Photo ? PhotoCollection.this.indexOf((Photo) o) : -1;
+        }
+
+        @Override
+        public int lastIndexOf(Object o) {
+            return indexOf(o);
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return o instanceof Photo && PhotoCollection.this.contains((Photo) o);
+        }
+
+        @Override
+        public Iterator<Photo> iterator() {
+            return new Iterator<Photo>() {
+                private int slot = nextFilled(0);
+
+                @Override
+                public boolean hasNext() {
+                    return slot < slotCount;
+                }
+
+                @Override
+                public Photo next() {
+                    if (slot >= slotCount) {
+                        throw new NoSuchElementException();
+                    }
+                    Photo photo = slots[slot];
+                    slot = nextFilled(slot + 1);
+                    return photo;
+                }
+            };
+        }
+
+        private int nextFilled(int slot) {
+            while (slot < slotCount && slots[slot] == null) {
+                slot++;
+            }
+            return slot;
+        }
+    }
+
+    //Moves the photos to the front of the slots, growing the array if more than half of it is filled.
+    private void pack() {
+        int size = size();
+        Photo[] packed = new Photo[size * 2 >= slots.length ? slots.length * 2 : slots.length];
+        int used = 0;
+        for (int slot = 0; slot < slotCount; slot++) {
+            if (slots[slot] != null) {
+                packed[used] = slots[slot];
+                slotsById.put(slots[slot].getId(), used);
+                used++;
+            }
+        }
+        slots = packed;
+        slotCount = used;
+        filled = new int[packed.length + 1];
+        for (int i = 1; i < filled.length; i++) {
+            if (i <= used) {
+                filled[i]++;
+            }
+            int parent = i + (i & -i);
+            if (parent < filled.length) {
+                filled[parent] += filled[i];
+            }
+        }
+    }
+
+    private void count(int slot, int delta) {
+        for (int i = slot + 1; i < filled.length; i += i & -i) {
+            filled[i] += delta;
+        }
+    }
+
+    //Number of filled slots before the given one.
+    private int filledBefore(int slot) {
+        int count = 0;
+        for (int i = slot; i > 0; i -= i & -i) {
+            count += filled[i];
+        }
+        return count;
+    }
+
+    //Slot of the photo at a position, found by walking down the Fenwick tree.
+    private int slotAt(int position) {
+        int slot = 0;
+        int remaining = position + 1;
+        for (int step = Integer.highestOneBit(filled.length - 1); step > 0; step >>= 1) {
+            if (slot + step < filled.length && filled[slot + step] < remaining) {
+                slot += step;
+                remaining -= filled[slot];
+            }
+        }
+        return slot;
+    }
+
+    //Written as the list of photos, as older versions did.
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("name", name);
+        fields.put("photos", new ArrayList<>(getPhotos()));
+        out.writeFields();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        name = (String) fields.get("name", null);
+        List<Photo> photos = (List<Photo>) fields.get("photos", null);
+        init(Math.max(16, photos == null ? 0 : photos.size()));
+        if (photos != null) {
+            for (Photo photo : photos) {
+                addPhoto(photo);
+            }
+        }
     }
 }
@@ -0,0 +1,201 @@
+import javax.swing.*;
+import javax.swing.event.ListDataEvent;
+import javax.swing.event.ListDataListener;
+import java.awt.*;
+import java.awt.event.MouseEvent;
+import java.awt.image.BufferedImage;
+import java.util.*;
+import java.util.concurrent.Future;
+
+//Thumbnail grid for browsing large collections. Cells have a fixed size, so the list lays out and paints
+//only the rows in view however many photos there are, and the one renderer is reused for every cell.
+//Thumbnails are loaded in the background: those in view first, then the next screen in the direction of
+//scrolling. Loads for cells more than a screen out of view are cancelled.
+public class PhotoGrid extends JList<Photo> {
+    public static final int THUMBNAIL_WIDTH = 160; //One of ThumbnailStore.STANDARD_WIDTHS
+    private static final int THUMBNAIL_HEIGHT = 120;
+    private static final int CELL_WIDTH = THUMBNAIL_WIDTH + 16;
+    private static final int CELL_HEIGHT = THUMBNAIL_HEIGHT + 30;
+
+    private PreviewLoader thumbnails;
+    private final Map<Integer, Future<?>> pending = new HashMap<>(); //Loads by cell index
+    private final Set<String> unreadable = new HashSet<>();
+    private int lastFirstVisible;
+
+    public PhotoGrid(PhotoGridModel model) {
+        super(model);
+        setLayoutOrientation(HORIZONTAL_WRAP);
+        setVisibleRowCount(-1);
+        setFixedCellWidth(CELL_WIDTH);
+        setFixedCellHeight(CELL_HEIGHT);
+        setCellRenderer(new ThumbnailCell());
+        ToolTipManager.sharedInstance().registerComponent(this);
+        //Indexes of queued loads are no longer valid once the photos change
+        model.addListDataListener(new ListDataListener() {
+            @Override
+            public void intervalAdded(ListDataEvent e) {
+                cancelPending();
+            }
+
+            @Override
+            public void intervalRemoved(ListDataEvent e) {
+                cancelPending();
+            }
+
+            @Override
+            public void contentsChanged(ListDataEvent e) {
+                cancelPending();
+            }
+        });
+    }
+
+    //The loader thumbnails come from; the grid shows placeholders until it is set.
+    public void setThumbnailSource(PreviewLoader thumbnails) {
+        this.thumbnails = thumbnails;
+        repaint();
+    }
+
+    //Loads a photo's thumbnail again, after its file changed or came back.
+    public void reloadThumbnail(Photo photo) {
+        unreadable.remove(photo.getFilePath());
+        if (thumbnails != null) {
+            thumbnails.invalidate(photo.getFilePath());
+        }
+        repaint();
+    }
+
+    @Override
+    public PhotoGridModel getModel() {
+        return (PhotoGridModel) super.getModel();
+    }
+
+    @Override
+    public void addNotify() {
+        super.addNotify();
+        JViewport viewport = (JViewport) SwingUtilities.getAncestorOfClass(JViewport.class, this);
+        if (viewport != null) {
+            viewport.addChangeListener(e -> prefetch());
+        }
+    }
+
+    @Override
+    public String getToolTipText(MouseEvent event) {
+        int index = locationToIndex(event.getPoint());
+        return index >= 0 && getCellBounds(index, index).contains(event.getPoint()) ? getModel().getElementAt(index).getFilePath() : null;
+    }
+
+    //Queues the thumbnails in view and the screen after them in the direction of scrolling, and cancels
+    //loads for cells that have scrolled well out of view.
+    private void prefetch() {
+        int first = getFirstVisibleIndex();
+        int last = getLastVisibleIndex();
+        if (thumbnails == null || first < 0) {
+            return;
+        }
+        int screen = last - first + 1;
+        Iterator<Map.Entry<Integer, Future<?>>> loads = pending.entrySet().iterator();
+        while (loads.hasNext()) {
+            Map.Entry<Integer, Future<?>> load = loads.next();
+            if (load.getKey() < first - screen || load.getKey() > last + screen) {
+                load.getValue().cancel(false);
+                loads.remove();
+            }
+        }
+        for (int i = first; i <= last; i++) {
+            request(i);
+        }
+        if (first >= lastFirstVisible) {
+            for (int i = last + 1; i <= Math.min(last + screen, getModel().getSize() - 1); i++) {
+                request(i);
+            }
+        } else {
+            for (int i = first - 1; i >= Math.max(first - screen, 0); i--) {
+                request(i);
+            }
+        }
+        lastFirstVisible = first;
+    }
+
+    private void request(int index) {
+        String path = getModel().getElementAt(index).getFilePath();
+        if (pending.containsKey(index) || unreadable.contains(path) || thumbnails.getCachedImage(path, THUMBNAIL_WIDTH) != null) {
+            return;
+        }
+        pending.put(index, thumbnails.load(path, THUMBNAIL_WIDTH, icon -> loaded(index), e -> {
+            unreadable.add(path);
+            loaded(index);
+        }));
+    }
+
+    private void loaded(int index) {
+        pending.remove(index);
+        if (index < getModel().getSize()) {
+            Rectangle bounds = getCellBounds(index, index);
+            if (bounds != null) {
+                repaint(bounds);
+            }
+        }
+    }
+
+    private void cancelPending() {
+        for (Future<?> load : pending.values()) {
+            load.cancel(false);
+        }
+        pending.clear();
+        SwingUtilities.invokeLater(this::prefetch);
+    }
+
+    //Paints the cached thumbnail of a cell, scaled to fit, with the title below it; a placeholder while
+    //the thumbnail is loading. Cells whose thumbnail isn't cached yet are queued for loading.
+    private class ThumbnailCell extends JComponent implements ListCellRenderer<Photo> {
+        private final Color placeholder = new Color(216, 239, 211);
+        private final Color selection = new Color(85, 173, 155);
+        private Photo photo;
+        private int index;
+        private boolean selected;
+
+        @Override
+        public Component getListCellRendererComponent(JList<? extends Photo> list, Photo value, int index, boolean isSelected, boolean cellHasFocus) {
+            this.photo = value;
+            this.index = index;
+            this.selected = isSelected;
+            setForeground(isSelected ? list.getSelectionForeground() : list.getForeground());
+            setFont(list.getFont());
+            return this;
+        }
+
+        @Override
+        protected void paintComponent(Graphics g) {
+            if (selected) {
+                g.setColor(selection);
+                g.fillRect(0, 0, getWidth(), getHeight());
+            }
+            int x = (getWidth() - THUMBNAIL_WIDTH) / 2;
+            int y = 4;
+            BufferedImage image = thumbnails == null ? null : thumbnails.getCachedImage(photo.getFilePath(), THUMBNAIL_WIDTH);
+            if (image != null) {
+                //Fit the thumbnail into the box, keeping its aspect ratio
+                double scale = Math.min(1.0, Math.min((double) THUMBNAIL_WIDTH / image.getWidth(), (double) THUMBNAIL_HEIGHT / image.getHeight()));
+                int width = (int) (image.getWidth() * scale);
+                int height = (int) (image.getHeight() * scale);
+                g.drawImage(image, x + (THUMBNAIL_WIDTH - width) / 2, y + (THUMBNAIL_HEIGHT - height) / 2, width, height, null);
+            } else {
+                g.setColor(placeholder);
+                g.fillRect(x, y, THUMBNAIL_WIDTH, THUMBNAIL_HEIGHT);
+                if (thumbnails != null && !pending.containsKey(index)) {
+                    request(index);
+                }
+            }
+            g.setColor(getForeground());
+            FontMetrics metrics = g.getFontMetrics();
+            String title = photo.getTitle();
+            if (metrics.stringWidth(title) > THUMBNAIL_WIDTH) {
+                while (title.length() > 1 && metrics.stringWidth(title + "...") > THUMBNAIL_WIDTH) {
+                    title = title.substring(0, title.length() - 1);
+                }
+                title += "...";
+            }
+            g.drawString(title, x, y + THUMBNAIL_HEIGHT + 4 + metrics.getAscent());
+        }
+    }
+}
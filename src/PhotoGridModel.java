@@ -0,0 +1,122 @@
+import javax.swing.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+//The photos shown in the grid: one collection of the tree, or the results of a search.
+//Holds its own list, changed only on the EDT, like the tree model's copies of the collections.
+public class PhotoGridModel extends AbstractListModel<Photo> {
+    private List<Photo> photos = new ArrayList<>();
+    private final Map<Photo, Integer> indexes = new IdentityHashMap<>(); //Of every photo in photos, so events find theirs at once
+    private String collectionName; //null while showing search results
+
+    //Shows the photos of a collection; later changes to it are passed on with addPhotos, removePhoto and removePhotos.
+    public void showCollection(PhotoCollection collection) {
+        show(collection.getPhotos(), collection.getName());
+    }
+
+    public void showResults(List<Photo> results) {
+        show(results, null);
+    }
+
+    //Name of the collection shown, or null for search results.
+    public String getCollectionName() {
+        return collectionName;
+    }
+
+    public void addPhotos(List<Photo> added) {
+        if (added.isEmpty()) {
+            return;
+        }
+        int first = photos.size();
+        photos.addAll(added);
+        reindex(first);
+        fireIntervalAdded(this, first, photos.size() - 1);
+    }
+
+    public void addPhoto(Photo photo) {
+        if (indexOf(photo) < 0) {
+            addPhotos(Collections.singletonList(photo));
+        }
+    }
+
+    public void removePhoto(Photo photo) {
+        int index = indexOf(photo);
+        if (index >= 0) {
+            photos.remove(index);
+            indexes.remove(photo);
+            reindex(index);
+            fireIntervalRemoved(this, index, index);
+        }
+    }
+
+    //Removes photos with a single pass over the grid.
+    public void removePhotos(List<Photo> removed) {
+        if (removed.size() <= 1) {
+            removed.forEach(this::removePhoto);
+            return;
+        }
+        Set<Photo> gone = Collections.newSetFromMap(new IdentityHashMap<>());
+        gone.addAll(removed);
+        int oldSize = photos.size();
+        int first = 0;
+        while (first < oldSize && !gone.contains(photos.get(first))) {
+            first++;
+        }
+        if (photos.removeIf(gone::contains)) {
+            indexes.keySet().removeAll(gone);
+            reindex(first);
+            fireIntervalRemoved(this, photos.size(), oldSize - 1);
+            if (first < photos.size()) {
+                fireContentsChanged(this, first, photos.size() - 1);
+            }
+        }
+    }
+
+    //Repaints a photo whose path or details changed.
+    public void photoChanged(Photo photo) {
+        int index = indexOf(photo);
+        if (index >= 0) {
+            fireContentsChanged(this, index, index);
+        }
+    }
+
+    @Override
+    public int getSize() {
+        return photos.size();
+    }
+
+    @Override
+    public Photo getElementAt(int index) {
+        return photos.get(index);
+    }
+
+    private void show(List<Photo> shown, String name) {
+        int oldSize = photos.size();
+        photos = new ArrayList<>(shown);
+        indexes.clear();
+        reindex(0);
+        collectionName = name;
+        if (oldSize > 0) {
+            fireIntervalRemoved(this, 0, oldSize - 1);
+        }
+        if (!photos.isEmpty()) {
+            fireIntervalAdded(this, 0, photos.size() - 1);
+        }
+    }
+
+    private int indexOf(Photo photo) {
+        Integer index = indexes.get(photo);
+        return index == null ? -1 : index;
+    }
+
+    //Records the positions of the photos from index on, after photos were added or removed there.
+    private void reindex(int index) {
+        for (int i = index; i < photos.size(); i++) {
+            indexes.put(photos.get(i), i);
+        }
+    }
+}
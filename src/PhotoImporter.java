@@ -0,0 +1,179 @@
+import javax.swing.*;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
+
+//Imports every photo under a folder. The tree is walked with NIO and each file's metadata and content hash
+//are read in parallel on the fork-join pool; nothing touches the catalog here, so the caller can commit the batch at once.
+public class PhotoImporter {
+    private static final Set<String> EXTENSIONS = new HashSet<>(Arrays.asList("png", "jpg", "jpeg"));
+    private static final int PROGRESS_STEP = 200;
+
+    //Callbacks, all made on the EDT.
+    public interface Listener {
+        void progress(int done, int total);
+
+        void finished(Report report);
+    }
+
+    //Outcome of an import: the photos read, in path order, plus everything that went wrong.
+    public static class Report {
+        private final List<Photo> photos;
+        private final List<String> errors;
+        private final int fileCount;
+        private final int skippedCount;
+        private final long elapsedNanos;
+
+        Report(List<Photo> photos, List<String> errors, int fileCount, int skippedCount, long elapsedNanos) {
+            this.photos = photos;
+            this.errors = errors;
+            this.fileCount = fileCount;
+            this.skippedCount = skippedCount;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public List<Photo> getPhotos() {
+            return photos;
+        }
+
+        public List<String> getErrors() {
+            return errors;
+        }
+
+        public int getFileCount() {
+            return fileCount;
+        }
+
+        //Files left out because their path was already in the catalog.
+        public int getSkippedCount() {
+            return skippedCount;
+        }
+
+        public double getSeconds() {
+            return elapsedNanos / 1e9;
+        }
+
+        public double getFilesPerSecond() {
+            return getSeconds() == 0 ? 0 : fileCount / getSeconds();
+        }
+    }
+
+    private PhotoImporter() {
+    }
+
+    //Starts importing in the background and returns immediately. Files whose absolute path is in
+    //knownPaths are skipped; the set must not change while the import runs. Perceptual hashes, needed
+    //to find near-duplicates, cost a decode per file and are only computed when asked for.
+    public static void importFolder(Path folder, Set<String> knownPaths, boolean perceptual, Listener listener) {
+        Thread thread = new Thread(() -> {
+            Report report = scan(folder, knownPaths, perceptual,
+                    (done, total) -> SwingUtilities.invokeLater(() -> listener.progress(done, total)));
+            SwingUtilities.invokeLater(() -> listener.finished(report));
+        }, "photo-importer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    //Imports on the calling thread; progress is reported every PROGRESS_STEP files, from worker threads.
+    public static Report scan(Path folder, Set<String> knownPaths, boolean perceptual, BiConsumer<Integer, Integer> progress) {
+        long start = System.nanoTime();
+        Queue<String> errors = new ConcurrentLinkedQueue<>();
+        List<Path> files = findPhotos(folder, errors);
+        int fileCount = files.size();
+        files.removeIf(file -> knownPaths.contains(file.toString()));
+        int skippedCount = fileCount - files.size();
+
+        AtomicInteger done = new AtomicInteger();
+        int total = files.size();
+        List<Photo> photos = files.parallelStream()
+                .map(file -> {
+                    Photo photo = readPhoto(file, perceptual, errors);
+                    int count = done.incrementAndGet();
+                    if (count % PROGRESS_STEP == 0 || count == total) {
+                        progress.accept(count, total);
+                    }
+                    return photo;
+                })
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+
+        List<String> sortedErrors = new ArrayList<>(errors);
+        Collections.sort(sortedErrors);
+        return new Report(photos, sortedErrors, fileCount, skippedCount, System.nanoTime() - start);
+    }
+
+    //Reads a few photo files on the calling thread, without perceptual hashes. Unreadable files are reported in errors.
+    public static List<Photo> readPhotos(List<Path> files, Queue<String> errors) {
+        List<Photo> photos = new ArrayList<>();
+        for (Path file : files) {
+            Photo photo = readPhoto(file.toAbsolutePath(), false, errors);
+            if (photo != null) {
+                photos.add(photo);
+            }
+        }
+        return photos;
+    }
+
+    //Lists the photos under a folder in path order. Unreadable directories are reported, not fatal.
+    public static List<Path> findPhotos(Path folder, Queue<String> errors) {
+        List<Path> files = new ArrayList<>();
+        try {
+            Files.walkFileTree(folder, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                    if (attributes.isRegularFile() && isPhoto(file)) {
+                        files.add(file.toAbsolutePath());
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    errors.add(file + ": " + e.getMessage());
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            errors.add(folder + ": " + e.getMessage());
+        }
+        Collections.sort(files);
+        return files;
+    }
+
+    //True for files with the extension of a photo the application can read.
+    public static boolean isPhoto(Path file) {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot > 0 && EXTENSIONS.contains(name.substring(dot + 1).toLowerCase());
+    }
+
+    //Builds a photo from the file's metadata: titled after the file name, dated by capture date,
+    //tagged with its keywords and described by its dimensions.
+    private static Photo readPhoto(Path file, boolean perceptual, Queue<String> errors) {
+        try {
+            PhotoMetadata metadata = PhotoMetadata.read(file);
+            String name = file.getFileName().toString();
+            String title = name.substring(0, name.lastIndexOf('.'));
+            String description = metadata.getWidth() + " x " + metadata.getHeight();
+            Photo photo = new Photo(title, description, metadata.getCaptureDate(), file.toString());
+            for (String keyword : metadata.getKeywords()) {
+                if (!keyword.isEmpty()) {
+                    photo.addTag(keyword);
+                }
+            }
+            photo.setContentHash(ContentHasher.contentHash(file));
+            if (perceptual) {
+                photo.setPerceptualHash(ContentHasher.perceptualHash(file.toFile()));
+            }
+            return photo;
+        } catch (IOException | RuntimeException e) {
+            errors.add(file + ": " + e.getMessage());
+            return null;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+import javax.swing.*;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.LongPredicate;
+
+//Reads the per-photo files of a folder on the fork-join pool and hands the photos over in batches, on the
+//loader thread so they can be added to the catalog there; the UI is only told how far loading has got.
+public class PhotoLoader {
+    private static final int BATCH_SIZE = 500;
+    private static final Metrics.Timer LOAD_TIMER = Metrics.timer("photos.load");
+    private static final Metrics.Timer DECODE_TIMER = Metrics.timer("photos.decodeBatch");
+
+    public interface Listener {
+        //Made on the loader thread, one batch at a time in file order.
+        void batchLoaded(List<Photo> photos);
+
+        //Made on the EDT, like finished.
+        void progress(int loaded, int total);
+
+        void finished();
+    }
+
+    private PhotoLoader() {
+    }
+
+    //Starts loading in the background and returns immediately. Files named after the id of a photo that is
+    //known, e.g. already in the catalog, aren't read at all, so a startup only reads the files the catalog lacks;
+    //the folder is still listed in full.
+    public static void load(File folder, LongPredicate known, Listener listener) {
+        Thread thread = new Thread(() -> {
+            CatalogIoEvent event = new CatalogIoEvent("load photo files", folder);
+            event.begin();
+            Metrics.Sample sample = LOAD_TIMER.start();
+            File[] files = folder.listFiles((dir, name) -> name.endsWith(".dat") && !isKnown(name, known));
+            if (files == null) {
+                files = new File[0];
+            }
+            Arrays.sort(files);
+            //Decode all batches concurrently, but publish them in file order
+            List<CompletableFuture<List<Photo>>> batches = new ArrayList<>();
+            for (int start = 0; start < files.length; start += BATCH_SIZE) {
+                File[] batch = Arrays.copyOfRange(files, start, Math.min(start + BATCH_SIZE, files.length));
+                batches.add(CompletableFuture.supplyAsync(() -> decode(batch)));
+            }
+            int total = files.length;
+            int loaded = 0;
+            for (CompletableFuture<List<Photo>> batch : batches) {
+                List<Photo> photos = batch.join();
+                listener.batchLoaded(photos);
+                int done = loaded = Math.min(loaded + BATCH_SIZE, total);
+                SwingUtilities.invokeLater(() -> listener.progress(done, total));
+            }
+            sample.close();
+            event.records = total;
+            event.commit();
+            SwingUtilities.invokeLater(listener::finished);
+        }, "photo-loader");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    //Photo files are named after the photo's id in hex; files named otherwise were written by older versions.
+    private static boolean isKnown(String fileName, LongPredicate known) {
+        try {
+            return known.test(Long.parseUnsignedLong(fileName.substring(0, fileName.length() - ".dat".length()), 16));
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private static List<Photo> decode(File[] files) {
+        List<Photo> photos = new ArrayList<>(files.length);
+        DECODE_TIMER.time(() -> {
+            for (File file : files) {
+                try {
+                    Photo photo = CatalogFormat.readPhotoFile(file);
+                    File named = new File(file.getParentFile(), CatalogFormat.photoFileName(photo));
+                    if (!named.equals(file)) {
+                        //Named after the title by an older version: move it to its id, so later startups skip it
+                        CatalogFormat.writePhotoFile(photo, named);
+                        file.delete();
+                    } else if (CatalogFormat.isOutdatedPhotoFile(file)) {
+                        CatalogFormat.writePhotoFile(photo, file); //Migrate to the current format, fixing the photo's id
+                    }
+                    photos.add(photo);
+                } catch (IOException e) {
+                    DECODE_TIMER.failed(e);
+                }
+            }
+        });
+        return photos;
+    }
+}
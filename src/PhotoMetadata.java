@@ -0,0 +1,209 @@
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+//Metadata read from an image file's headers without decoding its pixels: capture date, dimensions and keywords.
+//JPEG headers are parsed directly (EXIF DateTimeOriginal/DateTime, IPTC keywords, SOF dimensions);
+//other formats only get their dimensions, through ImageIO. Without a capture date the file's mtime is used.
+public class PhotoMetadata {
+    private static final int TIFF_DATE_TIME = 0x0132;
+    private static final int TIFF_EXIF_IFD = 0x8769;
+    private static final int EXIF_DATE_TIME_ORIGINAL = 0x9003;
+
+    private LocalDate captureDate;
+    private int width;
+    private int height;
+    private final List<String> keywords = new ArrayList<>();
+
+    private PhotoMetadata() {
+    }
+
+    public static PhotoMetadata read(Path file) throws IOException {
+        PhotoMetadata metadata = new PhotoMetadata();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readUnsignedShort() == 0xffd8) {
+                metadata.readJpegSegments(in);
+            }
+        } catch (EOFException e) {
+            //Truncated header; keep whatever was found
+        }
+        if (metadata.width == 0) {
+            metadata.readDimensions(file);
+        }
+        if (metadata.captureDate == null) {
+            metadata.captureDate = Files.getLastModifiedTime(file).toInstant().atZone(ZoneId.systemDefault()).toLocalDate();
+        }
+        return metadata;
+    }
+
+    public LocalDate getCaptureDate() {
+        return captureDate;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public List<String> getKeywords() {
+        return keywords;
+    }
+
+    //Walks the JPEG markers up to the start of the image data.
+    private void readJpegSegments(DataInputStream in) throws IOException {
+        while (true) {
+            int marker = in.readUnsignedShort();
+            if ((marker & 0xff00) != 0xff00 || marker == 0xffd9 || marker == 0xffda) {
+                return;
+            }
+            int length = in.readUnsignedShort() - 2;
+            if (marker == 0xffe1 || marker == 0xffed || isStartOfFrame(marker)) {
+                byte[] segment = new byte[length];
+                in.readFully(segment);
+                if (marker == 0xffe1) {
+                    readExif(segment);
+                } else if (marker == 0xffed) {
+                    readIptc(segment);
+                } else {
+                    height = ((segment[1] & 0xff) << 8) | (segment[2] & 0xff);
+                    width = ((segment[3] & 0xff) << 8) | (segment[4] & 0xff);
+                }
+            } else {
+                in.skipBytes(length);
+            }
+        }
+    }
+
+    private static boolean isStartOfFrame(int marker) {
+        return marker >= 0xffc0 && marker <= 0xffcf && marker != 0xffc4 && marker != 0xffc8 && marker != 0xffcc;
+    }
+
+    //APP1: "Exif\0\0" followed by a TIFF structure.
+    private void readExif(byte[] segment) {
+        if (segment.length < 14 || !new String(segment, 0, 4, StandardCharsets.US_ASCII).equals("Exif")) {
+            return;
+        }
+        ByteBuffer tiff = ByteBuffer.wrap(segment, 6, segment.length - 6).slice();
+        tiff.order(tiff.get(0) == 'I' ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+        try {
+            String dateTime = null;
+            String dateTimeOriginal = null;
+            int ifd0 = tiff.getInt(4);
+            int entries = tiff.getShort(ifd0) & 0xffff;
+            for (int i = 0; i < entries; i++) {
+                int entry = ifd0 + 2 + i * 12;
+                int tag = tiff.getShort(entry) & 0xffff;
+                if (tag == TIFF_DATE_TIME) {
+                    dateTime = readAscii(tiff, entry);
+                } else if (tag == TIFF_EXIF_IFD) {
+                    int exifIfd = tiff.getInt(entry + 8);
+                    int exifEntries = tiff.getShort(exifIfd) & 0xffff;
+                    for (int j = 0; j < exifEntries; j++) {
+                        int exifEntry = exifIfd + 2 + j * 12;
+                        if ((tiff.getShort(exifEntry) & 0xffff) == EXIF_DATE_TIME_ORIGINAL) {
+                            dateTimeOriginal = readAscii(tiff, exifEntry);
+                        }
+                    }
+                }
+            }
+            captureDate = parseExifDate(dateTimeOriginal != null ? dateTimeOriginal : dateTime);
+        } catch (IndexOutOfBoundsException e) {
+            //Malformed EXIF block; ignore it
+        }
+    }
+
+    //Reads an ASCII IFD value, which is stored in place when it fits in four bytes.
+    private static String readAscii(ByteBuffer tiff, int entry) {
+        int count = tiff.getInt(entry + 4);
+        int offset = count <= 4 ? entry + 8 : tiff.getInt(entry + 8);
+        byte[] bytes = new byte[Math.max(0, count - 1)];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = tiff.get(offset + i);
+        }
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+
+    //EXIF dates look like "2023:05:14 18:30:00"; unset ones are blank or zeroed.
+    private static LocalDate parseExifDate(String value) {
+        if (value == null || !value.matches("\\d{4}:\\d{2}:\\d{2}.*")) {
+            return null;
+        }
+        try {
+            return LocalDate.of(Integer.parseInt(value.substring(0, 4)), Integer.parseInt(value.substring(5, 7)),
+                    Integer.parseInt(value.substring(8, 10)));
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    //APP13: "Photoshop 3.0\0" followed by 8BIM resources; resource 0x0404 holds IPTC datasets.
+    private void readIptc(byte[] segment) {
+        String header = "Photoshop 3.0\0";
+        if (segment.length < header.length()
+                || !new String(segment, 0, header.length(), StandardCharsets.US_ASCII).equals(header)) {
+            return;
+        }
+        ByteBuffer in = ByteBuffer.wrap(segment);
+        in.position(header.length());
+        try {
+            while (in.remaining() >= 12 && in.getInt() == 0x3842494d) { //"8BIM"
+                int resource = in.getShort() & 0xffff;
+                int nameLength = in.get() & 0xff;
+                in.position(in.position() + nameLength + ((nameLength + 1) % 2)); //Pascal name padded to even
+                int size = in.getInt();
+                int end = in.position() + size;
+                if (resource == 0x0404) {
+                    readIptcDatasets(in, end);
+                }
+                in.position(end + (size % 2));
+            }
+        } catch (RuntimeException e) {
+            //Malformed resource block; keep the keywords read so far
+        }
+    }
+
+    //Collects dataset 2:25 (keywords).
+    private void readIptcDatasets(ByteBuffer in, int end) {
+        while (in.position() + 5 <= end && in.get() == 0x1c) {
+            int record = in.get() & 0xff;
+            int dataset = in.get() & 0xff;
+            int length = in.getShort() & 0xffff;
+            byte[] value = new byte[length];
+            in.get(value);
+            if (record == 2 && dataset == 25) {
+                keywords.add(new String(value, StandardCharsets.UTF_8).trim());
+            }
+        }
+    }
+
+    private void readDimensions(Path file) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(file.toFile())) {
+            Iterator<ImageReader> readers = input == null ? null : ImageIO.getImageReaders(input);
+            if (readers == null || !readers.hasNext()) {
+                throw new IOException("Unsupported image format");
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                width = reader.getWidth(0);
+                height = reader.getHeight(0);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+}
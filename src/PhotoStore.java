@@ -0,0 +1,146 @@
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+//Reads photo descriptions back from the snapshot on demand, so photos loaded from it don't keep them in
+//memory. A photo only holds the offset of its record; the descriptions read most recently are kept in a
+//bounded LRU cache. Reads go through a block buffer, so reading many photos in snapshot order, e.g. to
+//build the description index, costs one read per block rather than one per photo.
+//The file stays open. Later snapshots are written to new files, and this one is only deleted once the store
+//is closed.
+//It is read through an asynchronous channel because interrupting a thread blocked on a FileChannel closes
+//the channel for everyone, and searches that are superseded get interrupted.
+public class PhotoStore implements Closeable {
+    private static final int CACHE_SIZE = 10000;
+    private static final int BLOCK_SIZE = 64 * 1024;
+
+    private final AsynchronousFileChannel channel;
+    private final short version;
+    private final ByteBuffer block = ByteBuffer.allocate(BLOCK_SIZE);
+    private long blockStart = -1;
+    private final Map<Integer, String> cache = new LinkedHashMap<Integer, String>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, String> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    private PhotoStore(AsynchronousFileChannel channel, short version) {
+        this.channel = channel;
+        this.version = version;
+    }
+
+    //Opens a snapshot in the current binary format or one of its earlier versions.
+    public static PhotoStore open(File snapshotFile) throws IOException {
+        AsynchronousFileChannel channel = AsynchronousFileChannel.open(snapshotFile.toPath(), StandardOpenOption.READ);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(6);
+            readFully(channel, header, 0);
+            header.flip();
+            return new PhotoStore(channel, CatalogFormat.snapshotVersion(header));
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    //The description of the photo whose record starts at an offset. Fails soft: if the file can't be read,
+    //the photo shows no description rather than breaking whatever asked for it.
+    public synchronized String description(int offset) {
+        String description = cache.get(offset);
+        if (description == null) {
+            try {
+                description = CatalogFormat.readDescription(record(offset), version);
+                cache.put(offset, description);
+            } catch (ClosedChannelException e) {
+                return ""; //The catalog was closed or loaded again; this photo is no longer in it
+            } catch (IOException e) {
+                e.printStackTrace();
+                return "";
+            }
+        }
+        return description;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+        cache.clear();
+    }
+
+    //A record is [length][bytes]; returns its bytes.
+    private ByteBuffer record(long offset) throws IOException {
+        int length = bytes(offset, 4).getInt();
+        return bytes(offset + 4, length);
+    }
+
+    private ByteBuffer bytes(long offset, int length) throws IOException {
+        if (length > BLOCK_SIZE) {
+            ByteBuffer large = ByteBuffer.allocate(length);
+            readFully(channel, large, offset);
+            large.flip();
+            return large;
+        }
+        if (blockStart < 0 || offset < blockStart || offset + length > blockStart + block.limit()) {
+            block.clear();
+            blockStart = -1;
+            readAvailable(block, offset);
+            block.flip();
+            if (block.limit() < length) {
+                throw new EOFException("Photo record past the end of the snapshot");
+            }
+            blockStart = offset;
+        }
+        ByteBuffer bytes = block.duplicate();
+        bytes.position((int) (offset - blockStart));
+        bytes.limit(bytes.position() + length);
+        return bytes;
+    }
+
+    //Fills the buffer, or reads up to the end of the file.
+    private void readAvailable(ByteBuffer buffer, long offset) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (read(channel, buffer, offset + buffer.position()) < 0) {
+                return;
+            }
+        }
+    }
+
+    private static void readFully(AsynchronousFileChannel channel, ByteBuffer buffer, long offset) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (read(channel, buffer, offset + buffer.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+    }
+
+    //Waits for a read without giving up on interrupts, which are passed on once it is done.
+    private static int read(AsynchronousFileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        Future<Integer> read = channel.read(buffer, position);
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return read.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,183 @@
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+//Decodes scaled previews off the EDT and keeps recent ones in an LRU cache bounded by total pixels.
+//Previews come from the on-disk thumbnail store when possible; originals are subsampled while decoding,
+//so a multi-megapixel JPEG is never fully expanded in memory.
+public class PreviewLoader {
+    private static final long CACHE_BUDGET_PIXELS = 32L * 1024 * 1024;
+
+    private final ExecutorService decoder = Executors.newFixedThreadPool(2, runnable -> {
+        Thread thread = new Thread(runnable, "preview-loader");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final LinkedHashMap<String, BufferedImage> cache = new LinkedHashMap<>(64, 0.75f, true);
+    private long cachedPixels;
+    private final ThumbnailStore thumbnailStore;
+
+    public PreviewLoader(ThumbnailStore thumbnailStore) {
+        this.thumbnailStore = thumbnailStore;
+    }
+
+    //Returns a cached preview, or null if it has to be loaded.
+    public ImageIcon getCached(String path, int width) {
+        BufferedImage image = getCachedImage(path, width);
+        return image == null ? null : new ImageIcon(image);
+    }
+
+    //Same as getCached without wrapping the image, for painting code that runs for every visible cell.
+    public BufferedImage getCachedImage(String path, int width) {
+        synchronized (cache) {
+            return cache.get(key(path, width));
+        }
+    }
+
+    //Loads a preview scaled to the given width in the background. Exactly one of the callbacks is run,
+    //on the EDT, unless the returned future is cancelled first.
+    public Future<?> load(String path, int width, Consumer<ImageIcon> onLoaded, Consumer<Exception> onError) {
+        ImageIcon cached = getCached(path, width);
+        if (cached != null) {
+            SwingUtilities.invokeLater(() -> onLoaded.accept(cached));
+            return CompletableFuture.completedFuture(null);
+        }
+        PreviewTask task = new PreviewTask(() -> {
+            BufferedImage image = thumbnailStore.get(path, width);
+            put(key(path, width), image);
+            return image;
+        }, onLoaded, onError);
+        decoder.execute(task);
+        return task;
+    }
+
+    //A decode whose callbacks are dropped once it has been cancelled, even if decoding already finished.
+    private static class PreviewTask extends FutureTask<BufferedImage> {
+        private final Consumer<ImageIcon> onLoaded;
+        private final Consumer<Exception> onError;
+        private volatile boolean dropped;
+
+        PreviewTask(Callable<BufferedImage> decode, Consumer<ImageIcon> onLoaded, Consumer<Exception> onError) {
+            super(decode);
+            this.onLoaded = onLoaded;
+            this.onError = onError;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            dropped = true;
+            return super.cancel(mayInterruptIfRunning);
+        }
+
+        @Override
+        protected void done() {
+            if (dropped) {
+                return;
+            }
+            try {
+                BufferedImage image = get();
+                publish(() -> onLoaded.accept(new ImageIcon(image)));
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                publish(() -> onError.accept(cause instanceof Exception ? (Exception) cause : new Exception(cause)));
+            } catch (InterruptedException | CancellationException ignored) {
+                //Superseded by a newer request
+            }
+        }
+
+        private void publish(Runnable callback) {
+            SwingUtilities.invokeLater(() -> {
+                if (!dropped) {
+                    callback.run();
+                }
+            });
+        }
+    }
+
+    //Reads the image with the largest subsampling that still leaves it at least width pixels wide,
+    //then scales it to exactly width.
+    static BufferedImage decodeScaled(File file, int width) throws IOException {
+        if (!file.isFile()) {
+            throw new IOException("File not found: " + file);
+        }
+        try (ImageInputStream input = ImageIO.createImageInputStream(file)) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                throw new IOException("Unsupported image format: " + file);
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                ImageReadParam param = reader.getDefaultReadParam();
+                int subsampling = Math.max(1, reader.getWidth(0) / width);
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new IOException("Preview cancelled");
+                }
+                return scale(reader.read(0, param), width);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private static BufferedImage scale(BufferedImage source, int width) {
+        int height = Math.max(1, (int) Math.round((double) source.getHeight() * width / source.getWidth()));
+        int type = source.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+        BufferedImage scaled = new BufferedImage(width, height, type);
+        Graphics2D g = scaled.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.drawImage(source, 0, 0, width, height, null);
+        g.dispose();
+        return scaled;
+    }
+
+    //Drops the cached previews of a file whose content changed.
+    public void invalidate(String path) {
+        synchronized (cache) {
+            Iterator<Map.Entry<String, BufferedImage>> entries = cache.entrySet().iterator();
+            while (entries.hasNext()) {
+                Map.Entry<String, BufferedImage> entry = entries.next();
+                if (entry.getKey().substring(entry.getKey().indexOf(':') + 1).equals(path)) {
+                    cachedPixels -= pixels(entry.getValue());
+                    entries.remove();
+                }
+            }
+        }
+    }
+
+    //Caches an image, evicting the least recently used ones until the cache fits its pixel budget.
+    private void put(String key, BufferedImage image) {
+        synchronized (cache) {
+            BufferedImage previous = cache.put(key, image);
+            if (previous != null) {
+                cachedPixels -= pixels(previous);
+            }
+            cachedPixels += pixels(image);
+            Iterator<Map.Entry<String, BufferedImage>> eldest = cache.entrySet().iterator();
+            while (cachedPixels > CACHE_BUDGET_PIXELS && cache.size() > 1) {
+                cachedPixels -= pixels(eldest.next().getValue());
+                eldest.remove();
+            }
+        }
+    }
+
+    private static long pixels(BufferedImage image) {
+        return (long) image.getWidth() * image.getHeight();
+    }
+
+    private static String key(String path, int width) {
+        return width + ":" + path;
+    }
+}
@@ -0,0 +1,23 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+//Flight Recorder event for a catalog search, so slow queries show up in a recording with their text.
+@Name("photomanager.Search")
+@Label("Catalog Search")
+@Category("Photo Manager")
+public class SearchEvent extends jdk.jfr.Event {
+    @Label("Query")
+    String query;
+
+    @Label("Default Criteria")
+    String criteria;
+
+    @Label("Results")
+    int results;
+
+    @Label("With Facets")
+    @Description("Whether results were also counted per tag, month and collection")
+    boolean faceted;
+}
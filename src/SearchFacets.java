@@ -0,0 +1,77 @@
+import java.util.Collections;
+import java.util.List;
+
+//Counts of the photos in a search result per tag, per year and month, and per collection.
+//Each facet carries the search clause that narrows the result down to its photos.
+public class SearchFacets {
+    private final int total;
+    private final List<Facet> tags;
+    private final List<Facet> years;
+    private final List<Facet> collections;
+
+    public SearchFacets(int total, List<Facet> tags, List<Facet> years, List<Facet> collections) {
+        this.total = total;
+        this.tags = tags;
+        this.years = years;
+        this.collections = collections;
+    }
+
+    public int getTotal() {
+        return total;
+    }
+
+    //The most common tags in the result, most common first.
+    public List<Facet> getTags() {
+        return tags;
+    }
+
+    //Years in order, each with its months as children.
+    public List<Facet> getYears() {
+        return years;
+    }
+
+    //Collections holding photos of the result, fullest first.
+    public List<Facet> getCollections() {
+        return collections;
+    }
+
+    public static class Facet {
+        private final String label;
+        private final String clause;
+        private final int count;
+        private final List<Facet> children;
+
+        public Facet(String label, String clause, int count) {
+            this(label, clause, count, Collections.emptyList());
+        }
+
+        public Facet(String label, String clause, int count, List<Facet> children) {
+            this.label = label;
+            this.clause = clause;
+            this.count = count;
+            this.children = children;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+        //Search clause selecting the photos of this facet, e.g. "tags:beach" or "date:05/2023".
+        public String getClause() {
+            return clause;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public List<Facet> getChildren() {
+            return children;
+        }
+
+        @Override
+        public String toString() {
+            return label + " (" + count + ")";
+        }
+    }
+}
@@ -0,0 +1,313 @@
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.function.Predicate;
+
+//Search indexes over the photo library, so queries don't have to scan every photo.
+//Each indexed photo gets a dense integer slot that the indexes use in their bitmaps.
+public class SearchIndex {
+    private static final int TAG_FACETS = 20;
+    private static final DateTimeFormatter MONTH_LABEL = DateTimeFormatter.ofPattern("MMMM yyyy", Locale.ENGLISH);
+    private static final DateTimeFormatter MONTH_CLAUSE = DateTimeFormatter.ofPattern("MM/yyyy");
+
+    private final List<Photo> photos = new ArrayList<>();
+    private final Map<Photo, Integer> slots = new IdentityHashMap<>();
+    private final BitSet freeSlots = new BitSet();
+    private final TagIndex tagIndex = new TagIndex();
+    private final TextIndex titleIndex = new TextIndex();
+    private volatile TextIndex descriptionIndex; //Built by the first description search, reading descriptions back
+    private final DateIndex dateIndex = new DateIndex();
+    private final CollectionIndex collectionIndex = new CollectionIndex();
+
+    //Indexes a photo. Photos that are already indexed are ignored.
+    public void add(Photo photo) {
+        if (slots.containsKey(photo)) {
+            return;
+        }
+        int slot = freeSlots.nextSetBit(0);
+        if (slot < 0) {
+            slot = photos.size();
+            photos.add(photo);
+        } else {
+            freeSlots.clear(slot);
+            photos.set(slot, photo);
+        }
+        slots.put(photo, slot);
+        tagIndex.add(slot, photo.getTagIds());
+        titleIndex.add(slot, photo.getTitle());
+        if (descriptionIndex != null) {
+            descriptionIndex.add(slot, photo.getDescription());
+        }
+        dateIndex.add(slot, photo.getEpochDay());
+    }
+
+    //Removes a photo from the indexes and frees its slot for reuse.
+    public void remove(Photo photo) {
+        int slot = unindex(photo);
+        if (slot >= 0) {
+            dateIndex.remove(slot, photo.getEpochDay());
+            freeSlots.set(slot);
+        }
+    }
+
+    //Removes photos from the indexes, taking them out of the date index with a single pass however many there are.
+    public void removeAll(Collection<Photo> removed) {
+        BitSet removedSlots = new BitSet();
+        for (Photo photo : removed) {
+            int slot = unindex(photo);
+            if (slot >= 0) {
+                removedSlots.set(slot);
+            }
+        }
+        dateIndex.removeAll(removedSlots);
+        freeSlots.or(removedSlots);
+    }
+
+    //Takes a photo out of every index but the date index and returns its slot, or -1 if it wasn't indexed.
+    //The slot isn't free yet.
+    private int unindex(Photo photo) {
+        Integer slot = slots.remove(photo);
+        if (slot == null) {
+            return -1;
+        }
+        tagIndex.remove(slot, photo.getTagIds());
+        titleIndex.remove(slot);
+        if (descriptionIndex != null) {
+            descriptionIndex.remove(slot);
+        }
+        collectionIndex.removeSlot(slot);
+        photos.set(slot, null);
+        return slot;
+    }
+
+    public void clear() {
+        photos.clear();
+        slots.clear();
+        freeSlots.clear();
+        tagIndex.clear();
+        titleIndex.clear();
+        descriptionIndex = null;
+        dateIndex.clear();
+        collectionIndex.clear();
+    }
+
+    //Reindexes the tags of a photo whose tags were edited; the photo keeps its slot and its collections.
+    public void retag(Photo photo, int[] oldTagIds) {
+        Integer slot = slots.get(photo);
+        if (slot != null) {
+            tagIndex.remove(slot, oldTagIds);
+            tagIndex.add(slot, photo.getTagIds());
+        }
+    }
+
+    //Records that an indexed photo is in a collection.
+    public void addToCollection(String collectionName, Photo photo) {
+        Integer slot = slots.get(photo);
+        if (slot != null) {
+            collectionIndex.add(collectionName, slot);
+        }
+    }
+
+    public void removeFromCollection(String collectionName, Photo photo) {
+        Integer slot = slots.get(photo);
+        if (slot != null) {
+            collectionIndex.remove(collectionName, slot);
+        }
+    }
+
+    public void removeCollection(String collectionName) {
+        collectionIndex.removeCollection(collectionName);
+    }
+
+    //Tells whether an indexed photo is in a collection with a name, ignoring case.
+    public boolean isInCollection(Photo photo, String collectionName) {
+        Integer slot = slots.get(photo);
+        return slot != null && collectionIndex.contains(collectionName, slot);
+    }
+
+    //Runs a search bar query; bare values are matched against the given criterion.
+    public List<Photo> search(String query, String defaultCriteria) {
+        return toPhotos(SearchQuery.compile(query, defaultCriteria).evaluate(this));
+    }
+
+    //Runs a search bar query and counts its results per tag, month and collection.
+    public SearchResults searchWithFacets(String query, String defaultCriteria) {
+        BitSet matches = SearchQuery.compile(query, defaultCriteria).evaluate(this);
+        return new SearchResults(toPhotos(matches), facets(matches));
+    }
+
+    //Runs a search bar query and hands its matches to found in slot order, a slice at a time. The index
+    //lookups are done at once; the candidates they leave are then checked sliceSize at a time, and each
+    //slice's matches are handed over as soon as it is checked, even if there are none. Stops as soon as found
+    //returns false. Returns all the matches with their facet counts, or null if stopped.
+    public SearchResults searchInSlices(String query, String defaultCriteria, int sliceSize, Predicate<List<Photo>> found) {
+        SearchQuery.Plan plan = SearchQuery.compile(query, defaultCriteria).plan(this);
+        BitSet matches = plan.residual == null ? plan.candidates : new BitSet();
+        List<Photo> all = new ArrayList<>();
+        List<Photo> slice = new ArrayList<>();
+        int checked = 0;
+        for (int slot = plan.candidates.nextSetBit(0); slot >= 0; slot = plan.candidates.nextSetBit(slot + 1)) {
+            Photo photo = photos.get(slot);
+            if (plan.residual == null || plan.residual.matches(photo, this::isInCollection)) {
+                matches.set(slot);
+                slice.add(photo);
+            }
+            if (++checked % sliceSize == 0) {
+                all.addAll(slice);
+                if (!found.test(slice)) {
+                    return null;
+                }
+                slice = new ArrayList<>();
+            }
+        }
+        all.addAll(slice);
+        if (!found.test(slice)) {
+            return null;
+        }
+        return new SearchResults(all, facets(matches));
+    }
+
+    //Counts photos that are still indexed per tag, month and collection.
+    public SearchFacets facets(Collection<Photo> photos) {
+        BitSet matches = new BitSet();
+        for (Photo photo : photos) {
+            Integer slot = slots.get(photo);
+            if (slot != null) {
+                matches.set(slot);
+            }
+        }
+        return facets(matches);
+    }
+
+    //Works on the indexes alone, without looking at any photo: tags are counted through the tag index's
+    //forward index, months in one pass over the date index, collections by intersecting their bitmaps.
+    private SearchFacets facets(BitSet matches) {
+        int total = matches.cardinality();
+
+        int[] tagCounts = tagIndex.countWithin(matches);
+        List<Integer> tagIds = new ArrayList<>();
+        for (int tagId = 0; tagId < tagCounts.length; tagId++) {
+            if (tagCounts[tagId] > 0) {
+                tagIds.add(tagId);
+            }
+        }
+        tagIds.sort((a, b) -> Integer.compare(tagCounts[b], tagCounts[a]));
+        List<SearchFacets.Facet> tags = new ArrayList<>();
+        for (int tagId : tagIds.subList(0, Math.min(TAG_FACETS, tagIds.size()))) {
+            String tag = TagDictionary.name(tagId);
+            tags.add(new SearchFacets.Facet(tag, "tags:" + SearchQuery.quote(tag), tagCounts[tagId]));
+        }
+
+        List<SearchFacets.Facet> years = new ArrayList<>();
+        List<SearchFacets.Facet> months = new ArrayList<>();
+        int yearCount = 0;
+        Iterator<Map.Entry<YearMonth, Integer>> byMonth = dateIndex.countByMonth(matches).entrySet().iterator();
+        Map.Entry<YearMonth, Integer> next = byMonth.hasNext() ? byMonth.next() : null;
+        while (next != null) {
+            YearMonth month = next.getKey();
+            months.add(new SearchFacets.Facet(month.format(MONTH_LABEL), "date:" + month.format(MONTH_CLAUSE), next.getValue()));
+            yearCount += next.getValue();
+            next = byMonth.hasNext() ? byMonth.next() : null;
+            if (next == null || next.getKey().getYear() != month.getYear()) {
+                String year = String.valueOf(month.getYear());
+                years.add(new SearchFacets.Facet(year, "date:" + year, yearCount, months));
+                months = new ArrayList<>();
+                yearCount = 0;
+            }
+        }
+
+        List<SearchFacets.Facet> collections = new ArrayList<>();
+        for (Map.Entry<String, Integer> entry : collectionIndex.countWithin(matches).entrySet()) {
+            collections.add(new SearchFacets.Facet(entry.getKey(), "in:" + SearchQuery.quote(entry.getKey()), entry.getValue()));
+        }
+        collections.sort((a, b) -> Integer.compare(b.getCount(), a.getCount()));
+
+        return new SearchFacets(total, tags, years, collections);
+    }
+
+    //Returns the slots of all indexed photos.
+    BitSet allSlots() {
+        BitSet all = new BitSet(photos.size());
+        all.set(0, photos.size());
+        all.andNot(freeSlots);
+        return all;
+    }
+
+    //Tags starting with prefix that indexed photos carry, most used first.
+    public List<String> suggestTags(String prefix, int limit) {
+        return tagIndex.suggest(prefix, limit);
+    }
+
+    BitSet tagPostings(int tagId) {
+        return tagIndex.lookup(tagId);
+    }
+
+    int tagCount(int tagId) {
+        return tagIndex.count(tagId);
+    }
+
+    BitSet titleMatches(String text) {
+        return titleIndex.lookup(text);
+    }
+
+    //Slots whose title may contain the text; see TextIndex.candidates.
+    BitSet titleCandidates(String text) {
+        return titleIndex.candidates(text);
+    }
+
+    BitSet descriptionMatches(String text) {
+        return descriptionIndex().lookup(text);
+    }
+
+    BitSet descriptionCandidates(String text) {
+        return descriptionIndex().candidates(text);
+    }
+
+    //Descriptions are mostly left on disk (see PhotoStore), and most sessions never search them, so their
+    //index is built when first needed and doesn't keep the text. Searches run concurrently under the
+    //catalog's read lock, hence the synchronization; changes can't happen meanwhile.
+    private synchronized TextIndex descriptionIndex() {
+        if (descriptionIndex == null) {
+            TextIndex index = new TextIndex(slot -> photos.get(slot).getDescription());
+            for (int slot = 0; slot < photos.size(); slot++) {
+                Photo photo = photos.get(slot);
+                if (photo != null) {
+                    index.add(slot, photo.getDescription());
+                }
+            }
+            descriptionIndex = index;
+        }
+        return descriptionIndex;
+    }
+
+    BitSet dateMatches(long fromDay, long toDay) {
+        return dateIndex.lookup(fromDay, toDay);
+    }
+
+    BitSet collectionMembers(String collectionName) {
+        return collectionIndex.lookup(collectionName);
+    }
+
+    int collectionCount(String collectionName) {
+        return collectionIndex.count(collectionName);
+    }
+
+    //Clears the slots whose photos don't match the predicate and returns the same bitmap.
+    BitSet filter(BitSet candidates, SearchQuery.Node predicate) {
+        for (int slot = candidates.nextSetBit(0); slot >= 0; slot = candidates.nextSetBit(slot + 1)) {
+            if (!predicate.matches(photos.get(slot), this::isInCollection)) {
+                candidates.clear(slot);
+            }
+        }
+        return candidates;
+    }
+
+    //Resolves a bitmap of slots back into photos.
+    private List<Photo> toPhotos(BitSet matches) {
+        List<Photo> result = new ArrayList<>(matches.cardinality());
+        for (int slot = matches.nextSetBit(0); slot >= 0; slot = matches.nextSetBit(slot + 1)) {
+            result.add(photos.get(slot));
+        }
+        return result;
+    }
+}
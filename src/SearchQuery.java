@@ -0,0 +1,652 @@
+import java.time.LocalDate;
+import java.util.*;
+import java.util.function.Function;
+
+//A search bar query compiled into a tree of predicates.
+//Syntax: clauses separated by spaces are ANDed; a clause is either "field:value" or a bare value
+//for the criterion picked in the combo box. Fields are title, desc, date, tags and in.
+//  tags:paris,summer|london   ',' is AND and '|' is OR (AND binds tighter)
+//  date:2023  date:05/2023  date:14/05/2023  date:01/2023..06/2023
+//  title:"summer trip"        quotes keep spaces inside a value
+//  in:"summer 2023"           photos in a collection
+//  in:italy|france  in:a,b    photos in either collection, or in both
+//  in:trips -in:rejected      '-' before a field clause leaves out the photos it matches
+//Without any field prefix the whole input is a single value, so the old single-criterion search still works.
+public class SearchQuery {
+    private static final int PLAN_CACHE_SIZE = 64;
+    private static final Map<String, SearchQuery> planCache = new LinkedHashMap<String, SearchQuery>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, SearchQuery> eldest) {
+            return size() > PLAN_CACHE_SIZE;
+        }
+    };
+
+    private final Node root;
+
+    private SearchQuery(Node root) {
+        this.root = root;
+    }
+
+    //Compiles a query, reusing the plan of an earlier query that normalizes to the same text.
+    public static SearchQuery compile(String text, String defaultCriteria) {
+        String normalized = text.trim().toLowerCase().replaceAll("\\s+", " ");
+        String key = defaultCriteria + "\n" + normalized;
+        synchronized (planCache) {
+            SearchQuery query = planCache.get(key);
+            if (query == null) {
+                query = new SearchQuery(parse(normalized, fieldOf(defaultCriteria)));
+                planCache.put(key, query);
+            }
+            return query;
+        }
+    }
+
+    //Evaluates the query against the indexes and returns the slots of the matching photos.
+    public BitSet evaluate(SearchIndex index) {
+        return root.plan(index).resolve(index);
+    }
+
+    //Evaluates what the indexes can answer at once, on bitmaps, and leaves the candidates to be checked photo
+    //by photo, e.g. a slice at a time.
+    Plan plan(SearchIndex index) {
+        return root.plan(index);
+    }
+
+    //Candidate slots, and the condition they still have to be checked against one by one, if any.
+    static class Plan {
+        final BitSet candidates;
+        final Node residual;
+
+        Plan(BitSet candidates, Node residual) {
+            this.candidates = candidates;
+            this.residual = residual;
+        }
+
+        //Checks all the candidates and returns the slots that match.
+        BitSet resolve(SearchIndex index) {
+            return residual == null ? candidates : index.filter(candidates, residual);
+        }
+    }
+
+    //Checks a single photo against the query; membership answers its collection clauses.
+    public boolean matches(Photo photo, Membership membership) {
+        return root.matches(photo, membership);
+    }
+
+    //Tells whether a photo is in a collection, the name matched ignoring case. Photos don't know their
+    //collections, so checking one photo against an "in:" clause needs this.
+    public interface Membership {
+        boolean isIn(Photo photo, String collectionName);
+    }
+
+    //True if every photo matching this query also matches the other one, e.g. "sunse" after "sun", or
+    //"tags:beach date:2023" after "tags:beach". Results of the other query can then be filtered instead of
+    //searching again. May return false for queries that do narrow, never true for ones that don't.
+    public boolean narrows(SearchQuery other) {
+        return implies(root, other.root);
+    }
+
+    //Adds a clause to a query, e.g. for drilling down into a facet. A plain value is quoted first, since with
+    //a field clause next to it its words would otherwise become separate values.
+    public static String refine(String text, String clause) {
+        String trimmed = text.trim();
+        if (trimmed.isEmpty()) {
+            return clause;
+        }
+        boolean hasFields = false;
+        for (String token : tokenize(trimmed)) {
+            hasFields |= isFieldClause(token);
+        }
+        return (hasFields || !trimmed.contains(" ") ? trimmed : quote(trimmed)) + " " + clause;
+    }
+
+    //Quotes a value if it has spaces or characters that would split it into several values.
+    public static String quote(String value) {
+        return value.contains(" ") || value.contains(",") || value.contains("|") ? "\"" + value + "\"" : value;
+    }
+
+    private static boolean implies(Node narrower, Node wider) {
+        if (wider instanceof And) {
+            for (Node child : ((And) wider).children) {
+                if (!implies(narrower, child)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (narrower instanceof Or) {
+            for (Node child : ((Or) narrower).children) {
+                if (!implies(child, wider)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (narrower instanceof And) {
+            for (Node child : ((And) narrower).children) {
+                if (implies(child, wider)) {
+                    return true;
+                }
+            }
+        }
+        if (wider instanceof Or) {
+            for (Node child : ((Or) wider).children) {
+                if (implies(narrower, child)) {
+                    return true;
+                }
+            }
+        }
+        return narrower.narrows(wider);
+    }
+
+    //Parsing
+
+    private static Node parse(String text, String defaultField) {
+        List<String> tokens = tokenize(text);
+        boolean hasFields = false;
+        for (String token : tokens) {
+            hasFields |= isFieldClause(token);
+        }
+        if (!hasFields) {
+            return parseValue(defaultField, text);
+        }
+        List<Node> clauses = new ArrayList<>();
+        for (String token : tokens) {
+            if (!isFieldClause(token)) {
+                clauses.add(parseValue(defaultField, token));
+            } else if (token.startsWith("-")) {
+                clauses.add(new Not(parseClause(token.substring(1))));
+            } else {
+                clauses.add(parseClause(token));
+            }
+        }
+        return clauses.size() == 1 ? clauses.get(0) : new And(clauses);
+    }
+
+    private static Node parseClause(String token) {
+        return parseValue(fieldPrefix(token), token.substring(token.indexOf(':') + 1));
+    }
+
+    //A "field:value" token, or one excluding its matches with a leading '-'.
+    private static boolean isFieldClause(String token) {
+        return fieldPrefix(token) != null || token.startsWith("-") && fieldPrefix(token.substring(1)) != null;
+    }
+
+    //Splits on spaces that are not inside double quotes.
+    private static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        boolean quoted = false;
+        for (char c : text.toCharArray()) {
+            if (c == '"') {
+                quoted = !quoted;
+            }
+            if (c == ' ' && !quoted) {
+                if (current.length() > 0) {
+                    tokens.add(current.toString());
+                    current.setLength(0);
+                }
+            } else {
+                current.append(c);
+            }
+        }
+        if (current.length() > 0) {
+            tokens.add(current.toString());
+        }
+        return tokens;
+    }
+
+    private static String unquote(String value) {
+        return value.replace("\"", "").trim();
+    }
+
+    //Returns the canonical field named by a "field:" prefix, or null if the token has none.
+    private static String fieldPrefix(String token) {
+        int colon = token.indexOf(':');
+        if (colon <= 0 || token.substring(0, colon).contains("\"")) {
+            return null;
+        }
+        return fieldOf(token.substring(0, colon));
+    }
+
+    private static String fieldOf(String name) {
+        switch (name.toLowerCase()) {
+            case "title":
+            case "titles":
+                return "title";
+            case "desc":
+            case "description":
+            case "descriptions":
+                return "desc";
+            case "date":
+            case "dates":
+                return "date";
+            case "tag":
+            case "tags":
+                return "tags";
+            case "in":
+            case "collection":
+                return "in";
+            default:
+                return null;
+        }
+    }
+
+    //Parses a value as it was typed; only collection names keep their quotes until they are split.
+    private static Node parseValue(String field, String value) {
+        switch (field) {
+            case "title":
+                return new TitleContains(unquote(value));
+            case "desc":
+                return new DescriptionContains(unquote(value));
+            case "date":
+                return parseDateRange(unquote(value));
+            case "tags":
+                return parseAndOr(unquote(value), HasTag::new);
+            case "in":
+                return parseAndOr(value, name -> new InCollection(unquote(name)));
+            default:
+                throw new IllegalArgumentException("Unknown search field: " + field);
+        }
+    }
+
+    //Builds an OR of AND groups of terms; blank terms are ignored. Separators inside quotes are part of a term.
+    private static Node parseAndOr(String value, Function<String, Node> term) {
+        List<Node> orGroups = new ArrayList<>();
+        for (String orGroup : splitOutsideQuotes(value, '|')) {
+            List<Node> andTerms = new ArrayList<>();
+            for (String andTerm : splitOutsideQuotes(orGroup, ',')) {
+                if (!unquote(andTerm).isEmpty()) {
+                    andTerms.add(term.apply(andTerm.trim()));
+                }
+            }
+            if (!andTerms.isEmpty()) {
+                orGroups.add(andTerms.size() == 1 ? andTerms.get(0) : new And(andTerms));
+            }
+        }
+        return orGroups.size() == 1 ? orGroups.get(0) : new Or(orGroups);
+    }
+
+    private static List<String> splitOutsideQuotes(String value, char separator) {
+        List<String> parts = new ArrayList<>();
+        int start = 0;
+        boolean quoted = false;
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) == '"') {
+                quoted = !quoted;
+            } else if (value.charAt(i) == separator && !quoted) {
+                parts.add(value.substring(start, i));
+                start = i + 1;
+            }
+        }
+        parts.add(value.substring(start));
+        return parts;
+    }
+
+    //Parses "from..to", where either side may be a day, a month or a year and either side may be left open.
+    private static Node parseDateRange(String value) {
+        int dots = value.indexOf("..");
+        if (dots < 0) {
+            LocalDate[] period = parsePeriod(value);
+            return new DateBetween(period[0], period[1]);
+        }
+        String from = value.substring(0, dots).trim();
+        String to = value.substring(dots + 2).trim();
+        return new DateBetween(from.isEmpty() ? LocalDate.MIN : parsePeriod(from)[0],
+                to.isEmpty() ? LocalDate.MAX : parsePeriod(to)[1]);
+    }
+
+    //Returns the first day and the day after the last day of a dd/MM/yyyy, MM/yyyy or yyyy period.
+    private static LocalDate[] parsePeriod(String value) {
+        try {
+            String[] parts = value.split("/");
+            if (value.matches("\\d{1,2}/\\d{1,2}/\\d{4}")) {
+                LocalDate day = LocalDate.of(Integer.parseInt(parts[2]), Integer.parseInt(parts[1]), Integer.parseInt(parts[0]));
+                return new LocalDate[]{day, day.plusDays(1)};
+            } else if (value.matches("\\d{1,2}/\\d{4}")) {
+                LocalDate month = LocalDate.of(Integer.parseInt(parts[1]), Integer.parseInt(parts[0]), 1);
+                return new LocalDate[]{month, month.plusMonths(1)};
+            } else if (value.matches("\\d{4}")) {
+                LocalDate year = LocalDate.of(Integer.parseInt(value), 1, 1);
+                return new LocalDate[]{year, year.plusYears(1)};
+            }
+        } catch (RuntimeException ignored) {
+            //Out of range day or month, reported below
+        }
+        throw new IllegalArgumentException("Invalid date '" + value + "'. Please use 'dd/MM/yyyy', 'MM/yyyy' or 'yyyy'.");
+    }
+
+    //Query tree
+
+    //A predicate over photos. Nodes that an index can answer override lookup.
+    abstract static class Node {
+        //Returns the matching slots straight from an index, or null if photos have to be checked one by one.
+        BitSet lookup(SearchIndex index) {
+            return null;
+        }
+
+        //Candidates from the index, and the condition they still have to meet. Checking photos against a
+        //node's text, which is what costs most, is left to the residual, so it can be done a slice at a time.
+        Plan plan(SearchIndex index) {
+            BitSet result = lookup(index);
+            return result != null ? new Plan(result, null) : new Plan(index.allSlots(), this);
+        }
+
+        //Upper bound on the number of matching photos, if the index can tell cheaply.
+        int estimate(SearchIndex index) {
+            return Integer.MAX_VALUE;
+        }
+
+        abstract boolean matches(Photo photo, Membership membership);
+
+        //Compares two single conditions; And and Or are handled by implies.
+        boolean narrows(Node wider) {
+            return false;
+        }
+    }
+
+    static class And extends Node {
+        private final List<Node> children;
+
+        And(List<Node> children) {
+            this.children = children;
+        }
+
+        @Override
+        BitSet lookup(SearchIndex index) {
+            return plan(index).resolve(index);
+        }
+
+        //Intersects the children's candidates rarest first, going by the tag counts, and stops as soon as
+        //nothing is left, so the posting lists of common tags are often never copied. What the children
+        //leave to check is checked on the survivors.
+        @Override
+        Plan plan(SearchIndex index) {
+            List<Node> planned = new ArrayList<>(children);
+            planned.sort(Comparator.comparingInt(child -> child.estimate(index)));
+            BitSet result = null;
+            List<Node> residuals = new ArrayList<>();
+            for (Node child : planned) {
+                if (result != null && result.isEmpty()) {
+                    return new Plan(result, null);
+                }
+                if (child instanceof Not && result != null) {
+                    BitSet excluded = ((Not) child).child.lookup(index);
+                    if (excluded != null) {
+                        result.andNot(excluded); //A difference, without building the complement
+                        continue;
+                    }
+                }
+                Plan childPlan = child.plan(index);
+                if (childPlan.residual != null) {
+                    residuals.add(childPlan.residual);
+                }
+                if (result == null) {
+                    result = childPlan.candidates;
+                } else {
+                    result.and(childPlan.candidates);
+                }
+            }
+            if (result == null) {
+                result = index.allSlots();
+            }
+            if (residuals.isEmpty() || result.isEmpty()) {
+                return new Plan(result, null);
+            }
+            return new Plan(result, residuals.size() == 1 ? residuals.get(0) : new And(residuals));
+        }
+
+        @Override
+        int estimate(SearchIndex index) {
+            int smallest = Integer.MAX_VALUE;
+            for (Node child : children) {
+                smallest = Math.min(smallest, child.estimate(index));
+            }
+            return smallest;
+        }
+
+        @Override
+        boolean matches(Photo photo, Membership membership) {
+            for (Node child : children) {
+                if (!child.matches(photo, membership)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    static class Or extends Node {
+        private final List<Node> children;
+
+        Or(List<Node> children) {
+            this.children = children;
+        }
+
+        @Override
+        BitSet lookup(SearchIndex index) {
+            return plan(index).resolve(index);
+        }
+
+        //Unions the children's candidates. If any child leaves some to check, they are all checked against
+        //the whole of this, as a candidate of one child may match another.
+        @Override
+        Plan plan(SearchIndex index) {
+            BitSet result = new BitSet();
+            boolean checked = false;
+            for (Node child : children) {
+                Plan childPlan = child.plan(index);
+                result.or(childPlan.candidates);
+                checked |= childPlan.residual != null;
+            }
+            return new Plan(result, checked ? this : null);
+        }
+
+        @Override
+        boolean matches(Photo photo, Membership membership) {
+            for (Node child : children) {
+                if (child.matches(photo, membership)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    //Matches the photos its child doesn't, e.g. "-in:rejected". Its estimate is left at the maximum, so
+    //And plans it last and can subtract it from what the other children matched.
+    static class Not extends Node {
+        private final Node child;
+
+        Not(Node child) {
+            this.child = child;
+        }
+
+        @Override
+        BitSet lookup(SearchIndex index) {
+            BitSet excluded = child.lookup(index);
+            if (excluded == null) {
+                return null;
+            }
+            BitSet result = index.allSlots();
+            result.andNot(excluded);
+            return result;
+        }
+
+        @Override
+        boolean narrows(Node wider) {
+            return wider instanceof Not && implies(((Not) wider).child, child);
+        }
+
+        @Override
+        boolean matches(Photo photo, Membership membership) {
+            return !child.matches(photo, membership);
+        }
+
+    }
+
+    static class HasTag extends Node {
+        private final String tag;
+        private int tagId = -1; //Looked up when first needed, since compiled queries are cached and the tag may be new
+
+        HasTag(String tag) {
+            this.tag = TagDictionary.normalize(tag);
+        }
+
+        private int tagId() {
+            if (tagId < 0) {
+                tagId = TagDictionary.find(tag);
+            }
+            return tagId;
+        }
+
+        @Override
+        BitSet lookup(SearchIndex index) {
+            return index.tagPostings(tagId());
+        }
+
+        @Override
+        int estimate(SearchIndex index) {
+            return index.tagCount(tagId());
+        }
+
+        @Override
+        boolean narrows(Node wider) {
+            return wider instanceof HasTag && ((HasTag) wider).tag.equals(tag);
+        }
+
+        @Override
+        boolean matches(Photo photo, Membership membership) {
+            int id = tagId();
+            return id >= 0 && photo.hasTag(id);
+        }
+    }
+
+    static class TitleContains extends Node {
+        private final String text;
+
+        TitleContains(String text) {
+            this.text = text;
+        }
+
+        @Override
+        BitSet lookup(SearchIndex index) {
+            return index.titleMatches(text);
+        }
+
+        @Override
+        Plan plan(SearchIndex index) {
+            return new Plan(index.titleCandidates(text), this);
+        }
+
+        @Override
+        boolean narrows(Node wider) {
+            return wider instanceof TitleContains && containsIgnoreCase(text, ((TitleContains) wider).text);
+        }
+
+        @Override
+        boolean matches(Photo photo, Membership membership) {
+            return containsIgnoreCase(photo.getTitle(), text);
+        }
+    }
+
+    static class DescriptionContains extends Node {
+        private final String text;
+
+        DescriptionContains(String text) {
+            this.text = text;
+        }
+
+        @Override
+        BitSet lookup(SearchIndex index) {
+            return index.descriptionMatches(text);
+        }
+
+        @Override
+        Plan plan(SearchIndex index) {
+            return new Plan(index.descriptionCandidates(text), this);
+        }
+
+        @Override
+        boolean narrows(Node wider) {
+            return wider instanceof DescriptionContains && containsIgnoreCase(text, ((DescriptionContains) wider).text);
+        }
+
+        @Override
+        boolean matches(Photo photo, Membership membership) {
+            return containsIgnoreCase(photo.getDescription(), text);
+        }
+    }
+
+    //Matches photos taken on or after from and before to.
+    static class DateBetween extends Node {
+        private final long fromDay;
+        private final long toDay;
+
+        DateBetween(LocalDate from, LocalDate to) {
+            this.fromDay = from.equals(LocalDate.MIN) ? Long.MIN_VALUE : from.toEpochDay();
+            this.toDay = to.equals(LocalDate.MAX) ? Long.MAX_VALUE : to.toEpochDay();
+        }
+
+        @Override
+        BitSet lookup(SearchIndex index) {
+            return index.dateMatches(fromDay, toDay);
+        }
+
+        @Override
+        boolean narrows(Node wider) {
+            return wider instanceof DateBetween && fromDay >= ((DateBetween) wider).fromDay && toDay <= ((DateBetween) wider).toDay;
+        }
+
+        @Override
+        boolean matches(Photo photo, Membership membership) {
+            long day = photo.getEpochDay();
+            return day >= fromDay && day < toDay;
+        }
+    }
+
+    //Matches photos in the collections with a name, ignoring case. The index answers it with a bitmap; a single
+    //photo is checked through the membership it is matched with. Unions, intersections and differences of
+    //collections are Or, And and Not over these, all on bitmaps.
+    static class InCollection extends Node {
+        private final String name;
+
+        InCollection(String name) {
+            this.name = name;
+        }
+
+        @Override
+        BitSet lookup(SearchIndex index) {
+            return index.collectionMembers(name);
+        }
+
+        @Override
+        int estimate(SearchIndex index) {
+            return index.collectionCount(name);
+        }
+
+        @Override
+        boolean narrows(Node wider) {
+            return wider instanceof InCollection && ((InCollection) wider).name.equalsIgnoreCase(name);
+        }
+
+        @Override
+        boolean matches(Photo photo, Membership membership) {
+            return membership.isIn(photo, name);
+        }
+    }
+
+    //Case-insensitive substring test that does not allocate a lowercased copy.
+    private static boolean containsIgnoreCase(String haystack, String needle) {
+        if (haystack == null) {
+            return false;
+        }
+        int last = haystack.length() - needle.length();
+        for (int i = 0; i <= last; i++) {
+            if (haystack.regionMatches(true, i, needle, 0, needle.length())) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,20 @@
+import java.util.List;
+
+//The photos matching a search, with their facet counts.
+public class SearchResults {
+    private final List<Photo> photos;
+    private final SearchFacets facets;
+
+    public SearchResults(List<Photo> photos, SearchFacets facets) {
+        this.photos = photos;
+        this.facets = facets;
+    }
+
+    public List<Photo> getPhotos() {
+        return photos;
+    }
+
+    public SearchFacets getFacets() {
+        return facets;
+    }
+}
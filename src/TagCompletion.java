@@ -0,0 +1,109 @@
+import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
+import java.awt.event.FocusAdapter;
+import java.awt.event.FocusEvent;
+import java.awt.event.KeyAdapter;
+import java.awt.event.KeyEvent;
+import java.util.List;
+import java.util.function.Supplier;
+
+//Suggests tags while one is being typed in the search bar: after "tags:", after ',' or '|' in a tags clause,
+//or in a bare value while the criterion is Tags. The most used tags starting with what was typed are listed
+//below the field; clicking one completes the tag.
+public class TagCompletion {
+    private static final int MAX_SUGGESTIONS = 8;
+
+    private final JTextField field;
+    private final PhotoCatalog catalog;
+    private final Supplier<String> criteria;
+    private final JPopupMenu popup = new JPopupMenu();
+
+    public TagCompletion(JTextField field, PhotoCatalog catalog, Supplier<String> criteria) {
+        this.field = field;
+        this.catalog = catalog;
+        this.criteria = criteria;
+        popup.setFocusable(false);
+        field.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                SwingUtilities.invokeLater(TagCompletion.this::update);
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                SwingUtilities.invokeLater(TagCompletion.this::update);
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+            }
+        });
+        field.addKeyListener(new KeyAdapter() {
+            @Override
+            public void keyPressed(KeyEvent e) {
+                if (e.getKeyCode() == KeyEvent.VK_ESCAPE || e.getKeyCode() == KeyEvent.VK_ENTER) {
+                    popup.setVisible(false);
+                }
+            }
+        });
+        field.addFocusListener(new FocusAdapter() {
+            @Override
+            public void focusLost(FocusEvent e) {
+                popup.setVisible(false);
+            }
+        });
+    }
+
+    private void update() {
+        String text = field.getText();
+        int caret = field.getCaretPosition();
+        int start = termStart(text, caret, "Tags".equals(criteria.get()));
+        String term = start < 0 ? "" : text.substring(start, caret).trim();
+        List<String> suggestions = term.isEmpty() ? null : catalog.suggestTags(term, MAX_SUGGESTIONS);
+        if (suggestions == null || suggestions.isEmpty() || suggestions.size() == 1 && suggestions.get(0).equals(term.toLowerCase())) {
+            popup.setVisible(false);
+            return;
+        }
+        popup.removeAll();
+        for (String suggestion : suggestions) {
+            JMenuItem item = new JMenuItem(suggestion);
+            item.addActionListener(e -> complete(start, caret, suggestion));
+            popup.add(item);
+        }
+        if (popup.isVisible()) {
+            popup.pack();
+        } else if (field.isShowing()) {
+            popup.show(field, 0, field.getHeight());
+        }
+    }
+
+    private void complete(int start, int end, String tag) {
+        popup.setVisible(false);
+        try {
+            field.getDocument().remove(start, end - start);
+            field.getDocument().insertString(start, tag, null);
+        } catch (BadLocationException e) {
+            e.printStackTrace();
+        }
+        field.requestFocusInWindow();
+    }
+
+    //Start of the tag being typed before the caret, or -1 if the caret isn't in a tag.
+    static int termStart(String text, int caret, boolean tagsByDefault) {
+        int tokenStart = text.lastIndexOf(' ', caret - 1) + 1;
+        String token = text.substring(tokenStart, caret);
+        int colon = token.indexOf(':');
+        if (colon >= 0) {
+            String name = token.substring(0, colon).toLowerCase();
+            if (!name.equals("tag") && !name.equals("tags")) {
+                return -1;
+            }
+        } else if (!tagsByDefault) {
+            return -1;
+        }
+        int separator = Math.max(colon, Math.max(token.lastIndexOf(','), token.lastIndexOf('|')));
+        return tokenStart + separator + 1;
+    }
+}
@@ -0,0 +1,75 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+//Numbers every distinct tag, so photos store small int arrays instead of their own sets of strings and each
+//tag string is kept once. Tags are normalized (trimmed, lower case) before they are numbered, so "Beach" and
+//"beach " are the same tag. Ids are given out in order of first use, never reused, and only mean something
+//within one run: files store tag strings.
+public class TagDictionary {
+    private static final ConcurrentSkipListMap<String, Integer> ids = new ConcurrentSkipListMap<>();
+    private static volatile String[] names = new String[256];
+    private static int count;
+
+    private TagDictionary() {
+    }
+
+    //Returns the id of a tag, numbering it if it is new, or -1 for a blank tag.
+    public static int idOf(String tag) {
+        String normalized = normalize(tag);
+        if (normalized.isEmpty()) {
+            return -1;
+        }
+        Integer id = ids.get(normalized);
+        return id != null ? id : add(normalized);
+    }
+
+    //Returns the id of a tag without numbering it, or -1 if no photo ever had it.
+    public static int find(String tag) {
+        Integer id = ids.get(normalize(tag));
+        return id != null ? id : -1;
+    }
+
+    public static String name(int id) {
+        return names[id];
+    }
+
+    //Ids of the tags starting with a prefix, in alphabetical order of the tags.
+    public static int[] idsWithPrefix(String prefix) {
+        String normalized = normalize(prefix);
+        List<Integer> found = new ArrayList<>();
+        for (Map.Entry<String, Integer> entry : ids.tailMap(normalized).entrySet()) {
+            if (!entry.getKey().startsWith(normalized)) {
+                break;
+            }
+            found.add(entry.getValue());
+        }
+        int[] result = new int[found.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = found.get(i);
+        }
+        return result;
+    }
+
+    public static String normalize(String tag) {
+        return tag.trim().toLowerCase();
+    }
+
+    //The name is stored before the id is published in the map, so anyone holding an id can read its name.
+    private static synchronized int add(String normalized) {
+        Integer existing = ids.get(normalized);
+        if (existing != null) {
+            return existing;
+        }
+        String[] current = names;
+        if (count == current.length) {
+            current = Arrays.copyOf(current, count * 2);
+        }
+        current[count] = normalized;
+        names = current;
+        ids.put(normalized, count);
+        return count++;
+    }
+}
@@ -0,0 +1,161 @@
+import java.util.*;
+import java.util.function.IntFunction;
+
+//Trigram index for case-insensitive substring search over one text field of the photos.
+//Keeps the lowercased text of every slot, so candidates are verified without re-lowercasing, unless it is
+//given a source to read the text back from; then candidates must be in every trigram's posting list before
+//their text is read.
+public class TextIndex {
+    private final IntFunction<String> source; //Null when the text is kept here
+    private final List<String> normalized = new ArrayList<>();
+    private final BitSet indexed = new BitSet();
+    private final Map<Long, Posting> postings = new HashMap<>();
+
+    public TextIndex() {
+        this(null);
+    }
+
+    //An index that doesn't keep the text but reads it back from source, which must still have a slot's
+    //text when the slot is removed.
+    public TextIndex(IntFunction<String> source) {
+        this.source = source;
+    }
+
+    //Indexes the text of a slot.
+    public void add(int slot, String text) {
+        String value = normalize(text);
+        if (source == null) {
+            while (normalized.size() <= slot) {
+                normalized.add(null);
+            }
+            normalized.set(slot, value);
+        }
+        indexed.set(slot);
+        for (long trigram : trigrams(value)) {
+            postings.computeIfAbsent(trigram, k -> new Posting()).add(slot);
+        }
+    }
+
+    //Removes a slot, using its text to find the trigrams it was filed under.
+    public void remove(int slot) {
+        if (!indexed.get(slot)) {
+            return;
+        }
+        for (long trigram : trigrams(text(slot))) {
+            Posting posting = postings.get(trigram);
+            if (posting != null && posting.remove(slot) && posting.size == 0) {
+                postings.remove(trigram);
+            }
+        }
+        if (source == null) {
+            normalized.set(slot, null);
+        }
+        indexed.clear(slot);
+    }
+
+    public void clear() {
+        normalized.clear();
+        indexed.clear();
+        postings.clear();
+    }
+
+    //Returns the slots whose text contains the query, ignoring case.
+    //Queries shorter than a trigram fall back to scanning the cached lowercased text.
+    public BitSet lookup(String query) {
+        String needle = normalize(query);
+        BitSet result = candidates(query);
+        for (int slot = result.nextSetBit(0); slot >= 0; slot = result.nextSetBit(slot + 1)) {
+            if (!text(slot).contains(needle)) {
+                result.clear(slot);
+            }
+        }
+        return result;
+    }
+
+    //Returns the slots whose text may contain the query, without reading any text: for queries shorter than
+    //a trigram that is every slot, otherwise the slots of the rarest trigram's posting list, narrowed down to
+    //those in every posting list when the text would have to be read back to check them.
+    public BitSet candidates(String query) {
+        String needle = normalize(query);
+        BitSet result = new BitSet();
+        if (needle.length() < 3) {
+            result.or(indexed);
+            return result;
+        }
+        List<Posting> needed = new ArrayList<>();
+        Posting smallest = null;
+        for (long trigram : trigrams(needle)) {
+            Posting posting = postings.get(trigram);
+            if (posting == null) {
+                return result;
+            }
+            needed.add(posting);
+            if (smallest == null || posting.size < smallest.size) {
+                smallest = posting;
+            }
+        }
+        for (int i = 0; i < smallest.size; i++) {
+            int slot = smallest.slots[i];
+            if (source == null || inAll(needed, slot)) {
+                result.set(slot);
+            }
+        }
+        return result;
+    }
+
+    private String text(int slot) {
+        return source == null ? normalized.get(slot) : normalize(source.apply(slot));
+    }
+
+    private static boolean inAll(List<Posting> postings, int slot) {
+        for (Posting posting : postings) {
+            if (Arrays.binarySearch(posting.slots, 0, posting.size, slot) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String normalize(String text) {
+        return text == null ? "" : text.toLowerCase();
+    }
+
+    //Packs every distinct run of three characters into a long.
+    private static Set<Long> trigrams(String text) {
+        Set<Long> trigrams = new HashSet<>();
+        for (int i = 0; i + 3 <= text.length(); i++) {
+            trigrams.add(((long) text.charAt(i) << 32) | ((long) text.charAt(i + 1) << 16) | text.charAt(i + 2));
+        }
+        return trigrams;
+    }
+
+    //Sorted array of slots. Trigram postings are sparse, so this is much smaller than a bitmap.
+    private static class Posting {
+        private int[] slots = new int[4];
+        private int size;
+
+        void add(int slot) {
+            int index = Arrays.binarySearch(slots, 0, size, slot);
+            if (index >= 0) {
+                return;
+            }
+            index = -index - 1;
+            if (size == slots.length) {
+                slots = Arrays.copyOf(slots, size * 2);
+            }
+            System.arraycopy(slots, index, slots, index + 1, size - index);
+            slots[index] = slot;
+            size++;
+        }
+
+        boolean remove(int slot) {
+            int index = Arrays.binarySearch(slots, 0, size, slot);
+            if (index < 0) {
+                return false;
+            }
+            System.arraycopy(slots, index + 1, slots, index, size - index - 1);
+            size--;
+            return true;
+        }
+    }
+}
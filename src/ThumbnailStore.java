@@ -0,0 +1,157 @@
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+//Disk cache of pre-scaled images, so previews read a small file instead of the multi-megabyte original.
+//A thumbnail is named <hash of source path>-<width>-<source mtime>, so editing the source makes its old
+//thumbnails unreachable; they are deleted when the new one is written. Hits refresh the file's modification
+//time, and once the cache is over its size cap the least recently used thumbnails are evicted.
+public class ThumbnailStore {
+    //Widths written in the background when a photo is added: the preview pane and the grid.
+    public static final int[] STANDARD_WIDTHS = {620, 160};
+    private static final long MAX_BYTES = 256L * 1024 * 1024;
+
+    private final Path directory;
+    private final AtomicLong totalBytes = new AtomicLong();
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "thumbnail-writer");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    public ThumbnailStore(File directory) {
+        this.directory = directory.toPath();
+        writer.execute(() -> {
+            try {
+                Files.createDirectories(this.directory);
+                long bytes = 0;
+                for (Path file : listThumbnails("*")) {
+                    bytes += Files.size(file);
+                }
+                totalBytes.addAndGet(bytes);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    //Returns the image scaled to width, from the cache if it is up to date, otherwise decoded from the
+    //source and stored. Runs on the calling thread, which should not be the EDT.
+    public BufferedImage get(String sourcePath, int width) throws IOException {
+        File source = new File(sourcePath);
+        Path thumbnail = pathFor(source, width);
+        if (Files.exists(thumbnail)) {
+            BufferedImage image = ImageIO.read(thumbnail.toFile());
+            if (image != null) {
+                thumbnail.toFile().setLastModified(System.currentTimeMillis());
+                return image;
+            }
+        }
+        BufferedImage image = PreviewLoader.decodeScaled(source, width);
+        store(source, width, image);
+        return image;
+    }
+
+    //Writes the standard thumbnails of a newly added photo in the background.
+    public void generateAsync(String sourcePath) {
+        writer.execute(() -> {
+            for (int width : STANDARD_WIDTHS) {
+                try {
+                    get(sourcePath, width);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+    }
+
+    //Deletes every thumbnail of a source file.
+    public void invalidate(String sourcePath) {
+        try {
+            for (Path stale : listThumbnails(hash(sourcePath) + "-*")) {
+                delete(stale);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void store(File source, int width, BufferedImage image) throws IOException {
+        Files.createDirectories(directory);
+        Path thumbnail = pathFor(source, width);
+        for (Path stale : listThumbnails(hash(source.getAbsolutePath()) + "-" + width + "-*")) {
+            if (!stale.equals(thumbnail)) {
+                delete(stale);
+            }
+        }
+        Path temp = Files.createTempFile(directory, "thumb", ".tmp");
+        try {
+            ImageIO.write(image, image.getColorModel().hasAlpha() ? "png" : "jpg", temp.toFile());
+            delete(thumbnail);
+            Files.move(temp, thumbnail, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        if (totalBytes.addAndGet(Files.size(thumbnail)) > MAX_BYTES) {
+            evict();
+        }
+    }
+
+    //Deletes the least recently used thumbnails until the cache is back under 90% of its cap.
+    private synchronized void evict() throws IOException {
+        List<Path> thumbnails = listThumbnails("*");
+        thumbnails.sort(Comparator.comparingLong(file -> file.toFile().lastModified()));
+        for (Path file : thumbnails) {
+            if (totalBytes.get() <= MAX_BYTES * 9 / 10) {
+                break;
+            }
+            delete(file);
+        }
+    }
+
+    private void delete(Path file) throws IOException {
+        long size = Files.exists(file) ? Files.size(file) : 0;
+        if (Files.deleteIfExists(file)) {
+            totalBytes.addAndGet(-size);
+        }
+    }
+
+    private List<Path> listThumbnails(String glob) throws IOException {
+        List<Path> files = new ArrayList<>();
+        if (Files.isDirectory(directory)) {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, glob + ".thumb")) {
+                stream.forEach(files::add);
+            }
+        }
+        return files;
+    }
+
+    private Path pathFor(File source, int width) {
+        return directory.resolve(hash(source.getAbsolutePath()) + "-" + width + "-" + Long.toHexString(source.lastModified()) + ".thumb");
+    }
+
+    private static String hash(String path) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(new File(path).getAbsolutePath().getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder();
+            for (int i = 0; i < 10; i++) {
+                hex.append(String.format("%02x", digest[i]));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -1,12 +1,14 @@
 import javax.swing.*;
-import javax.swing.tree.DefaultMutableTreeNode;
-import javax.swing.tree.DefaultTreeModel;
 import java.awt.*;
 
 //Manages the UI components for the Photo Manager application.
 public class UserInterface {
-    private DefaultTreeModel treeModel;
+    private CatalogTreeModel treeModel;
     private JTree photoTree;
+    private PhotoGridModel gridModel;
+    private PhotoGrid photoGrid;
+    private JTabbedPane viewTabs;
+    private FacetPanel facetPanel;
     private JTextField searchField;
     private JComboBox<String> searchOptions;
     private JLabel searchLabel;
@@ -19,6 +21,8 @@ public class UserInterface {
     private JSplitPane splitPane;
     private JPanel buttonPanel;
     private JLabel tagLabel;
+    private JProgressBar progressBar;
+    private JButton cancelButton;
 
     public UserInterface() {
         initializeComponents();
@@ -27,8 +31,11 @@ public class UserInterface {
 
     //Initializes UI components.
     private void initializeComponents() {
-        treeModel = new DefaultTreeModel(new DefaultMutableTreeNode("All Photos"));
+        treeModel = new CatalogTreeModel();
         photoTree = new JTree(treeModel);
+        gridModel = new PhotoGridModel();
+        photoGrid = new PhotoGrid(gridModel);
+        facetPanel = new FacetPanel();
         searchField = new JTextField();
         searchOptions = new JComboBox<>(new String[]{"Titles", "Descriptions", "Dates", "Tags"});
         searchLabel = new JLabel("Search for: ");
@@ -38,6 +45,8 @@ public class UserInterface {
         dateLabel = new JLabel("Date: ");
         buttonPanel = new JPanel(new FlowLayout());
         tagLabel = new JLabel("Tags: ");
+        progressBar = new JProgressBar();
+        cancelButton = new JButton("Cancel");
     }
 
     //Configures the UI layout and appearance.
@@ -50,6 +59,9 @@ public class UserInterface {
     //Sets colors for UI components.
     private void setComponentColors() {
         photoTree.setBackground(new Color(149, 210, 179));
+        photoGrid.setBackground(new Color(149, 210, 179));
+        facetPanel.getTree().setBackground(new Color(216, 239, 211));
+        facetPanel.setBackground(new Color(216, 239, 211));
         searchOptions.setBackground(new Color(85, 173, 155));
         searchField.setBackground(new Color(149, 210, 179));
 
@@ -70,6 +82,15 @@ public class UserInterface {
         buttonPanel.setBackground(new Color(85, 173, 155));
         topPanel.setBackground(new Color(85, 173, 155));
         topPanel.add(buttonPanel, BorderLayout.EAST);
+
+        progressBar.setStringPainted(true);
+        progressBar.setVisible(false);
+        cancelButton.setVisible(false); //Shown while an edit of many photos can still be cancelled
+        JPanel progressPanel = new JPanel(new BorderLayout());
+        progressPanel.setBackground(new Color(85, 173, 155));
+        progressPanel.add(progressBar, BorderLayout.CENTER);
+        progressPanel.add(cancelButton, BorderLayout.EAST);
+        topPanel.add(progressPanel, BorderLayout.SOUTH);
     }
 
     //Lays out the main components of the UI.
@@ -88,7 +109,17 @@ public class UserInterface {
         photoAndInfoPanel.setBackground(new Color(216, 239, 211));
 
         JScrollPane treeScroll = new JScrollPane(photoTree);
-        splitPane = new JSplitPane(JSplitPane.HORIZONTAL_SPLIT, treeScroll, photoAndInfoPanel);
+        JScrollPane gridScroll = new JScrollPane(photoGrid);
+        gridScroll.getVerticalScrollBar().setUnitIncrement(40);
+        viewTabs = new JTabbedPane();
+        viewTabs.addTab("Tree", treeScroll);
+        viewTabs.addTab("Grid", gridScroll);
+        facetPanel.setPreferredSize(new Dimension(180, 0));
+        facetPanel.setVisible(false); //Shown while a search is active
+        JPanel browsePanel = new JPanel(new BorderLayout());
+        browsePanel.add(facetPanel, BorderLayout.WEST);
+        browsePanel.add(viewTabs, BorderLayout.CENTER);
+        splitPane = new JSplitPane(JSplitPane.HORIZONTAL_SPLIT, browsePanel, photoAndInfoPanel);
         splitPane.setDividerLocation(400);
         splitPane.setBorder(null);
     }
@@ -111,10 +142,27 @@ public class UserInterface {
         return photoTree;
     }
 
-    public DefaultTreeModel getTreeModel() {
+    public CatalogTreeModel getTreeModel() {
         return treeModel;
     }
 
+    public PhotoGrid getPhotoGrid() {
+        return photoGrid;
+    }
+
+    public PhotoGridModel getGridModel() {
+        return gridModel;
+    }
+
+    //True while the grid tab is showing rather than the tree.
+    public boolean isGridShowing() {
+        return viewTabs.getSelectedIndex() == 1;
+    }
+
+    public FacetPanel getFacetPanel() {
+        return facetPanel;
+    }
+
     public JTextField getSearchField() {
         return searchField;
     }
@@ -152,4 +200,12 @@ public class UserInterface {
     public JPanel getButtonPanel() {
         return buttonPanel;
     }
+
+    public JProgressBar getProgressBar() {
+        return progressBar;
+    }
+
+    public JButton getCancelButton() {
+        return cancelButton;
+    }
 }
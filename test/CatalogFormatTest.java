@@ -0,0 +1,78 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class CatalogFormatTest {
+    @TempDir
+    File directory;
+
+    @Test
+    void snapshotRoundTrip() throws IOException {
+        Photo beach = new Photo("Beach", "Sunset over the bay", LocalDate.of(2023, 7, 14), "/photos/2023/beach.jpg");
+        beach.addTag("summer");
+        beach.addTag("sea");
+        beach.setContentHash("ab12");
+        beach.setPerceptualHash(0x0123456789abcdefL);
+        Photo city = new Photo("City", "", LocalDate.of(2021, 1, 2), "/photos/2021/city.jpg");
+        Photo dunes = new Photo("Dunes", "Long walk", LocalDate.of(2023, 7, 15), "/photos/2023/dunes.jpg");
+        Map<String, PhotoCollection> collections = new HashMap<>();
+        collections.put("Default", collection("Default", city));
+        collections.put("Trips", collection("Trips", dunes, beach));
+        collections.put("Best", collection("Best", beach));
+        File file = new File(directory, "collections.dat");
+
+        CatalogFormat.writeSnapshot(collections, file);
+        Map<String, PhotoCollection> read = CatalogFormat.readSnapshot(file);
+
+        assertFalse(CatalogFormat.isOutdatedSnapshot(file));
+        assertEquals(collections.keySet(), read.keySet());
+        List<Photo> trips = read.get("Trips").getPhotos();
+        assertEquals(Arrays.asList("Dunes", "Beach"), Arrays.asList(trips.get(0).getTitle(), trips.get(1).getTitle()));
+        assertSame(trips.get(1), read.get("Best").getPhotos().get(0)); //Stored once, shared again
+        Photo readBeach = trips.get(1);
+        assertEquals(beach.getId(), readBeach.getId());
+        assertEquals("Sunset over the bay", readBeach.getDescription());
+        assertEquals(beach.getDate(), readBeach.getDate());
+        assertEquals(beach.getFilePath(), readBeach.getFilePath());
+        assertEquals(beach.getTags(), readBeach.getTags());
+        assertEquals("ab12", readBeach.getContentHash());
+        assertEquals(0x0123456789abcdefL, readBeach.getPerceptualHash());
+        Photo readCity = read.get("Default").getPhotos().get(0);
+        assertEquals(city.getId(), readCity.getId());
+        assertEquals("", readCity.getDescription());
+        assertNull(readCity.getContentHash());
+    }
+
+    @Test
+    void emptySnapshotRoundTrip() throws IOException {
+        Map<String, PhotoCollection> collections = new HashMap<>();
+        collections.put("Default", new PhotoCollection("Default"));
+        File file = new File(directory, "collections.dat");
+
+        CatalogFormat.writeSnapshot(collections, file);
+
+        Map<String, PhotoCollection> read = CatalogFormat.readSnapshot(file);
+        assertEquals(1, read.size());
+        assertEquals(0, read.get("Default").size());
+    }
+
+    private static PhotoCollection collection(String name, Photo... photos) {
+        PhotoCollection collection = new PhotoCollection(name);
+        for (Photo photo : photos) {
+            collection.addPhoto(photo);
+        }
+        return collection;
+    }
+}
@@ -0,0 +1,182 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+//Replaying the journal after a crash: a torn or corrupted record ends the replay, and is cut off so that
+//records appended afterwards are replayed on the next load. Journals of the previous format are migrated.
+class CatalogJournalTest {
+    private static final int MAGIC = 0x504d4a32; //"PMJ2"
+    private static final int LEGACY_MAGIC = 0x504d4a31; //"PMJ1"
+    private static final byte ADD_PHOTO = 1;
+    private static final byte MOVE_PHOTO = 3;
+
+    @TempDir
+    File directory;
+
+    @Test
+    void replaysBatchRecords() {
+        writeJournal();
+        assertEquals(Arrays.asList("a", "b", "c"), titles(load()));
+    }
+
+    @Test
+    void tornTailIsCutOff() throws IOException {
+        File journalFile = writeJournal();
+        try (RandomAccessFile file = new RandomAccessFile(journalFile, "rw")) {
+            file.setLength(file.length() - 3);
+        }
+        assertEquals(Arrays.asList("a", "b"), titles(load()));
+        assertEquals(Arrays.asList("a", "b", "d"), titles(appendAndLoad("d")));
+    }
+
+    @Test
+    void recordWithBadChecksumEndsReplay() throws IOException {
+        File journalFile = writeJournal();
+        try (RandomAccessFile file = new RandomAccessFile(journalFile, "rw")) {
+            long lastBodyByte = file.length() - 5; //Before the record's CRC
+            file.seek(lastBodyByte);
+            int value = file.read();
+            file.seek(lastBodyByte);
+            file.write(value ^ 0xff);
+        }
+        assertEquals(Arrays.asList("a", "b"), titles(load()));
+        assertEquals(Arrays.asList("a", "b", "d"), titles(appendAndLoad("d")));
+    }
+
+    @Test
+    void badFirstRecordLeavesAnEmptyCatalog() throws IOException {
+        File journalFile = writeJournal();
+        try (RandomAccessFile file = new RandomAccessFile(journalFile, "rw")) {
+            file.seek(4); //Length of the first record, after the magic
+            file.writeInt(Integer.MAX_VALUE);
+        }
+        assertEquals(Collections.emptyList(), titles(load()));
+        assertEquals(Collections.singletonList("d"), titles(appendAndLoad("d")));
+    }
+
+    //A PMJ1 journal names photos by path and its photo records have no ids. Loading it gives the photos
+    //ids and rewrites the snapshot and journal in the current format, so the ids stick.
+    @Test
+    void legacyJournalIsMigrated() throws IOException {
+        File journalFile = new File(directory, "collections.journal");
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(journalFile))) {
+            out.writeInt(LEGACY_MAGIC);
+            writeRecord(out, ADD_PHOTO, body -> {
+                body.writeUTF("Default");
+                writeLegacyPhoto(body, "a");
+            });
+            writeRecord(out, ADD_PHOTO, body -> {
+                body.writeUTF("Default");
+                writeLegacyPhoto(body, "b");
+            });
+            writeRecord(out, MOVE_PHOTO, body -> {
+                body.writeUTF("/photos/a.jpg");
+                body.writeUTF("Trips");
+            });
+        }
+
+        Map<String, PhotoCollection> migrated = load();
+
+        assertEquals(Collections.singletonList("b"), titles(migrated));
+        Photo a = migrated.get("Trips").getPhotos().get(0);
+        assertEquals("a", a.getTitle());
+        assertEquals(Collections.singletonList("trip"), a.getTags());
+        try (DataInputStream in = new DataInputStream(new FileInputStream(journalFile))) {
+            assertEquals(MAGIC, in.readInt());
+        }
+        assertTrue(new File(directory, "collections.dat").exists());
+        Map<String, PhotoCollection> reloaded = load();
+        assertEquals(Collections.singletonList("b"), titles(reloaded));
+        assertEquals(a.getId(), reloaded.get("Trips").getPhotos().get(0).getId());
+        assertEquals(migrated.get("Default").getPhotos().get(0).getId(), reloaded.get("Default").getPhotos().get(0).getId());
+    }
+
+    private interface RecordBody {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    //[length][type + payload][crc32], as the journal writes them.
+    private static void writeRecord(DataOutputStream out, byte type, RecordBody payload) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream body = new DataOutputStream(bytes);
+        body.writeByte(type);
+        payload.write(body);
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        out.writeInt(bytes.size());
+        bytes.writeTo(out);
+        out.writeInt((int) crc.getValue());
+    }
+
+    //A photo record without an id, as PMJ1 journals hold them.
+    private static void writeLegacyPhoto(DataOutputStream out, String title) throws IOException {
+        out.writeUTF(title);
+        out.writeUTF("");
+        out.writeLong(LocalDate.of(2019, 3, 9).toEpochDay());
+        out.writeUTF("/photos/" + title + ".jpg");
+        out.writeInt(1);
+        out.writeUTF("trip");
+    }
+
+    //Writes two batch records to a new journal: photos a and b, then c.
+    private File writeJournal() {
+        CatalogJournal journal = journal();
+        journal.load();
+        journal.photosAdded("Default", Arrays.asList(photo("a"), photo("b")));
+        journal.photosAdded("Default", Collections.singletonList(photo("c")));
+        journal.close();
+        return new File(directory, "collections.journal");
+    }
+
+    private Map<String, PhotoCollection> appendAndLoad(String title) {
+        CatalogJournal journal = journal();
+        journal.load();
+        journal.photosAdded("Default", Collections.singletonList(photo(title)));
+        journal.close();
+        return load();
+    }
+
+    private Map<String, PhotoCollection> load() {
+        CatalogJournal journal = journal();
+        Map<String, PhotoCollection> collections = journal.load();
+        journal.close();
+        return collections;
+    }
+
+    private CatalogJournal journal() {
+        return new CatalogJournal(new File(directory, "collections.dat"), new File(directory, "collections.journal"));
+    }
+
+    private static Photo photo(String title) {
+        return new Photo(title, "", LocalDate.of(2024, 5, 1), "/photos/" + title + ".jpg");
+    }
+
+    private static List<String> titles(Map<String, PhotoCollection> collections) {
+        List<String> titles = new ArrayList<>();
+        PhotoCollection defaultCollection = collections.get("Default");
+        if (defaultCollection != null) {
+            for (Photo photo : defaultCollection.getPhotos()) {
+                titles.add(photo.getTitle());
+            }
+        }
+        return titles;
+    }
+}
@@ -0,0 +1,145 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+//Applying a burst of file changes to the catalog, as the watcher does once the folders are quiet.
+class CatalogWatcherTest {
+    @TempDir
+    Path directory;
+
+    private PhotoCatalog catalog;
+    private CatalogWatcher watcher;
+
+    @BeforeEach
+    void open() {
+        catalog = new PhotoCatalog(directory.resolve("catalog").toFile());
+        directory.resolve("catalog").toFile().mkdirs();
+        catalog.load();
+        watcher = new CatalogWatcher(catalog, directory.resolve("catalog/photos").toFile());
+    }
+
+    @AfterEach
+    void close() {
+        catalog.close();
+    }
+
+    @Test
+    void rewrittenFileIsHashedAgain() throws IOException {
+        Path file = image("a.png", Color.BLACK, Color.WHITE);
+        Photo photo = add(file);
+        photo.setContentHash("old");
+        photo.setPerceptualHash(ContentHasher.perceptualHash(file.toFile()));
+        long oldPerceptualHash = photo.getPerceptualHash();
+        image("a.png", Color.WHITE, Color.BLACK);
+
+        apply(file);
+
+        assertEquals(ContentHasher.contentHash(file), photo.getContentHash());
+        assertEquals(ContentHasher.perceptualHash(file.toFile()), photo.getPerceptualHash());
+        assertNotEquals(oldPerceptualHash, photo.getPerceptualHash());
+    }
+
+    @Test
+    void deletedFileLeavesATombstone() throws IOException {
+        Path file = image("a.png", Color.WHITE, Color.BLACK);
+        Photo photo = add(file);
+        Files.delete(file);
+
+        apply(file);
+
+        assertTrue(photo.isMissing());
+        assertSame(photo, catalog.getPhoto(file.toString()));
+    }
+
+    //Deleted and recreated under another name in the same burst: the photo follows its file.
+    @Test
+    void movedFileIsRelocated() throws IOException {
+        Path file = image("a.png", Color.WHITE, Color.BLACK);
+        Photo photo = add(file);
+        photo.setContentHash(ContentHasher.contentHash(file));
+        catalog.applyHashes(Collections.singletonList(new ContentHasher.Hashes(photo, photo.getContentHash(), 0)));
+        Path moved = Files.move(file, directory.resolve("b.png"));
+
+        apply(file, moved);
+
+        assertSame(photo, catalog.getPhoto(moved.toString()));
+        assertNull(catalog.getPhoto(file.toString()));
+        assertFalse(photo.isMissing());
+        assertEquals(1, catalog.getPhotoCount());
+    }
+
+    //A per-photo file written elsewhere, e.g. by the command line, brings its photo into the catalog.
+    @Test
+    void newPhotoFileIsAdded() throws IOException {
+        Path file = image("a.png", Color.WHITE, Color.BLACK);
+        Photo photo = new Photo("a", "", LocalDate.of(2024, 5, 1), file.toString());
+        Path photoFile = directory.resolve("catalog/photos").resolve(CatalogFormat.photoFileName(photo));
+        photoFile.getParent().toFile().mkdirs();
+        CatalogFormat.writePhotoFile(photo, photoFile.toFile());
+
+        apply(photoFile);
+
+        Photo added = catalog.getPhoto(file.toString());
+        assertNotNull(added);
+        assertEquals(photo.getId(), added.getId());
+        awaitHashes(); //Added photos are hashed in the background, and the hashes must not come after close
+    }
+
+    private void apply(Path... changed) {
+        Set<Path> paths = new HashSet<>();
+        Collections.addAll(paths, changed);
+        watcher.apply(paths, new HashSet<>());
+    }
+
+    private void awaitHashes() {
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            while (!catalog.getUnhashedPhotos().isEmpty()) {
+                Thread.sleep(10);
+            }
+        });
+    }
+
+    private Photo add(Path file) {
+        Photo photo = new Photo(file.getFileName().toString(), "", LocalDate.of(2024, 5, 1), file.toString());
+        catalog.addPhoto(photo);
+        return photo;
+    }
+
+    //A 64x64 image, left half in one colour and right half in the other.
+    private Path image(String name, Color left, Color right) throws IOException {
+        BufferedImage image = new BufferedImage(64, 64, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setColor(left);
+        g.fillRect(0, 0, 32, 64);
+        g.setColor(right);
+        g.fillRect(32, 0, 32, 64);
+        g.dispose();
+        Path file = directory.resolve(name);
+        ImageIO.write(image, "png", file.toFile());
+        return file;
+    }
+}
@@ -0,0 +1,88 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class LongIntHashMapTest {
+    @Test
+    void growsPastItsExpectedSize() {
+        LongIntHashMap map = new LongIntHashMap(1);
+        for (int i = 1; i <= 10_000; i++) {
+            assertEquals(LongIntHashMap.MISSING, map.put(i * 31L, i));
+        }
+        assertEquals(10_000, map.size());
+        for (int i = 1; i <= 10_000; i++) {
+            assertEquals(i, map.get(i * 31L));
+        }
+        assertFalse(map.containsKey(10_001 * 31L));
+    }
+
+    @Test
+    void putReplacesTheValue() {
+        LongIntHashMap map = new LongIntHashMap();
+        map.put(7, 1);
+        assertEquals(1, map.put(7, 2));
+        assertEquals(2, map.get(7));
+        assertEquals(1, map.size());
+    }
+
+    //Removing shifts later entries of a run back; every other key must still be found afterwards,
+    //including runs that wrap around the end of the table.
+    @Test
+    void removalKeepsTheOtherKeysReachable() {
+        Random random = new Random(42);
+        LongIntHashMap map = new LongIntHashMap(4);
+        Map<Long, Integer> expected = new HashMap<>();
+        List<Long> keys = new ArrayList<>();
+        for (int round = 0; round < 200_000; round++) {
+            if (keys.isEmpty() || random.nextInt(3) > 0) {
+                long key = random.nextInt(5_000) + 1; //A small key range, so keys are often put again
+                int value = random.nextInt(1_000_000);
+                Integer old = expected.put(key, value);
+                assertEquals(old == null ? LongIntHashMap.MISSING : old, map.put(key, value));
+                if (old == null) {
+                    keys.add(key);
+                }
+            } else {
+                long key = keys.remove(random.nextInt(keys.size()));
+                assertEquals((int) expected.remove(key), map.remove(key));
+                assertEquals(LongIntHashMap.MISSING, map.remove(key));
+            }
+            assertEquals(expected.size(), map.size());
+        }
+        for (long key = 1; key <= 5_000; key++) {
+            Integer value = expected.get(key);
+            assertEquals(value == null ? LongIntHashMap.MISSING : value, map.get(key));
+            assertEquals(value != null, map.containsKey(key));
+        }
+    }
+
+    @Test
+    void clearEmptiesTheMap() {
+        LongIntHashMap map = new LongIntHashMap();
+        for (int i = 1; i <= 100; i++) {
+            map.put(i, i);
+        }
+        map.clear();
+        assertEquals(0, map.size());
+        assertFalse(map.containsKey(1));
+        map.put(1, 5);
+        assertEquals(5, map.get(1));
+    }
+
+    @Test
+    void zeroIsReserved() {
+        LongIntHashMap map = new LongIntHashMap();
+        assertThrows(IllegalArgumentException.class, () -> map.put(0, 1));
+        assertEquals(LongIntHashMap.MISSING, map.get(0));
+        assertEquals(LongIntHashMap.MISSING, map.remove(0));
+        assertEquals(0, map.size());
+    }
+}
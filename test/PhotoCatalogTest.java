@@ -0,0 +1,202 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+//Importing photos that are already in the catalog, where copies are skipped and moved files are followed, and
+//changes made in steps, which can be cancelled and don't hold up queries while they are worked out.
+class PhotoCatalogTest {
+    @TempDir
+    File directory;
+
+    private PhotoCatalog catalog;
+
+    @BeforeEach
+    void open() {
+        catalog = new PhotoCatalog(directory);
+        catalog.load();
+    }
+
+    @AfterEach
+    void close() {
+        catalog.close();
+    }
+
+    @Test
+    void copyIsSkipped() throws IOException {
+        Photo original = photo("a", "hash");
+        catalog.addPhoto(original);
+        List<String> notes = new ArrayList<>();
+
+        List<Photo> imported = catalog.importPhotos(Collections.singletonList(photo("b", "hash")), notes);
+
+        assertEquals(Collections.emptyList(), imported);
+        assertEquals(Collections.singletonList(path("b") + ": copy of " + path("a")), notes);
+        assertEquals(1, catalog.getPhotoCount());
+    }
+
+    //A copy whose original is gone is the original moved: the catalog entry follows it, photo file included.
+    @Test
+    void movedFileIsRelocated() throws IOException {
+        Photo original = photo("a", "hash");
+        catalog.addPhoto(original);
+        new File(path("a")).delete();
+        List<String> notes = new ArrayList<>();
+
+        catalog.importPhotos(Collections.singletonList(photo("b", "hash")), notes);
+
+        assertEquals(Collections.singletonList(path("b") + ": moved from " + path("a")), notes);
+        assertSame(original, catalog.getPhoto(path("b")));
+        assertNull(catalog.getPhoto(path("a")));
+        File photoFile = new File(new File(directory, "photos"), CatalogFormat.photoFileName(original));
+        assertEquals(path("b"), CatalogFormat.readPhotoFile(photoFile).getFilePath());
+    }
+
+    //Copies added without the import check all stay known: removing one leaves the others to be found.
+    @Test
+    void removingACopyKeepsTheOthers() throws IOException {
+        Photo first = photo("a", "hash");
+        Photo second = photo("b", "hash");
+        catalog.addPhotos(Arrays.asList(first, second));
+        catalog.removePhoto(first);
+        List<String> notes = new ArrayList<>();
+
+        List<Photo> imported = catalog.importPhotos(Collections.singletonList(photo("c", "hash")), notes);
+
+        assertTrue(imported.isEmpty());
+        assertEquals(Collections.singletonList(path("c") + ": copy of " + path("b")), notes);
+    }
+
+    @Test
+    void cancelledChangesLeaveTheCatalogAsItWas() throws IOException {
+        List<Photo> photos = new ArrayList<>();
+        for (int i = 0; i < 1200; i++) {
+            Photo photo = photo("p" + i, "hash" + i);
+            photo.addTag("sea");
+            photos.add(photo);
+        }
+        catalog.addPhotos(photos);
+        catalog.addToCollection(photos.subList(0, 600), "Trips");
+        List<String> events = new ArrayList<>();
+        catalog.addListener(new RecordingListener(events));
+        PhotoCatalog.Progress cancelAfterFirstStep = (done, total) -> done < 500;
+
+        assertEquals(Collections.emptyList(), catalog.tagPhotos(photos, Collections.singletonList("beach"), cancelAfterFirstStep));
+        assertEquals(Collections.emptyList(), catalog.retagPhotos(photos, "sea", "ocean", cancelAfterFirstStep));
+        assertEquals(Collections.emptyList(), catalog.moveToCollection(photos, "Trips", "Cities", cancelAfterFirstStep));
+        assertEquals(Collections.emptyList(), catalog.removePhotos(photos, cancelAfterFirstStep));
+        assertFalse(catalog.deleteCollection("Trips", cancelAfterFirstStep));
+
+        assertEquals(Collections.emptyList(), events);
+        assertEquals(Collections.emptyList(), catalog.search("tags:beach|ocean", "Titles"));
+        assertEquals(1200, catalog.search("tags:sea", "Titles").size());
+        assertTrue(photos.stream().allMatch(photo -> photo.getTags().equals(Collections.singletonList("sea"))));
+        assertEquals(Arrays.asList("Default", "Trips"), catalog.getCollectionNames());
+        assertEquals(600, catalog.search("in:trips", "Titles").size());
+        assertEquals(1200, catalog.getPhotoCount());
+        catalog.close();
+        catalog = new PhotoCatalog(directory);
+        catalog.load();
+        assertEquals(Collections.emptyList(), catalog.search("tags:beach|ocean", "Titles"));
+        assertEquals(1200, catalog.search("tags:sea", "Titles").size());
+        assertEquals(600, catalog.search("in:trips", "Titles").size());
+        assertEquals(1200, catalog.getPhotoCount());
+    }
+
+    //Other threads can query the catalog while a change is being worked out, e.g. the UI while a batch edit runs.
+    @Test
+    void queriesRunBetweenSteps() throws IOException {
+        List<Photo> photos = new ArrayList<>();
+        for (int i = 0; i < 1200; i++) {
+            photos.add(photo("p" + i, "hash" + i));
+        }
+        catalog.addPhotos(photos);
+        ExecutorService ui = Executors.newSingleThreadExecutor();
+        try {
+            List<Photo> tagged = catalog.tagPhotos(photos, Collections.singletonList("beach"), (done, total) -> {
+                Future<List<String>> names = ui.submit(() -> catalog.getCollectionNames());
+                assertEquals(Collections.singletonList("Default"), assertTimeoutPreemptively(Duration.ofSeconds(5), () -> names.get()));
+                return true;
+            });
+            assertEquals(1200, tagged.size());
+            assertEquals(1200, catalog.search("tags:beach", "Titles").size());
+        } finally {
+            ui.shutdown();
+        }
+    }
+
+    //Records the events listeners hear, by kind and collection.
+    private static class RecordingListener implements PhotoCatalog.Listener {
+        private final List<String> events;
+
+        RecordingListener(List<String> events) {
+            this.events = events;
+        }
+
+        @Override
+        public void photosAdded(String collectionName, List<Photo> photos) {
+            events.add("added to " + collectionName);
+        }
+
+        @Override
+        public void photosRemoved(List<Photo> photos) {
+            events.add("removed");
+        }
+
+        @Override
+        public void photosChanged(List<Photo> photos) {
+            events.add("changed");
+        }
+
+        @Override
+        public void collectionChanged(String collectionName, List<Photo> added, List<Photo> removed) {
+            events.add(collectionName + " changed");
+        }
+
+        @Override
+        public void photoRelocated(Photo photo, String oldPath) {
+            events.add("relocated");
+        }
+
+        @Override
+        public void photoFileChanged(Photo photo) {
+            events.add("file changed");
+        }
+
+        @Override
+        public void collectionDeleted(String collectionName) {
+            events.add(collectionName + " deleted");
+        }
+    }
+
+    //A photo with a content hash, whose file exists.
+    private Photo photo(String title, String contentHash) throws IOException {
+        new File(path(title)).createNewFile();
+        Photo photo = new Photo(title, "", LocalDate.of(2024, 5, 1), path(title));
+        photo.setContentHash(contentHash);
+        return photo;
+    }
+
+    private String path(String title) {
+        return new File(directory, title + ".jpg").getPath();
+    }
+}
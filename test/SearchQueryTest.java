@@ -0,0 +1,164 @@
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SearchQueryTest {
+    private static final SearchQuery.Membership NOWHERE = (photo, collectionName) -> false;
+
+    private final Photo paris = photo("Paris at night", "Eiffel tower lights", LocalDate.of(2023, 5, 14), "paris", "summer");
+    private final Photo london = photo("London bridge", "Grey morning", LocalDate.of(2022, 11, 3), "london");
+    private final Photo rome = photo("Summer trip to Rome", "Colosseum", LocalDate.of(2023, 1, 31), "paris");
+
+    @Test
+    void andBindsTighterThanOr() {
+        SearchQuery query = SearchQuery.compile("tags:paris,summer|london", "Titles");
+        assertTrue(query.matches(paris, NOWHERE));
+        assertTrue(query.matches(london, NOWHERE));
+        assertFalse(query.matches(rome, NOWHERE)); //paris without summer
+    }
+
+    @Test
+    void clausesAreAnded() {
+        SearchQuery query = SearchQuery.compile("tags:paris date:2023 title:rome", "Titles");
+        assertTrue(query.matches(rome, NOWHERE));
+        assertFalse(query.matches(paris, NOWHERE));
+    }
+
+    @Test
+    void bareInputIsOneValueOfTheDefaultCriterion() {
+        assertTrue(SearchQuery.compile("Trip To", "Titles").matches(rome, NOWHERE));
+        assertFalse(SearchQuery.compile("trip rome", "Titles").matches(rome, NOWHERE));
+        assertTrue(SearchQuery.compile("tower", "Descriptions").matches(paris, NOWHERE));
+        assertTrue(SearchQuery.compile("london", "Tags").matches(london, NOWHERE));
+        assertTrue(SearchQuery.compile("11/2022", "Dates").matches(london, NOWHERE));
+    }
+
+    @Test
+    void quotesKeepSpacesAndSeparators() {
+        assertTrue(SearchQuery.compile("title:\"trip to\" tags:paris", "Titles").matches(rome, NOWHERE));
+        SearchQuery inQuoted = SearchQuery.compile("in:\"a,b\"", "Titles");
+        assertTrue(inQuoted.matches(paris, (photo, name) -> name.equals("a,b")));
+        assertFalse(inQuoted.matches(paris, (photo, name) -> name.equals("a") || name.equals("b")));
+    }
+
+    @Test
+    void datePeriodsAndRanges() {
+        assertTrue(SearchQuery.compile("date:14/05/2023", "Titles").matches(paris, NOWHERE));
+        assertFalse(SearchQuery.compile("date:15/05/2023", "Titles").matches(paris, NOWHERE));
+        assertTrue(SearchQuery.compile("date:05/2023", "Titles").matches(paris, NOWHERE));
+        assertTrue(SearchQuery.compile("date:01/2023..05/2023", "Titles").matches(paris, NOWHERE));
+        assertTrue(SearchQuery.compile("date:01/2023..05/2023", "Titles").matches(rome, NOWHERE));
+        assertFalse(SearchQuery.compile("date:01/2023..05/2023", "Titles").matches(london, NOWHERE));
+        assertTrue(SearchQuery.compile("date:..2022", "Titles").matches(london, NOWHERE));
+        assertFalse(SearchQuery.compile("date:2023..", "Titles").matches(london, NOWHERE));
+        assertThrows(IllegalArgumentException.class, () -> SearchQuery.compile("date:32/01/2023", "Titles"));
+        assertThrows(IllegalArgumentException.class, () -> SearchQuery.compile("date:may", "Titles"));
+    }
+
+    @Test
+    void collectionClausesAskTheMembership() {
+        SearchQuery.Membership inTrips = (photo, name) -> photo == rome && name.equals("trips");
+        assertTrue(SearchQuery.compile("in:Trips", "Titles").matches(rome, inTrips));
+        assertFalse(SearchQuery.compile("in:trips", "Titles").matches(paris, inTrips));
+        assertTrue(SearchQuery.compile("in:italy|trips", "Titles").matches(rome, inTrips));
+        assertFalse(SearchQuery.compile("in:italy,trips", "Titles").matches(rome, inTrips));
+        assertTrue(SearchQuery.compile("tags:paris -in:trips", "Titles").matches(paris, inTrips));
+        assertFalse(SearchQuery.compile("tags:paris -in:trips", "Titles").matches(rome, inTrips));
+    }
+
+    @Test
+    void equivalentInputSharesItsPlan() {
+        assertSame(SearchQuery.compile("tags:paris  date:2023", "Titles"), SearchQuery.compile(" TAGS:Paris date:2023", "Titles"));
+    }
+
+    @Test
+    void narrows() {
+        assertTrue(narrows("sunse", "sun"));
+        assertFalse(narrows("sun", "sunse"));
+        assertTrue(narrows("tags:beach date:2023", "tags:beach"));
+        assertFalse(narrows("tags:beach", "tags:beach date:2023"));
+        assertTrue(narrows("tags:beach", "tags:beach|sea"));
+        assertFalse(narrows("tags:beach|sea", "tags:beach"));
+        assertTrue(narrows("date:05/2023", "date:2023"));
+        assertFalse(narrows("date:2023", "date:05/2023"));
+        assertTrue(narrows("in:a title:t1", "in:a"));
+        assertTrue(narrows("in:A", "in:a"));
+        assertFalse(narrows("in:a", "in:b"));
+        assertFalse(narrows("title:beach", "desc:beach"));
+    }
+
+    //Whatever the plan leaves to be checked photo by photo, evaluating against the index must agree with
+    //checking every photo on its own.
+    @Test
+    void indexAgreesWithMatches() {
+        SearchIndex index = new SearchIndex();
+        List<Photo> photos = new ArrayList<>(Arrays.asList(paris, london, rome));
+        for (int i = 0; i < 50; i++) {
+            photos.add(photo("Photo " + i + (i % 3 == 0 ? " beach" : ""), i % 4 == 0 ? "sunset" : "cloudy",
+                    LocalDate.of(2020 + i % 4, 1 + i % 12, 1), i % 2 == 0 ? "even" : "odd"));
+        }
+        Map<String, Set<Photo>> collections = new HashMap<>();
+        for (Photo photo : photos) {
+            index.add(photo);
+        }
+        for (int i = 0; i < photos.size(); i += 3) {
+            index.addToCollection("Trips", photos.get(i));
+            collections.computeIfAbsent("trips", name -> new HashSet<>()).add(photos.get(i));
+        }
+        SearchQuery.Membership membership = (photo, name) -> collections.getOrDefault(name.toLowerCase(), new HashSet<>()).contains(photo);
+        for (String text : Arrays.asList("beach", "be", "title:beach tags:even", "title:\"photo 1\" tags:odd", "desc:sun",
+                "desc:sunset -in:trips", "in:trips title:1", "tags:even|odd date:2021", "-tags:even title:photo",
+                "in:trips|nowhere title:o")) {
+            SearchQuery query = SearchQuery.compile(text, "Titles");
+            Set<Photo> expected = new HashSet<>();
+            for (Photo photo : photos) {
+                if (query.matches(photo, membership)) {
+                    expected.add(photo);
+                }
+            }
+            assertEquals(expected, new HashSet<>(index.search(text, "Titles")), text);
+        }
+    }
+
+    //Photos removed in a batch are gone from every index, date ranges included, and their slots are reused.
+    @Test
+    void removedPhotosAreNotFound() {
+        SearchIndex index = new SearchIndex();
+        for (Photo photo : Arrays.asList(paris, london, rome)) {
+            index.add(photo);
+        }
+        index.removeAll(Arrays.asList(paris, rome));
+        assertEquals(Collections.emptyList(), index.search("date:2023", "Titles"));
+        assertEquals(Collections.singletonList(london), index.search("date:2022", "Titles"));
+        Photo berlin = photo("Berlin", "", LocalDate.of(2023, 5, 14), "berlin");
+        index.add(berlin);
+        assertEquals(Collections.singletonList(berlin), index.search("date:05/2023", "Titles"));
+        assertEquals(Collections.singletonList(london), index.search("tags:london", "Titles"));
+    }
+
+    private static boolean narrows(String narrower, String wider) {
+        return SearchQuery.compile(narrower, "Titles").narrows(SearchQuery.compile(wider, "Titles"));
+    }
+
+    private static Photo photo(String title, String description, LocalDate date, String... tags) {
+        Photo photo = new Photo(title, description, date, "/photos/" + title + ".jpg");
+        for (String tag : tags) {
+            photo.addTag(tag);
+        }
+        return photo;
+    }
+}